@@ -39,6 +39,11 @@ public class APIErrorResult {
      */
     protected String errorMessage;
 
+    /**
+     * 에러가 나기까지 요청을 시도한 횟수. 요청을 보내기 전에 실패한 경우 0
+     */
+    private int attemptCount;
+
     // for jackson
     public APIErrorResult(int errorCode, String errorMessage) {
         this.errorCode = errorCode;
@@ -91,6 +96,22 @@ public class APIErrorResult {
         return errorMessage;
     }
 
+    /**
+     * 에러가 나기까지 요청을 시도한 횟수로 재시도한 경우 1보다 크다.
+     * @return 시도 횟수. 요청을 보내기 전에 실패한 경우 0
+     */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /**
+     * 에러가 나기까지 요청을 시도한 횟수를 설정 한다.
+     * @param attemptCount 시도 횟수
+     */
+    public void setAttemptCount(int attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
     /**
      * 결과 객체를 String으로 표현
      * @return 요청 URL, 에러 코드, 에러 메시지를 포함한 string
@@ -101,6 +122,9 @@ public class APIErrorResult {
         sb.append("requestURL='").append(requestURL).append('\'');
         sb.append(", errorCode=").append(errorCode);
         sb.append(", errorMessage='").append(errorMessage).append('\'');
+        if (attemptCount > 1) {
+            sb.append(", attemptCount=").append(attemptCount);
+        }
         sb.append('}');
         return sb.toString();
     }
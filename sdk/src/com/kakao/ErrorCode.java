@@ -29,6 +29,14 @@ import java.util.Map;
      * 클라이언트 단에서 http 요청 전,후로 에러 발생한 경우. code = -777
      */
     CLIENT_ERROR_CODE(-777),
+    /**
+     * 요청에 설정한 deadline까지 결과를 받지 못한 경우. code = -778
+     */
+    DEADLINE_EXCEEDED_CODE(-778),
+    /**
+     * 서버가 응답하지 못하는 상태로 보여 요청을 보내지 않고 바로 실패한 경우. code = -779
+     */
+    CIRCUIT_OPEN_CODE(-779),
     /**
      * SDK가 인지 못하고 있는 에러코드
      */
@@ -24,6 +24,9 @@ import com.kakao.helper.ServerProtocol;
 import com.kakao.http.FilePart;
 import com.kakao.http.HttpRequestBuilder;
 import com.kakao.http.HttpRequestTask;
+import com.kakao.http.RequestHandle;
+import com.kakao.http.RequestPriority;
+import com.kakao.http.RequestTimeout;
 import com.kakao.rest.APIHttpRequestTask;
 
 import java.io.File;
@@ -38,12 +41,24 @@ public class KakaoStoryService {
     /**
      * 카카오스토리 프로필 요청
      * @param responseHandler 프로필 요청 결과에 대한 handler
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestProfile(final KakaoStoryHttpResponseHandler<KakaoStoryProfile> responseHandler) {
+    public static RequestHandle requestProfile(final KakaoStoryHttpResponseHandler<KakaoStoryProfile> responseHandler) {
+        return requestProfile(responseHandler, null);
+    }
+
+    /**
+     * timeout을 지정한 카카오스토리 프로필 요청
+     * @param responseHandler 프로필 요청 결과에 대한 handler
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestProfile(final KakaoStoryHttpResponseHandler<KakaoStoryProfile> responseHandler, final RequestTimeout timeout) {
         String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.STORY_PROFILE_PATH);
         HttpRequestBuilder requestBuilder = HttpRequestBuilder.post(url);
         APIHttpRequestTask.addCommon(requestBuilder);
-        APIHttpRequestTask.checkSessionAndExecute(
+        requestBuilder.setTimeout(timeout);
+        return APIHttpRequestTask.checkSessionAndExecute(
                 new APIHttpRequestTask<KakaoStoryProfile>(
                         requestBuilder.build(),
                         responseHandler,
@@ -57,32 +72,62 @@ public class KakaoStoryService {
      * 카카오스토리에 포스팅 요청전에 이미지 업로드 요청
      * @param responseHandler 이미지 업로드 요청 결과에 대한 handler
      * @param file 업로드할 이미지 파일
+     * @return 요청을 취소할 때 사용하는 handle
+     * @throws FileNotFoundException 업로드할 파일이 존재하는 않는 경우 발생한다.
+     */
+    public static RequestHandle requestUpload(final KakaoStoryHttpResponseHandler<KakaoStoryUpload> responseHandler, final File file) throws FileNotFoundException {
+        return requestUpload(responseHandler, file, null);
+    }
+
+    /**
+     * timeout을 지정한 이미지 업로드 요청
+     * @param responseHandler 이미지 업로드 요청 결과에 대한 handler
+     * @param file 업로드할 이미지 파일
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
      * @throws FileNotFoundException 업로드할 파일이 존재하는 않는 경우 발생한다.
      */
-    public static void requestUpload(final KakaoStoryHttpResponseHandler<KakaoStoryUpload> responseHandler, final File file) throws FileNotFoundException {
+    public static RequestHandle requestUpload(final KakaoStoryHttpResponseHandler<KakaoStoryUpload> responseHandler, final File file,
+                                              final RequestTimeout timeout) throws FileNotFoundException {
         String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.STORY_UPLOAD_PATH);
         HttpRequestBuilder requestBuilder = HttpRequestBuilder.post(url);
         APIHttpRequestTask.addCommon(requestBuilder);
+        requestBuilder.setTimeout(timeout);
 
         requestBuilder.setBodyEncoding(ServerProtocol.BODY_ENCODING);
+        requestBuilder.setPriority(RequestPriority.BACKGROUND);
         requestBuilder.addBodyPart(new FilePart(ServerProtocol.FILE_KEY, file));
 
-        APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<KakaoStoryUpload>(requestBuilder.build(), responseHandler, KakaoStoryUpload.class), responseHandler);
+        return APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<KakaoStoryUpload>(requestBuilder.build(), responseHandler, KakaoStoryUpload.class), responseHandler);
     }
 
     /**
      * 카카오스토리에 포스팅 요청
      * @param responseHandler 포스팅 요청 결과에 대한 handler
      * @param parameters 포스트때 사용할 정보
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestPost(final KakaoStoryHttpResponseHandler<Void> responseHandler,
+    public static RequestHandle requestPost(final KakaoStoryHttpResponseHandler<Void> responseHandler,
                                    final Bundle parameters) {
+        return requestPost(responseHandler, parameters, null);
+    }
+
+    /**
+     * timeout을 지정한 카카오스토리 포스팅 요청
+     * @param responseHandler 포스팅 요청 결과에 대한 handler
+     * @param parameters 포스트때 사용할 정보
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestPost(final KakaoStoryHttpResponseHandler<Void> responseHandler,
+                                   final Bundle parameters, final RequestTimeout timeout) {
         String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.STORY_POST_PATH);
         HttpRequestBuilder requestBuilder = HttpRequestBuilder.post(url);
         APIHttpRequestTask.addCommon(requestBuilder);
+        requestBuilder.setTimeout(timeout);
 
         APIHttpRequestTask.addQueryParams(requestBuilder, parameters);
-        APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<Void>(requestBuilder.build(), responseHandler, Void.class), responseHandler);
+        return APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<Void>(requestBuilder.build(), responseHandler, Void.class), responseHandler);
     }
 
 }
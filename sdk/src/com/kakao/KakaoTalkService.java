@@ -21,6 +21,8 @@ package com.kakao;
 import com.kakao.helper.ServerProtocol;
 import com.kakao.http.HttpRequestBuilder;
 import com.kakao.http.HttpRequestTask;
+import com.kakao.http.RequestHandle;
+import com.kakao.http.RequestTimeout;
 import com.kakao.rest.APIHttpRequestTask;
 
 /**
@@ -32,8 +34,19 @@ public class KakaoTalkService {
     /**
      * 카카오톡 프로필 요청
      * @param responseHandler 프로필 요청 결과에 대한 handler
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestProfile(final KakaoTalkHttpResponseHandler<KakaoTalkProfile> responseHandler) {
+    public static RequestHandle requestProfile(final KakaoTalkHttpResponseHandler<KakaoTalkProfile> responseHandler) {
+        return requestProfile(responseHandler, null);
+    }
+
+    /**
+     * timeout을 지정한 카카오톡 프로필 요청
+     * @param responseHandler 프로필 요청 결과에 대한 handler
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestProfile(final KakaoTalkHttpResponseHandler<KakaoTalkProfile> responseHandler, final RequestTimeout timeout) {
         String url = HttpRequestTask.createBaseURL(
                 ServerProtocol.API_AUTHORITY,
                 ServerProtocol.TALK_PROFILE_PATH
@@ -41,7 +54,8 @@ public class KakaoTalkService {
 
         HttpRequestBuilder requestBuilder = HttpRequestBuilder.post(url);
         APIHttpRequestTask.addCommon(requestBuilder);
-        APIHttpRequestTask.checkSessionAndExecute(
+        requestBuilder.setTimeout(timeout);
+        return APIHttpRequestTask.checkSessionAndExecute(
                 new APIHttpRequestTask<KakaoTalkProfile>(
                         requestBuilder.build(),
                         responseHandler,
@@ -18,12 +18,32 @@
 package com.kakao;
 
 import com.kakao.helper.Logger;
+import com.kakao.http.HttpRequestTask;
 
 /**
  * 사용자정보 요청 ({@link UserManagement#requestMe(MeResponseCallback)}) 호출할 때 넘겨주고 콜백을 받는다.
  * @author MJ
  */
 public abstract class MeResponseCallback extends UserProfileResponseCallback {
+    // 서버에 확인하기 전에 먼저 전달한 캐시의 사용자정보. callback thread에서만 접근한다.
+    private UserProfile deliveredStaleProfile;
+
+    /**
+     * 캐시에서 읽은 사용자정보를 {@link #onSuccess(UserProfile)}로 먼저 전달한다.
+     * 이후 서버에서 받은 정보가 같으면 {@link #onSuccess(UserProfile)}를 다시 호출하지 않는다.
+     * 서버의 결과와 같이 요청이 취소되면 전달하지 않는다.
+     * @param staleProfile 캐시에서 읽은 사용자정보
+     * @param requestTask 서버에 다시 확인할 요청
+     */
+    void deliverStaleProfile(final UserProfile staleProfile, final HttpRequestTask<?> requestTask) {
+        requestTask.postBeforeResult(new Runnable() {
+            @Override
+            public void run() {
+                deliveredStaleProfile = staleProfile;
+                onSuccess(staleProfile);
+            }
+        });
+    }
 
     /**
      * 로그인을 성공적으로 마친 경우로
@@ -73,6 +93,12 @@ public abstract class MeResponseCallback extends UserProfileResponseCallback {
             onError("MeResponseCallback : onSuccessUserProfile is called but the result userProfile is null.", new APIErrorResult(null, "the result of Me request is null."));
         else {
             userProfile.saveUserToCache();
+            final UserProfile staleProfile = deliveredStaleProfile;
+            deliveredStaleProfile = null;
+            if (staleProfile != null && staleProfile.hasSameContents(userProfile)) {
+                Logger.getInstance().d("MeResponseCallback : user info is not changed since the cached one was delivered.");
+                return;
+            }
             onSuccess(userProfile);
         }
     }
@@ -85,6 +111,7 @@ public abstract class MeResponseCallback extends UserProfileResponseCallback {
     @Override
     protected void onHttpSessionClosedFailure(final APIErrorResult errorResult) {
         Logger.getInstance().d("MeResponseCallback : session is closed before requesting user info. errorResult = " + errorResult);
+        deliveredStaleProfile = null;
         onSessionClosedFailure(errorResult);
     }
 
@@ -97,6 +124,7 @@ public abstract class MeResponseCallback extends UserProfileResponseCallback {
     protected void onHttpFailure(final APIErrorResult errorResult) {
         if (errorResult.getErrorCode() == ErrorCode.NOT_REGISTERED_USER_CODE) {
             Logger.getInstance().d("MeResponseCallback : " + errorResult);
+            deliveredStaleProfile = null;
             onNotSignedUp();
         } else {
             onError("MeResponseCallback : server error occurred during requesting user info. ", errorResult);
@@ -111,8 +139,13 @@ public abstract class MeResponseCallback extends UserProfileResponseCallback {
      */
     private void onError(final String msg, final APIErrorResult errorResult) {
         Logger.getInstance().d(msg + errorResult);
+        final UserProfile staleProfile = deliveredStaleProfile;
+        deliveredStaleProfile = null;
         if (!Session.getCurrentSession().isOpened())
             onSessionClosedFailure(errorResult);
+        else if (staleProfile != null)
+            // 캐시의 정보를 이미 전달했으므로 다시 확인하지 못한 것은 알리지 않는다.
+            Logger.getInstance().d("MeResponseCallback : failed to revalidate the cached user info.");
         else
             onFailure(errorResult);
     }
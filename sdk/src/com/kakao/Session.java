@@ -22,24 +22,29 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.webkit.CookieManager;
 import android.webkit.CookieSyncManager;
 
 import com.kakao.authorization.AuthorizationResult;
+import com.kakao.authorization.Authorizer;
 import com.kakao.authorization.accesstoken.AccessToken;
 import com.kakao.authorization.accesstoken.AccessTokenRequest;
+import com.kakao.authorization.accesstoken.GetterAccessToken;
 import com.kakao.authorization.authcode.AuthorizationCode;
 import com.kakao.authorization.authcode.AuthorizationCodeRequest;
 import com.kakao.exception.KakaoException;
 import com.kakao.exception.KakaoException.ERROR_TYPE;
 import com.kakao.helper.Logger;
+import com.kakao.helper.ServerProtocol;
 import com.kakao.helper.SharedPreferencesCache;
 import com.kakao.helper.Utility;
+import com.kakao.http.HttpResponseCache;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -47,7 +52,8 @@ import java.util.List;
  * @author MJ
  */
 public class Session {
-    private static Session currentSession;
+    private static volatile Session currentSession;
+    private static volatile boolean loginPipelineEnabled = false;
     private static final String APP_KEY_PROPERTY = "com.kakao.sdk.AppKey";
     private static final String REDIRECT_URL_PREFIX = "kakao";
     private static final String REDIRECT_URL_POSTFIX = "://oauth";
@@ -67,6 +73,14 @@ public class Session {
     private RequestType requestType;
     private AuthorizationCode authorizationCode;
     private AccessToken accessToken;
+    // access token이 아직 유효한데 미리 갱신하는 중인지 여부
+    private boolean proactiveRefresh;
+    // 로그인 단계별 소요 시간 (ms)
+    private long requestStartedAt;
+    private long lastAuthorizationCodeElapsedTime = -1;
+    private long lastAccessTokenElapsedTime = -1;
+    // 위 값들이 바뀔 때마다 INSTANCE_LOCK 안에서 새로 만들어 교체한다. 요청마다 확인하는 값은 lock 없이 이 snapshot에서 읽는다.
+    private volatile Snapshot snapshot;
 
     /**
      * 세션이 존재하지 않으면 세션을 생성하고, 기존에 존재하는데 만료되었으면 갱신을 시도한다.
@@ -103,17 +117,18 @@ public class Session {
      * 현재 세션을 반환한다.
      * @return 현재 세션 객체
      */
-    public static synchronized Session getCurrentSession() {
-        if(currentSession == null)
+    public static Session getCurrentSession() {
+        final Session session = currentSession;
+        if(session == null)
             throw new IllegalStateException("Session is not initialized. Use Session#initializeSession(Context ,SessionCallback) in login process.");
-        return currentSession;
+        return session;
     }
 
     /**
      * 세션 오픈을 진행한다.
      * {@link SessionState#OPENED} 상태이면 바로 종료.
      * {@link SessionState#CLOSED} 상태이면 authorization code 요청. 에러/취소시 {@link SessionState#CLOSED}
-     * {@link SessionState#OPENING} 상태이면 code 또는 refresh token 이용하여  access token 을 받아온다. 에러/취소시 {@link SessionState#CLOSED}, refresh 취소시에만 {@link SessionState#OPENING} 유지.
+     * {@link SessionState#OPENING} 상태이면 code 또는 refresh token 이용하여  access token 을 받아온다. refresh token을 이용하는 경우와 login pipeline을 사용하는 경우는 LoginActivity 없이 background에서 진행한다. 에러/취소시 {@link SessionState#CLOSED}, refresh 취소시에만 {@link SessionState#OPENING} 유지.
      * param으로 받은 콜백으로 그 결과를 전달한다.
      * @param sessionCallback 오픈 결과를 받은 콜백
      */
@@ -137,6 +152,7 @@ public class Session {
                     case CLOSED:
                         if (appKey != null && redirectUri != null) {
                             this.requestType = RequestType.GETTING_AUTHORIZATION_CODE;
+                            this.requestStartedAt = SystemClock.elapsedRealtime();
                             final AuthorizationCodeRequest authorizationCodeRequest = AuthorizationCodeRequest.createNewRequest(appKey, redirectUri);
                             requestLogin(getLoginActivityIntent(authorizationCodeRequest));
                         } else {
@@ -146,12 +162,18 @@ public class Session {
                     case OPENING:
                         if(accessToken.hasRefreshToken()){
                             this.requestType = RequestType.REFRESHING_ACCESS_TOKEN;
+                            this.requestStartedAt = SystemClock.elapsedRealtime();
                             final  AccessTokenRequest accessTokenRequest = AccessTokenRequest.createRequestWithRefreshToken(context, appKey, redirectUri, accessToken.getRefreshTokenString());
-                            requestLogin(getLoginActivityIntent(accessTokenRequest));
+                            requestAccessTokenInBackground(accessTokenRequest);
                         } else if(authorizationCode.hasAuthorizationCode()){
                             this.requestType = RequestType.GETTING_ACCESS_TOKEN;
+                            this.requestStartedAt = SystemClock.elapsedRealtime();
                             final AccessTokenRequest accessTokenRequest = AccessTokenRequest.createRequestWithAuthorizationCode(context, appKey, redirectUri, authorizationCode.getAuthorizationCode());
-                            requestLogin(getLoginActivityIntent(accessTokenRequest));
+                            if (loginPipelineEnabled) {
+                                requestAccessTokenInBackground(accessTokenRequest);
+                            } else {
+                                requestLogin(getLoginActivityIntent(accessTokenRequest));
+                            }
                         } else {
                             internalClose(new KakaoException(ERROR_TYPE.AUTHORIZATION_FAILED, "can not request access token because both authorization code and refresh token are invalid."), false);
                         }
@@ -185,24 +207,37 @@ public class Session {
     public final SessionState checkState() {
         synchronized (INSTANCE_LOCK) {
             if(state.isOpened() && !accessToken.hasValidAccessToken()){
-                synchronized (INSTANCE_LOCK) {
-                    state = SessionState.OPENING;
-                    requestType = null;
-                    authorizationCode = AuthorizationCode.createEmptyCode();
-                }
+                state = SessionState.OPENING;
+                requestType = null;
+                authorizationCode = AuthorizationCode.createEmptyCode();
+                publishSnapshot();
             }
             return state;
         }
     }
 
+    /**
+     * 서버가 access token을 거부(401)한 경우 호출하여 refresh token으로 갱신할 수 있는 상태로 바꾼다.
+     * 그 사이 access token이 이미 갱신되었다면 아무것도 하지 않는다.
+     * @param rejectedAccessToken 서버가 거부한 access token
+     */
+    public void invalidateAccessToken(final String rejectedAccessToken) {
+        synchronized (INSTANCE_LOCK) {
+            if (state.isOpened() && accessToken.getAccessTokenString().equals(rejectedAccessToken)) {
+                state = SessionState.OPENING;
+                requestType = null;
+                authorizationCode = AuthorizationCode.createEmptyCode();
+                publishSnapshot();
+            }
+        }
+    }
+
     /**
      * 현재 세션의 상태
      * @return 세션의 상태
      */
     public SessionState getState() {
-        synchronized (INSTANCE_LOCK) {
-            return state;
-        }
+        return snapshot.state;
     }
 
     /**
@@ -210,6 +245,11 @@ public class Session {
      * @return 세션이 열린 상태라면 true, 그외의 경우 false를 반환한다.
      */
     public final boolean isOpened() {
+        // 열려 있고 만료되지 않은 경우는 lock 없이 바로 판단한다.
+        final Snapshot current = snapshot;
+        if (current.state == SessionState.OPENED && System.currentTimeMillis() <= current.validUntil) {
+            return true;
+        }
         final SessionState state = checkState();
         return state == SessionState.OPENED;
     }
@@ -243,11 +283,78 @@ public class Session {
      * @return access token
      */
     public final String getAccessToken() {
+        return snapshot.accessTokenString;
+    }
+
+    /**
+     * 현재 access token으로 만든 Authorization header 값을 반환한다. access token이 바뀔 때 미리 만들어 둔 값이다.
+     * @return Bearer authorization header 값
+     */
+    public final String getAuthorizationHeaderValue() {
+        return snapshot.authorizationHeaderValue;
+    }
+
+    /**
+     * authorization code를 받은 후 access token 요청을 LoginActivity를 다시 띄우지 않고 background에서 바로 진행할지를 지정한다.
+     * 기본값은 false로 기존과 같이 access token 요청을 위해 LoginActivity를 한번 더 띄운다.
+     * @param enabled background에서 바로 access token을 요청하려면 true
+     */
+    public static void setLoginPipelineEnabled(final boolean enabled) {
+        loginPipelineEnabled = enabled;
+    }
+
+    public static boolean isLoginPipelineEnabled() {
+        return loginPipelineEnabled;
+    }
+
+    /**
+     * @return 마지막 authorization code 요청에 걸린 시간(ms). 사용자 입력 시간을 포함한다. 요청한 적이 없으면 -1
+     */
+    public final long getLastAuthorizationCodeElapsedTime() {
         synchronized (INSTANCE_LOCK) {
-            return (accessToken == null) ? null : accessToken.getAccessTokenString();
+            return lastAuthorizationCodeElapsedTime;
         }
     }
 
+    /**
+     * @return 마지막 access token 요청(authorization code 또는 refresh token 이용)에 걸린 시간(ms). 요청한 적이 없으면 -1
+     */
+    public final long getLastAccessTokenElapsedTime() {
+        synchronized (INSTANCE_LOCK) {
+            return lastAccessTokenElapsedTime;
+        }
+    }
+
+    /**
+     * 현재 세션이 가지고 있는 access token의 만료 시각을 반환한다.
+     * @return access token 만료 시각. access token이 없으면 null
+     */
+    public final Date getAccessTokenExpiresAt() {
+        synchronized (INSTANCE_LOCK) {
+            return (accessToken == null) ? null : accessToken.getAccessTokenExpiresAt();
+        }
+    }
+
+    /**
+     * access token이 아직 유효하더라도 refresh token으로 미리 갱신한다.
+     * 갱신하는 동안에는 만료되었을 때와 같이 {@link SessionState#OPENING} 상태가 된다.
+     * 네트워크 오류 등으로 갱신에 실패하면 기존 access token을 그대로 사용하여 {@link SessionState#OPENED} 상태로 돌아가고,
+     * 서버가 refresh token을 거부한 경우(예: invalid_grant)에만 세션을 close 한다.
+     * @param sessionCallback 갱신 결과를 받을 콜백
+     * @return 갱신을 시작했거나 이미 갱신 중이면 true, refresh token이 없어 갱신할 수 없으면 false
+     */
+    public boolean refreshAccessToken(final SessionCallback sessionCallback) {
+        synchronized (INSTANCE_LOCK) {
+            if (state.isOpened() && requestType == null && accessToken.hasRefreshToken()) {
+                state = SessionState.OPENING;
+                authorizationCode = AuthorizationCode.createEmptyCode();
+                proactiveRefresh = true;
+                publishSnapshot();
+            }
+        }
+        return implicitOpen(sessionCallback);
+    }
+
     /**
      * 앱 캐시를 반환한다.
      * @return 앱 캐시
@@ -291,9 +398,14 @@ public class Session {
 
         synchronized (INSTANCE_LOCK) {
             final SessionState previousState = state;
+            if (requestType != null) {
+                lastAuthorizationCodeElapsedTime = SystemClock.elapsedRealtime() - requestStartedAt;
+                Logger.getInstance().d("authorization code phase took " + lastAuthorizationCodeElapsedTime + "ms");
+            }
             if (authCode != null) {
                 this.authorizationCode = authCode;
                 state = SessionState.OPENING;
+                publishSnapshot();
                 // log만 남기고 callback은 호출되지 않는다.
                 onStateChange(previousState, state, requestType, null, false);
                 //  request가 성공적으로 끝났으니 request는 reset
@@ -333,6 +445,10 @@ public class Session {
 
         synchronized (INSTANCE_LOCK) {
             final SessionState previousState = state;
+            if (requestType != null) {
+                lastAccessTokenElapsedTime = SystemClock.elapsedRealtime() - requestStartedAt;
+                Logger.getInstance().d(requestType + " phase took " + lastAccessTokenElapsedTime + "ms");
+            }
             if (resultAccessToken != null) {
                 // refresh 요청에는 refresh token이 내려오지 않을 수 있으므로 accessToken = resultAccessToken을 하면 안된다.
                 accessToken.updateAccessToken(resultAccessToken);
@@ -340,6 +456,17 @@ public class Session {
                 authorizationCode = AuthorizationCode.createEmptyCode();
                 saveTokenToCache(accessToken);
                 state = SessionState.OPENED;
+                proactiveRefresh = false;
+                publishSnapshot();
+                onStateChange(previousState, state, requestType, null, false);
+                requestType = null;
+            } else if (proactiveRefresh && requestType != null && accessToken.hasValidAccessToken() && (result == null || !result.isRejected())) {
+                // 미리 갱신하다 일시적인 오류로 실패한 경우는 아직 유효한 기존 access token으로 다시 open 상태가 된다.
+                Logger.getInstance().d("failed to refresh access token ahead of expiry. keep the current access token. ex = " + exception.getMessage());
+                state = SessionState.OPENED;
+                proactiveRefresh = false;
+                authorizationCode = AuthorizationCode.createEmptyCode();
+                publishSnapshot();
                 onStateChange(previousState, state, requestType, null, false);
                 requestType = null;
             } else {
@@ -364,10 +491,9 @@ public class Session {
         this.sessionCallbacks = new ArrayList<SessionCallback>();
         this.sessionCallbackHandler = new Handler(Looper.getMainLooper()); //세션 callback은 main thread에서 호출되도록 한다.
 
-        final Bundle loadedFromCache = appCache.load();
         synchronized (INSTANCE_LOCK) {
             authorizationCode = AuthorizationCode.createEmptyCode();
-            accessToken = AccessToken.createFromCache(loadedFromCache);
+            accessToken = AccessToken.createFromCache(appCache);
             if (accessToken.hasValidAccessToken()) {
                 this.state = SessionState.OPENED;
             } else if (accessToken.hasRefreshToken()) {
@@ -376,6 +502,7 @@ public class Session {
                 this.state = SessionState.CLOSED;
                 internalClose(null, false);
             }
+            publishSnapshot();
         }
     }
 
@@ -422,6 +549,22 @@ public class Session {
         return intent;
     }
 
+    /**
+     * 사용자 입력이 필요 없는 access token 요청(refresh token 또는 이미 받은 authorization code 이용)은 LoginActivity를 띄우지 않고 http executor에서 바로 수행한다.
+     * 결과는 main thread에서 {@link #onAccessTokenCompleted(AuthorizationResult)}로 전달된다.
+     */
+    private void requestAccessTokenInBackground(final AccessTokenRequest accessTokenRequest) {
+        final GetterAccessToken getterAccessToken = new GetterAccessToken(accessTokenRequest);
+        getterAccessToken.setContext(context);
+        getterAccessToken.setOnAuthorizationListener(new Authorizer.OnAuthorizationListener() {
+            @Override
+            public void onAuthorizationCompletion(final AuthorizationResult result) {
+                onAccessTokenCompleted(result);
+            }
+        });
+        getterAccessToken.requestAccessToken();
+    }
+
     private void requestLogin(final Intent intent) {
         boolean found = startLoginActivity(intent);
         if (!found) {
@@ -449,12 +592,20 @@ public class Session {
             final SessionState previous = state;
             state = SessionState.CLOSED;
             requestType = null;
+            proactiveRefresh = false;
             authorizationCode = AuthorizationCode.createEmptyCode();
             accessToken = AccessToken.createEmptyToken();
+            publishSnapshot();
             onStateChange(previous, state, requestType, kakaoException, forced);
         }
+        // 이전 사용자의 응답이 남지 않도록 응답 cache도 비운다.
+        HttpResponseCache.purgeAll();
         if (this.appCache != null) {
             this.appCache.clearAll();
+            // 로그아웃/탈퇴는 토큰 삭제가 반드시 저장되어야 한다.
+            if (forced) {
+                this.appCache.flush();
+            }
         }
         // 해당 도메인 cookie만 지우려고 했으나 CookieManager가 관리하는 cookie가 한 app에 대한 cookie여서 모두 날려도 되겠다.
         // CookieManager를 쓰려면 CookieSyncManager를 만들어야 하는 버그가 있다.
@@ -462,9 +613,18 @@ public class Session {
         CookieManager.getInstance().removeAllCookie();
     }
 
+    /**
+     * INSTANCE_LOCK 안에서 state나 access token을 바꾼 후 호출한다.
+     */
+    private void publishSnapshot() {
+        snapshot = new Snapshot(state, accessToken);
+    }
+
     private void saveTokenToCache(final AccessToken newToken) {
         if (newToken != null && appCache != null) {
             newToken.saveAccessTokenToCache(appCache);
+            // 새로 받은 token은 write-behind를 기다리지 않고 바로 저장한다. 저장 전에 죽으면 다음 실행 때 이미 사용한 refresh token으로 갱신하게 된다.
+            appCache.flush();
         }
     }
 
@@ -553,4 +713,23 @@ public class Session {
             return this == RequestType.REFRESHING_ACCESS_TOKEN;
         }
     }
+
+    /**
+     * 요청마다 lock 없이 읽을 수 있도록 세션 상태를 복사해 둔 불변 객체
+     */
+    private static final class Snapshot {
+        private final SessionState state;
+        private final String accessTokenString;
+        private final String authorizationHeaderValue;
+        // access token이 유효한 마지막 시각(ms). access token이 없으면 Long.MIN_VALUE
+        private final long validUntil;
+
+        private Snapshot(final SessionState state, final AccessToken accessToken) {
+            this.state = state;
+            this.accessTokenString = (accessToken == null) ? null : accessToken.getAccessTokenString();
+            this.authorizationHeaderValue = ServerProtocol.AUTHORIZATION_BEARER + " " + accessTokenString;
+            final Date expiresAt = (accessToken == null) ? null : accessToken.getAccessTokenExpiresAt();
+            this.validUntil = (Utility.isNullOrEmpty(accessTokenString) || expiresAt == null) ? Long.MIN_VALUE : expiresAt.getTime();
+        }
+    }
 }
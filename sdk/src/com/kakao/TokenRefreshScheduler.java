@@ -0,0 +1,268 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao;
+
+import java.util.Date;
+import java.util.Random;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.kakao.exception.KakaoException;
+import com.kakao.helper.Logger;
+
+/**
+ * access token이 만료되기 전에 background에서 미리 갱신하는 scheduler.
+ * 만료 시각으로부터 refresh window와 임의의 jitter 만큼 앞선 시각에 {@link Session#refreshAccessToken(SessionCallback)}을 호출하여
+ * 오랫동안 사용하지 않다가 처음 API를 요청할 때 401과 토큰 갱신 왕복 시간을 치르지 않도록 한다.
+ * 앱이 background에 있는 동안에는 갱신하지 않고, 다시 foreground로 돌아왔을 때 갱신한다.
+ * 모든 동작은 main thread에서 수행된다.
+ * @author kkung
+ */
+public class TokenRefreshScheduler {
+    public static final long DEFAULT_REFRESH_WINDOW_IN_MS = 10 * 60 * 1000L;
+    public static final long DEFAULT_MAX_JITTER_IN_MS = 60 * 1000L;
+    // 세션이 열려있지 않을 때 다시 확인하는 간격
+    private static final long IDLE_CHECK_INTERVAL_IN_MS = 5 * 60 * 1000L;
+    // 갱신에 실패하여 기존 access token을 계속 사용하는 경우 다시 시도하기까지의 간격
+    private static final long RETRY_INTERVAL_IN_MS = 60 * 1000L;
+
+    private final long refreshWindowInMs;
+    private final long maxJitterInMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    // 아래 값들은 main thread에서만 접근한다.
+    private boolean started;
+    private boolean foreground = true;
+    private boolean refreshing;
+    private int startedActivityCount;
+    private Application application;
+    private Object activityLifecycleCallbacks;
+    // refreshAt을 계산할 때 사용한 access token 만료 시각
+    private long scheduledExpiresAt;
+    private long refreshAt;
+
+    public TokenRefreshScheduler() {
+        this(DEFAULT_REFRESH_WINDOW_IN_MS, DEFAULT_MAX_JITTER_IN_MS);
+    }
+
+    /**
+     * @param refreshWindowInMs 만료 시각으로부터 이 시간 이내로 들어오면 갱신한다.
+     * @param maxJitterInMs 여러 단말의 갱신 시각이 몰리지 않도록 refresh window에 더하는 임의 시간의 최대값
+     */
+    public TokenRefreshScheduler(final long refreshWindowInMs, final long maxJitterInMs) {
+        if (refreshWindowInMs < 0 || maxJitterInMs < 0) {
+            throw new IllegalArgumentException("refreshWindowInMs and maxJitterInMs should not be negative.");
+        }
+        this.refreshWindowInMs = refreshWindowInMs;
+        this.maxJitterInMs = maxJitterInMs;
+    }
+
+    /**
+     * scheduler를 시작한다. main thread에서 호출한다.
+     * API level 14 이상에서는 activity lifecycle로 foreground 여부를 자동으로 판단하고,
+     * 그 미만에서는 {@link #setForeground(boolean)}로 알려주어야 한다.
+     * @param context application context를 구할 context
+     */
+    public void start(final Context context) {
+        if (started) {
+            return;
+        }
+        started = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            final Context applicationContext = context.getApplicationContext();
+            if (applicationContext instanceof Application) {
+                application = (Application) applicationContext;
+                registerActivityLifecycleCallbacks();
+            }
+        }
+        scheduledExpiresAt = 0;
+        check();
+    }
+
+    /**
+     * scheduler를 멈춘다. 이미 진행 중인 갱신은 취소하지 않는다.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        handler.removeCallbacks(checkRunnable);
+        if (application != null && activityLifecycleCallbacks != null) {
+            unregisterActivityLifecycleCallbacks();
+        }
+        application = null;
+        activityLifecycleCallbacks = null;
+    }
+
+    public boolean isForeground() {
+        return foreground;
+    }
+
+    /**
+     * 앱의 foreground 여부를 알린다. background로 가면 갱신을 미루고, foreground로 돌아오면 바로 만료 여부를 확인한다.
+     * @param foreground 앱이 foreground에 있으면 true
+     */
+    public void setForeground(final boolean foreground) {
+        if (this.foreground == foreground) {
+            return;
+        }
+        this.foreground = foreground;
+        if (!started) {
+            return;
+        }
+        if (foreground) {
+            check();
+        } else {
+            handler.removeCallbacks(checkRunnable);
+        }
+    }
+
+    private void check() {
+        handler.removeCallbacks(checkRunnable);
+        if (!started || !foreground || refreshing) {
+            return;
+        }
+
+        final Session session;
+        try {
+            session = Session.getCurrentSession();
+        } catch (IllegalStateException e) {
+            handler.postDelayed(checkRunnable, IDLE_CHECK_INTERVAL_IN_MS);
+            return;
+        }
+
+        final Date expiresAt = session.getAccessTokenExpiresAt();
+        if (!session.isOpened() || expiresAt == null) {
+            handler.postDelayed(checkRunnable, IDLE_CHECK_INTERVAL_IN_MS);
+            return;
+        }
+
+        final long expiresAtInMs = expiresAt.getTime();
+        if (expiresAtInMs != scheduledExpiresAt) {
+            scheduledExpiresAt = expiresAtInMs;
+            final long jitter = maxJitterInMs > 0 ? (long) (random.nextDouble() * maxJitterInMs) : 0;
+            refreshAt = expiresAtInMs - refreshWindowInMs - jitter;
+        }
+
+        final long delay = refreshAt - System.currentTimeMillis();
+        if (delay > 0) {
+            handler.postDelayed(checkRunnable, delay);
+            return;
+        }
+
+        refresh(session);
+    }
+
+    private void refresh(final Session session) {
+        Logger.getInstance().d("refresh access token ahead of expiry : " + new Date(scheduledExpiresAt));
+        refreshing = true;
+        final boolean requested = session.refreshAccessToken(new SessionCallback() {
+            @Override
+            public void onSessionOpened() {
+                refreshing = false;
+                final Date expiresAt = session.getAccessTokenExpiresAt();
+                if (expiresAt != null && expiresAt.getTime() == scheduledExpiresAt) {
+                    // 갱신에 실패하여 기존 access token이 그대로인 경우 바로 다시 요청하지 않고 잠시 후에 시도한다.
+                    refreshAt = System.currentTimeMillis() + RETRY_INTERVAL_IN_MS;
+                }
+                check();
+            }
+
+            @Override
+            public void onSessionClosed(final KakaoException exception) {
+                refreshing = false;
+                check();
+            }
+        });
+
+        if (!requested) {
+            // refresh token이 없어 갱신할 수 없으면 만료될 때 까지 기다린다.
+            refreshing = false;
+            handler.postDelayed(checkRunnable, Math.max(scheduledExpiresAt - System.currentTimeMillis(), IDLE_CHECK_INTERVAL_IN_MS));
+        }
+    }
+
+    private void onActivityStarted() {
+        startedActivityCount++;
+        setForeground(true);
+    }
+
+    private void onActivityStopped() {
+        startedActivityCount = Math.max(0, startedActivityCount - 1);
+        if (startedActivityCount == 0) {
+            setForeground(false);
+        }
+    }
+
+    @TargetApi(14)
+    private void registerActivityLifecycleCallbacks() {
+        final Application.ActivityLifecycleCallbacks callbacks = new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(final Activity activity, final Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(final Activity activity) {
+                TokenRefreshScheduler.this.onActivityStarted();
+            }
+
+            @Override
+            public void onActivityResumed(final Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(final Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(final Activity activity) {
+                TokenRefreshScheduler.this.onActivityStopped();
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(final Activity activity, final Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(final Activity activity) {
+            }
+        };
+        application.registerActivityLifecycleCallbacks(callbacks);
+        activityLifecycleCallbacks = callbacks;
+    }
+
+    @TargetApi(14)
+    private void unregisterActivityLifecycleCallbacks() {
+        application.unregisterActivityLifecycleCallbacks((Application.ActivityLifecycleCallbacks) activityLifecycleCallbacks);
+    }
+}
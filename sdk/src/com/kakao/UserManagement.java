@@ -24,6 +24,8 @@ import com.kakao.helper.ServerProtocol;
 import com.kakao.http.HttpRequestBuilder;
 import com.kakao.http.HttpRequestTask;
 import com.kakao.http.HttpResponseHandler;
+import com.kakao.http.RequestHandle;
+import com.kakao.http.RequestTimeout;
 import com.kakao.rest.APIHttpRequestTask;
 
 import org.json.JSONException;
@@ -39,65 +41,163 @@ public class UserManagement {
     /**
      * 사용자정보 요청
      * @param responseHandler me 요청 결과에 대한 handler
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestMe(final MeResponseCallback responseHandler) {
+    public static RequestHandle requestMe(final MeResponseCallback responseHandler) {
+        return requestMe(responseHandler, null);
+    }
+
+    /**
+     * timeout을 지정한 사용자정보 요청
+     * @param responseHandler me 요청 결과에 대한 handler
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestMe(final MeResponseCallback responseHandler, final RequestTimeout timeout) {
         final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_ME_PATH);
-        request(responseHandler, url);
+        return request(responseHandler, url, timeout);
+    }
+
+    /**
+     * 캐시의 사용자정보를 먼저 전달하고 서버에 다시 확인하는 사용자정보 요청.
+     * 캐시의 정보가 maxStalenessInMs 이내에 저장된 것이면 바로 {@link MeResponseCallback#onSuccess(UserProfile)}로 전달하고({@link UserProfile#isStale()}가 true),
+     * 서버에서 받은 정보가 캐시와 다른 경우에만 한번 더 호출한다.
+     * 캐시가 없거나 maxStalenessInMs보다 오래되었으면 {@link #requestMe(MeResponseCallback)}와 같다.
+     * 요청을 취소하면 캐시의 정보도 전달하지 않는다.
+     * @param responseHandler me 요청 결과에 대한 handler
+     * @param maxStalenessInMs 서버에 확인하기 전에 먼저 전달할 수 있는 캐시의 최대 기간(ms)
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestMeAllowingStale(final MeResponseCallback responseHandler, final long maxStalenessInMs) {
+        return requestMeAllowingStale(responseHandler, maxStalenessInMs, null);
+    }
+
+    /**
+     * timeout을 지정하고 캐시의 사용자정보를 먼저 전달하는 사용자정보 요청. {@link #requestMeAllowingStale(MeResponseCallback, long)} 참고.
+     * @param responseHandler me 요청 결과에 대한 handler
+     * @param maxStalenessInMs 서버에 확인하기 전에 먼저 전달할 수 있는 캐시의 최대 기간(ms)
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestMeAllowingStale(final MeResponseCallback responseHandler, final long maxStalenessInMs, final RequestTimeout timeout) {
+        final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_ME_PATH);
+        final APIHttpRequestTask<Map> requestTask = createRequestTask(responseHandler, url, timeout);
+        if (Session.getCurrentSession().isOpened()) {
+            final UserProfile cachedProfile = UserProfile.loadFromCacheWithin(maxStalenessInMs);
+            if (cachedProfile != null) {
+                // 서버의 결과보다 먼저 전달되도록 요청하기 전에 보낸다.
+                responseHandler.deliverStaleProfile(cachedProfile, requestTask);
+            }
+        }
+        return APIHttpRequestTask.checkSessionAndExecute(requestTask, responseHandler);
     }
 
     /**
      * 로그아웃 요청
      * @param responseHandler logout 요청 결과에 대한 handler
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestLogout(final LogoutResponseCallback responseHandler) {
+    public static RequestHandle requestLogout(final LogoutResponseCallback responseHandler) {
+        return requestLogout(responseHandler, null);
+    }
+
+    /**
+     * timeout을 지정한 로그아웃 요청
+     * @param responseHandler logout 요청 결과에 대한 handler
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestLogout(final LogoutResponseCallback responseHandler, final RequestTimeout timeout) {
         final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_LOGOUT_PATH);
-        request(responseHandler, url);
+        return request(responseHandler, url, timeout);
     }
 
     /**
      * Unlink 요청
      * @param responseHandler unlink 요청 결과에 대한 handler
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestUnlink(final UnlinkResponseCallback responseHandler) {
+        return requestUnlink(responseHandler, null);
+    }
+
+    /**
+     * timeout을 지정한 Unlink 요청
+     * @param responseHandler unlink 요청 결과에 대한 handler
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestUnlink(final UnlinkResponseCallback responseHandler) {
+    public static RequestHandle requestUnlink(final UnlinkResponseCallback responseHandler, final RequestTimeout timeout) {
         final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_UNLINK_PATH);
-        request(responseHandler, url);
+        return request(responseHandler, url, timeout);
     }
 
     /**
      * 가입 요청
      * @param responseHandler signup 요청 결과에 대한 handler
      * @param properties 가입시 받은 사용자 정보
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestSignup(final SignupResponseCallback responseHandler, final Map properties) {
+        return requestSignup(responseHandler, properties, null);
+    }
+
+    /**
+     * timeout을 지정한 가입 요청
+     * @param responseHandler signup 요청 결과에 대한 handler
+     * @param properties 가입시 받은 사용자 정보
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestSignup(final SignupResponseCallback responseHandler, final Map properties) {
+    public static RequestHandle requestSignup(final SignupResponseCallback responseHandler, final Map properties, final RequestTimeout timeout) {
         final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_SIGNUP_PATH);
-        request(responseHandler, url, properties);
+        return request(responseHandler, url, properties, timeout);
     }
 
     /**
      * 사용자정보 저장 요청
      * @param responseHandler updateProfile 요청 결과에 대한 handler
      * @param properties 저장할 사용자 정보
+     * @return 요청을 취소할 때 사용하는 handle
+     */
+    public static RequestHandle requestUpdateProfile(final UpdateProfileResponseCallback responseHandler, final Map properties) {
+        return requestUpdateProfile(responseHandler, properties, null);
+    }
+
+    /**
+     * timeout을 지정한 사용자정보 저장 요청
+     * @param responseHandler updateProfile 요청 결과에 대한 handler
+     * @param properties 저장할 사용자 정보
+     * @param timeout 이 요청에만 적용할 timeout, deadline. null이면 기본값을 사용한다.
+     * @return 요청을 취소할 때 사용하는 handle
      */
-    public static void requestUpdateProfile(final UpdateProfileResponseCallback responseHandler, final Map properties) {
+    public static RequestHandle requestUpdateProfile(final UpdateProfileResponseCallback responseHandler, final Map properties, final RequestTimeout timeout) {
         final String url = HttpRequestTask.createBaseURL(ServerProtocol.API_AUTHORITY, ServerProtocol.USER_UPDATE_PROFILE_PATH);
-        request(responseHandler, url, properties);
+        return request(responseHandler, url, properties, timeout);
+    }
+
+    private static RequestHandle request(final HttpResponseHandler<Map> responseHandler, final String url, final RequestTimeout timeout) {
+        return APIHttpRequestTask.checkSessionAndExecute(createRequestTask(responseHandler, url, timeout), responseHandler);
     }
 
-    private static void request(final HttpResponseHandler<Map> responseHandler, final String url) {
+    private static APIHttpRequestTask<Map> createRequestTask(final HttpResponseHandler<Map> responseHandler, final String url, final RequestTimeout timeout) {
         final HttpRequestBuilder requestBuilder = HttpRequestBuilder.get(url);
         APIHttpRequestTask.addCommon(requestBuilder);
-        APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<Map>(requestBuilder.build(), responseHandler, Map.class), responseHandler);
+        requestBuilder.setTimeout(timeout);
+        return new APIHttpRequestTask<Map>(requestBuilder.build(), responseHandler, Map.class);
     }
 
-    private static void request(final HttpResponseHandler<Map> responseHandler, final String url, final Map properties) {
+    private static RequestHandle request(final HttpResponseHandler<Map> responseHandler, final String url, final Map properties, final RequestTimeout timeout) {
         final HttpRequestBuilder requestBuilder = HttpRequestBuilder.get(url);
         APIHttpRequestTask.addCommon(requestBuilder);
+        requestBuilder.setTimeout(timeout);
         try {
             APIHttpRequestTask.addQueryParam(requestBuilder, ServerProtocol.PROPERTIES_KEY, properties);
-            APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<Map>(requestBuilder.build(), responseHandler, Map.class), responseHandler);
+            return APIHttpRequestTask.checkSessionAndExecute(new APIHttpRequestTask<Map>(requestBuilder.build(), responseHandler, Map.class), responseHandler);
         } catch (JSONException e) {
             responseHandler.sendMessage(Message.obtain(responseHandler, HttpRequestTask.ERROR, 0, 0,
                     new APIErrorResult(requestBuilder.build().getUrl(), e.getMessage())));
+            return new RequestHandle(null);
         }
     }
 }
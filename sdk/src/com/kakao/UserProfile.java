@@ -21,6 +21,7 @@ package com.kakao;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.text.TextUtils;
 
 import com.kakao.helper.ServerProtocol;
 import com.kakao.helper.SharedPreferencesCache;
@@ -39,6 +40,8 @@ public class UserProfile implements Parcelable{
     private static final String CACHE_NICKNAME = "com.kakao.user.nickname";
     private static final String CACHE_THUMBNAIL_PATH = "com.kakao.user.thumbbnailpath";
     private static final String CACHE_PROFILE_PATH = "com.kakao.user.profilepath";
+    // CACHE_USER_PREFIX로 시작하면 property로 읽히므로 다른 prefix를 사용한다.
+    private static final String CACHE_SAVED_AT = "com.kakao.userprofile.savedAt";
 
     private final long id;
     private String nickname;
@@ -46,6 +49,8 @@ public class UserProfile implements Parcelable{
     private String profileImagePath;
     // predefined property를 제외한 사용자가 정의한 property
     private Map<String, String> properties = new HashMap<String, String>();
+    // 캐시에서 읽어 서버에서 다시 확인하기 전에 전달한 정보인지 여부
+    private boolean stale;
 
     private UserProfile(final long id, final String nickname, final String thumbnailImagePath, final String profileImagePath,
                        final Map<String, String> properties) {
@@ -113,6 +118,14 @@ public class UserProfile implements Parcelable{
         return profileImagePath;
     }
 
+    /**
+     * {@link UserManagement#requestMeAllowingStale(MeResponseCallback, long)}에서 서버에 확인하기 전에 캐시의 정보를 먼저 전달한 경우 true
+     * @return 캐시에서 읽은 정보이면 true
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     /**
      * 사용자의 프로필 정보를 String으로 변환한다
      * @return 사용자의 프로필 정보를 String으로 변환힌 값
@@ -137,28 +150,66 @@ public class UserProfile implements Parcelable{
         if(cache == null)
             return null;
 
-        Bundle bundle = cache.load();
-
-        final long userId = bundle.getLong(CACHE_USER_ID);
-        bundle.remove(CACHE_USER_ID);
-        final String nickname = bundle.getString(CACHE_NICKNAME);
-        bundle.remove(CACHE_NICKNAME);
-        final String thumbnailPath = bundle.getString(CACHE_THUMBNAIL_PATH);
-        bundle.remove(CACHE_THUMBNAIL_PATH);
-        final String profilePath = bundle.getString(CACHE_PROFILE_PATH);
-        bundle.remove(CACHE_PROFILE_PATH);
+        final long userId = cache.getLong(CACHE_USER_ID, 0L);
+        final String nickname = cache.getString(CACHE_NICKNAME);
+        final String thumbnailPath = cache.getString(CACHE_THUMBNAIL_PATH);
+        final String profilePath = cache.getString(CACHE_PROFILE_PATH);
 
         Map<String, String> properties = new HashMap<String, String>();
-        if(!bundle.isEmpty()){
-            for(String key : bundle.keySet()){
-                if(key.startsWith(CACHE_USER_PREFIX))
-                    properties.put(key, bundle.getString(key));
-            }
+        for(String key : cache.getKeysStartingWith(CACHE_USER_PREFIX)){
+            if(key.equals(CACHE_USER_ID) || key.equals(CACHE_NICKNAME) || key.equals(CACHE_THUMBNAIL_PATH) || key.equals(CACHE_PROFILE_PATH))
+                continue;
+            properties.put(key, cache.getString(key));
         }
 
         return new UserProfile(userId, nickname, thumbnailPath, profilePath, properties);
     }
 
+    /**
+     * 저장한지 maxStalenessInMs가 지나지 않은 캐시의 사용자정보를 읽어온다.
+     * @param maxStalenessInMs 캐시를 사용할 수 있는 최대 기간(ms)
+     * @return 캐시에서 읽은 사용자정보. 저장된 정보가 없거나 오래되었으면 null
+     */
+    public static UserProfile loadFromCacheWithin(final long maxStalenessInMs) {
+        SharedPreferencesCache cache = Session.getAppCache();
+        if(cache == null)
+            return null;
+
+        final long savedAt = cache.getLong(CACHE_SAVED_AT, -1L);
+        if(savedAt < 0 || System.currentTimeMillis() - savedAt > maxStalenessInMs)
+            return null;
+
+        final UserProfile userProfile = loadFromCache();
+        if(userProfile == null || userProfile.id == 0)
+            return null;
+        userProfile.stale = true;
+        return userProfile;
+    }
+
+    /**
+     * 캐시에서 읽은 정보와 서버에서 받은 정보를 비교한다. 캐시에서 읽은 property의 key에는 캐시 prefix가 붙어 있으므로 떼고 비교한다.
+     * @param other 비교할 사용자정보
+     * @return 사용자 id와 모든 정보가 같으면 true
+     */
+    boolean hasSameContents(final UserProfile other) {
+        return other != null && id == other.id
+            && TextUtils.equals(nickname, other.nickname)
+            && TextUtils.equals(thumbnailImagePath, other.thumbnailImagePath)
+            && TextUtils.equals(profileImagePath, other.profileImagePath)
+            && withoutCachePrefix(properties).equals(withoutCachePrefix(other.properties));
+    }
+
+    private static Map<String, String> withoutCachePrefix(final Map<String, String> properties) {
+        final Map<String, String> result = new HashMap<String, String>();
+        if(properties != null){
+            for(Map.Entry<String, String> entry : properties.entrySet()){
+                final String key = entry.getKey();
+                result.put(key.startsWith(CACHE_USER_PREFIX) ? key.substring(CACHE_USER_PREFIX.length()) : key, entry.getValue());
+            }
+        }
+        return result;
+    }
+
     /**
      * 요청 결과로 부터 UserProfile 객체를 만든다.
      * @param userProfileMap 사용자정보 요청결과 json으로 부터 얻은 Map
@@ -233,6 +284,7 @@ public class UserProfile implements Parcelable{
         bundle.putString(CACHE_NICKNAME, nickname);
         bundle.putString(CACHE_THUMBNAIL_PATH, thumbnailImagePath);
         bundle.putString(CACHE_PROFILE_PATH, profileImagePath);
+        bundle.putLong(CACHE_SAVED_AT, System.currentTimeMillis());
 
         if(!properties.isEmpty()){
             for(String key : properties.keySet()){
@@ -43,6 +43,8 @@ public class AuthorizationResult implements Serializable {
     private String redirectURL;
     private AccessToken accessToken;
     private String resultMessage;
+    // 서버가 요청을 거부하였는지 여부 (예: refresh token이 만료되어 invalid_grant)
+    private boolean rejected;
 
     public static AuthorizationResult createSuccessAuthCodeResult(final String redirectURL) {
         return new AuthorizationResult(LoginActivity.AUTHORIZATION_CODE_REQUEST, RESULT_CODE.SUCCESS).setRedirectURL(redirectURL);
@@ -64,6 +66,13 @@ public class AuthorizationResult implements Serializable {
         return new AuthorizationResult(LoginActivity.ACCESS_TOKEN_REQUEST, RESULT_CODE.ERROR).setResultMessage(resultMessage);
     }
 
+    /**
+     * 서버가 access token 요청을 거부한 경우(4xx 응답)의 결과. 네트워크 오류 등 일시적인 실패와 구분한다.
+     */
+    public static AuthorizationResult createAccessTokenRejectedResult(final String resultMessage) {
+        return new AuthorizationResult(LoginActivity.ACCESS_TOKEN_REQUEST, RESULT_CODE.ERROR).setResultMessage(resultMessage).setRejected();
+    }
+
     public static AuthorizationResult createAuthCodeErrorResult(final String resultMessage) {
         return new AuthorizationResult(LoginActivity.AUTHORIZATION_CODE_REQUEST, RESULT_CODE.ERROR).setResultMessage(resultMessage);
     }
@@ -88,6 +97,13 @@ public class AuthorizationResult implements Serializable {
         return resultCode == RESULT_CODE.PASS;
     }
 
+    /**
+     * @return 서버가 요청을 거부하여 실패한 경우 true. 다시 시도해도 성공할 수 없다.
+     */
+    public boolean isRejected(){
+        return rejected;
+    }
+
     public int getRequestCode() {
         return requestCode;
     }
@@ -138,4 +154,9 @@ public class AuthorizationResult implements Serializable {
         this.resultMessage = resultMessage;
         return this;
     }
+
+    private AuthorizationResult setRejected() {
+        this.rejected = true;
+        return this;
+    }
 }
@@ -20,6 +20,7 @@ package com.kakao.authorization;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 
@@ -31,6 +32,7 @@ import java.io.Serializable;
 public abstract class Authorizer implements Serializable {
     private static final long serialVersionUID = -601355608597936016L;
     protected transient Activity loginActivity;
+    private transient Context context;
     private transient StartActivityDelegate startActivityDelegate;
     private transient boolean hasInternetPermission;
     protected transient OnAuthorizationListener onAuthorizationListener;
@@ -57,7 +59,7 @@ public abstract class Authorizer implements Serializable {
             return true;
         }
 
-        int permissionCheck = loginActivity.checkCallingOrSelfPermission(Manifest.permission.INTERNET);
+        int permissionCheck = context.checkCallingOrSelfPermission(Manifest.permission.INTERNET);
         if (permissionCheck != PackageManager.PERMISSION_GRANTED) {
             doneOnError("This Operation needs INTERNET permission.");
             return false;
@@ -71,8 +73,17 @@ public abstract class Authorizer implements Serializable {
 
     protected abstract void doneOnError(final String resultMessage);
 
+    /**
+     * activity 없이 요청하는 경우 permission 확인에 사용할 context를 지정한다.
+     * @param context application context
+     */
+    public void setContext(final Context context) {
+        this.context = context;
+    }
+
     public void setLoginActivity(final Activity loginActivity) {
         this.loginActivity = loginActivity;
+        this.context = loginActivity;
         startActivityDelegate = new StartActivityDelegate() {
             @Override
             public void startActivityForResult(Intent intent, int requestCode) {
@@ -66,6 +66,19 @@ public class AccessToken implements Parcelable{
         return new AccessToken(accessToken, refreshToken, accessTokenExpiresAt, refreshTokenExpiresAt);
     }
 
+    /**
+     * 캐시 전체를 읽지 않고 token에 필요한 key만 읽는다.
+     */
+    public static AccessToken createFromCache(final SharedPreferencesCache cache) {
+        Utility.notNull(cache, "cache");
+        final String accessToken = cache.getString(CACHE_ACCESS_TOKEN);
+        final String refreshToken = cache.getString(CACHE_REFRESH_TOKEN);
+        final Date accessTokenExpiresAt = cache.getDate(CACHE_ACCESS_TOKEN_EXPIRES_AT);
+        final Date refreshTokenExpiresAt = cache.getDate(CACHE_REFRESH_TOKEN_EXPIRES_AT);
+
+        return new AccessToken(accessToken, refreshToken, accessTokenExpiresAt, refreshTokenExpiresAt);
+    }
+
     public static AccessToken createFromResponse(final Map resultObj) {
         String accessToken;
         long accessTokenExpiresAt;
@@ -151,6 +164,10 @@ public class AccessToken implements Parcelable{
         return refreshTokenString;
     }
 
+    public Date getAccessTokenExpiresAt() {
+        return accessTokenExpiresAt == null ? null : new Date(accessTokenExpiresAt.getTime());
+    }
+
     public boolean hasRefreshToken(){
         return !Utility.isNullOrEmpty(this.refreshTokenString);
     }
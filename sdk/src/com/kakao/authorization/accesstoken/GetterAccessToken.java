@@ -18,6 +18,8 @@
  */
 package com.kakao.authorization.accesstoken;
 
+import android.os.Looper;
+
 import com.kakao.APIErrorResult;
 import com.kakao.authorization.AuthorizationResult;
 import com.kakao.authorization.Authorizer;
@@ -25,6 +27,7 @@ import com.kakao.helper.Logger;
 import com.kakao.helper.ServerProtocol;
 import com.kakao.http.HttpRequestBuilder;
 import com.kakao.http.HttpRequestTask;
+import com.kakao.http.RequestPriority;
 import com.kakao.http.HttpResponseHandler;
 import com.kakao.http.HttpTaskManager;
 import com.kakao.http.KakaoAsyncHandler;
@@ -44,6 +47,8 @@ public class GetterAccessToken extends Authorizer {
     private static final long serialVersionUID = -93314536204104325L;
 
     private final AccessTokenRequest accessTokenRequest;
+    // 서버가 4xx로 요청을 거부했는지 여부. http thread에서 기록하고 main thread에서 읽는다.
+    private volatile boolean rejected;
 
     public GetterAccessToken(final AccessTokenRequest accessTokenRequest) {
         this.accessTokenRequest = accessTokenRequest;
@@ -57,7 +62,7 @@ public class GetterAccessToken extends Authorizer {
 
         final HttpRequestBuilder requestBuilder = makeAccessTokenRequest();
         final Request httpRequest = requestBuilder.build();
-        HttpTaskManager.execute(new HttpRequestTask<Map>(httpRequest, new AccessTokenCallback(httpRequest, new HttpResponseHandler<Map>() {
+        HttpTaskManager.execute(new HttpRequestTask<Map>(httpRequest, new AccessTokenCallback(httpRequest, new HttpResponseHandler<Map>(Looper.getMainLooper()) {
             @Override
             protected void onHttpSuccess(final Map resultObj) {
                 final AccessToken accessToken = AccessToken.createFromResponse(resultObj);
@@ -91,6 +96,8 @@ public class GetterAccessToken extends Authorizer {
 
         @Override
         protected Void handleFailureHttpStatus(final Response response, final URI requestUri, final int httpStatusCode) throws IOException {
+            // invalid_grant 등 요청 자체를 거부한 경우. 5xx는 일시적인 오류로 본다.
+            rejected = httpStatusCode >= 400 && httpStatusCode < 500;
             if (checkResponseBody(response)) {
                 return null;
             }
@@ -108,8 +115,9 @@ public class GetterAccessToken extends Authorizer {
     protected void doneOnError(final String resultMessage) {
         Logger.getInstance().d("GetterAccessToken: " + resultMessage);
         if (onAuthorizationListener != null) {
-            final AuthorizationResult result
-                    = AuthorizationResult.createAccessTokenErrorResult(resultMessage);
+            final AuthorizationResult result = rejected
+                    ? AuthorizationResult.createAccessTokenRejectedResult(resultMessage)
+                    : AuthorizationResult.createAccessTokenErrorResult(resultMessage);
             onAuthorizationListener.onAuthorizationCompletion(result);
         }
     }
@@ -119,6 +127,8 @@ public class GetterAccessToken extends Authorizer {
             HttpRequestTask.createBaseURL(ServerProtocol.AUTH_AUTHORITY, ServerProtocol.ACCESS_TOKEN_PATH));
         final Entry<String,String> entry = HttpRequestTask.KA_HEADER.entrySet().iterator().next();
         requestBuilder.addHeader(entry.getKey(), entry.getValue());
+        // token을 기다리는 다른 요청들이 있으므로 가장 먼저 수행한다.
+        requestBuilder.setPriority(RequestPriority.URGENT);
 
         if (accessTokenRequest.isAccessTokenRequestWithAuthCode()) {
             requestBuilder.addQueryParameter(ServerProtocol.GRANT_TYPE_KEY, ServerProtocol.GRANT_TYPE_AUTHORIZATION_CODE);
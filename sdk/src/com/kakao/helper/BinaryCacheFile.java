@@ -0,0 +1,656 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.helper;
+
+import android.os.Bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * {@link SharedPreferencesCache}의 binary 저장소.
+ * 값의 변경을 record로 파일 끝에 덧붙이고, 읽을 때는 파일을 memory map하여 record를 차례로 적용한다.
+ * 각 record는 [payload 길이][CRC32][payload]로 구성되어 쓰는 도중 죽어서 잘린 마지막 record는 읽을 때 버린다.
+ * 쓸모없는 record가 쌓이면 현재 값만으로 임시 파일을 만든 후 rename하여 compaction 한다.
+ * @author kkung
+ */
+final class BinaryCacheFile {
+    private static final String TAG = BinaryCacheFile.class.getSimpleName();
+
+    private static final int MAGIC = 0x4B4B5631; // "KKV1"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_COMPACTION_SIZE = 4 * 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_INTEGER = 4;
+    private static final byte TYPE_LONG = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_CHAR = 8;
+    private static final byte TYPE_STRING = 9;
+    private static final byte TYPE_ENUM = 10;
+    private static final byte TYPE_BOOLEAN_ARRAY = 11;
+    private static final byte TYPE_BYTE_ARRAY = 12;
+    private static final byte TYPE_SHORT_ARRAY = 13;
+    private static final byte TYPE_INTEGER_ARRAY = 14;
+    private static final byte TYPE_LONG_ARRAY = 15;
+    private static final byte TYPE_FLOAT_ARRAY = 16;
+    private static final byte TYPE_DOUBLE_ARRAY = 17;
+    private static final byte TYPE_CHAR_ARRAY = 18;
+    private static final byte TYPE_STRING_LIST = 19;
+
+    private final File file;
+    private final File tempFile;
+    // 아래 값들은 this의 보호를 받는다.
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    // 현재 값을 표현하는 record의 크기. compaction 여부를 판단하는데 사용한다.
+    private final Map<String, Integer> recordSizes = new HashMap<String, Integer>();
+    private boolean loaded;
+    private long fileLength;
+    private long liveLength;
+
+    BinaryCacheFile(final File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    synchronized boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * @return 저장된 모든 값을 담은 bundle
+     */
+    synchronized Bundle load() throws IOException {
+        ensureLoaded();
+        final Bundle bundle = new Bundle();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            putValue(bundle, entry.getKey(), copyValue(entry.getValue()));
+        }
+        return bundle;
+    }
+
+    /**
+     * @return key에 저장된 값. 없으면 null
+     */
+    synchronized Object get(final String key) throws IOException {
+        ensureLoaded();
+        return copyValue(values.get(key));
+    }
+
+    synchronized Set<String> keySet() throws IOException {
+        ensureLoaded();
+        return new HashSet<String>(values.keySet());
+    }
+
+    /**
+     * bundle의 값 중 지원하는 type의 값을 모두 하나의 write로 덧붙인다.
+     */
+    synchronized void save(final Bundle bundle) throws IOException {
+        ensureLoaded();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final Map<String, Object> written = new HashMap<String, Object>();
+        final Map<String, Integer> writtenSizes = new HashMap<String, Integer>();
+        for (String key : bundle.keySet()) {
+            // 저장한 후에 호출한 쪽에서 배열이나 list를 고치더라도 memory의 값과 파일의 값이 달라지지 않도록 복사해 둔다.
+            final Object value = copyValue(bundle.get(key));
+            final byte[] payload = encodePut(key, value);
+            if (payload == null) {
+                continue;
+            }
+            writtenSizes.put(key, writeRecord(records, payload));
+            written.put(key, value);
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+        append(records.toByteArray());
+        for (Map.Entry<String, Object> entry : written.entrySet()) {
+            final String key = entry.getKey();
+            values.put(key, entry.getValue());
+            replaceRecordSize(key, writtenSizes.get(key));
+        }
+        compactIfNeeded();
+    }
+
+    synchronized void remove(final List<String> keys) throws IOException {
+        ensureLoaded();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final List<String> removed = new ArrayList<String>();
+        for (String key : keys) {
+            if (values.containsKey(key)) {
+                writeRecord(records, encodeRemove(key));
+                removed.add(key);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        append(records.toByteArray());
+        for (String key : removed) {
+            values.remove(key);
+            replaceRecordSize(key, null);
+        }
+        compactIfNeeded();
+    }
+
+    synchronized void clearAll() throws IOException {
+        ensureLoaded();
+        if (values.isEmpty()) {
+            return;
+        }
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeRecord(records, new byte[]{OP_CLEAR});
+        append(records.toByteArray());
+        values.clear();
+        recordSizes.clear();
+        liveLength = 0;
+        compactIfNeeded();
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        values.clear();
+        recordSizes.clear();
+        liveLength = 0;
+        fileLength = 0;
+        if (file.exists()) {
+            readFile();
+        }
+        loaded = true;
+    }
+
+    private void readFile() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                raf.setLength(0);
+                return;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                Logger.getInstance().w(TAG, "unknown cache file format. ignore " + file);
+                raf.setLength(0);
+                return;
+            }
+
+            final CRC32 crc = new CRC32();
+            long validLength = HEADER_SIZE;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int payloadLength = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (payloadLength <= 0 || payloadLength > buffer.remaining()) {
+                    break;
+                }
+                final byte[] payload = new byte[payloadLength];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload, 0, payloadLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                applyRecord(ByteBuffer.wrap(payload), RECORD_HEADER_SIZE + payloadLength);
+                validLength += RECORD_HEADER_SIZE + payloadLength;
+            }
+
+            if (validLength < size) {
+                // 쓰는 도중 잘린 record는 버린다.
+                Logger.getInstance().w(TAG, "drop broken records of " + file + " : " + (size - validLength) + " bytes");
+                raf.setLength(validLength);
+            }
+            fileLength = validLength;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void applyRecord(final ByteBuffer payload, final int recordSize) throws IOException {
+        final byte op = payload.get();
+        switch (op) {
+            case OP_PUT: {
+                final String key = readString(payload);
+                final Object value = readValue(payload);
+                if (value != null) {
+                    values.put(key, value);
+                    replaceRecordSize(key, recordSize);
+                }
+                break;
+            }
+            case OP_REMOVE: {
+                final String key = readString(payload);
+                values.remove(key);
+                replaceRecordSize(key, null);
+                break;
+            }
+            case OP_CLEAR:
+                values.clear();
+                recordSizes.clear();
+                liveLength = 0;
+                break;
+            default:
+                throw new IOException("unknown record op : " + op);
+        }
+    }
+
+    private void replaceRecordSize(final String key, final Integer size) {
+        final Integer previous = (size == null) ? recordSizes.remove(key) : recordSizes.put(key, size);
+        if (previous != null) {
+            liveLength -= previous;
+        }
+        if (size != null) {
+            liveLength += size;
+        }
+    }
+
+    private void append(final byte[] records) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (fileLength < HEADER_SIZE) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                fileLength = HEADER_SIZE;
+            }
+            raf.seek(fileLength);
+            raf.write(records);
+            raf.getFD().sync();
+            fileLength += records.length;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (fileLength < MIN_COMPACTION_SIZE || fileLength <= 2 * (HEADER_SIZE + liveLength)) {
+            return;
+        }
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream((int) (HEADER_SIZE + liveLength));
+        new DataOutputStream(records).writeInt(MAGIC);
+        final Map<String, Integer> compactedSizes = new HashMap<String, Integer>();
+        long compactedLiveLength = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            final int size = writeRecord(records, encodePut(entry.getKey(), entry.getValue()));
+            compactedSizes.put(entry.getKey(), size);
+            compactedLiveLength += size;
+        }
+
+        // 임시 파일을 완전히 쓴 후 rename하여 도중에 죽더라도 이전 파일이나 새 파일 중 하나는 온전히 남도록 한다.
+        // rename에 실패하면 이전 파일이 그대로 남으므로 memory의 record 크기도 바꾸지 않는다.
+        final byte[] compacted = records.toByteArray();
+        final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(compacted);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("failed to replace " + file + " with compacted file");
+        }
+        recordSizes.clear();
+        recordSizes.putAll(compactedSizes);
+        liveLength = compactedLiveLength;
+        fileLength = compacted.length;
+    }
+
+    /**
+     * 배열과 list는 복사하고 그 외의 값은 immutable이므로 그대로 반환한다.
+     */
+    private static Object copyValue(final Object value) {
+        if (value instanceof boolean[]) {
+            return ((boolean[]) value).clone();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        } else if (value instanceof short[]) {
+            return ((short[]) value).clone();
+        } else if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        } else if (value instanceof long[]) {
+            return ((long[]) value).clone();
+        } else if (value instanceof float[]) {
+            return ((float[]) value).clone();
+        } else if (value instanceof double[]) {
+            return ((double[]) value).clone();
+        } else if (value instanceof char[]) {
+            return ((char[]) value).clone();
+        } else if (value instanceof List<?>) {
+            return new ArrayList<Object>((List<?>) value);
+        }
+        return value;
+    }
+
+    private static int writeRecord(final ByteArrayOutputStream out, final byte[] payload) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(payload.length);
+        dos.writeInt((int) crc.getValue());
+        dos.write(payload);
+        return RECORD_HEADER_SIZE + payload.length;
+    }
+
+    private static byte[] encodeRemove(final String key) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_REMOVE);
+        writeString(out, key);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return 지원하지 않는 type이거나 null이면 null
+     */
+    private static byte[] encodePut(final String key, final Object value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_PUT);
+        writeString(out, key);
+
+        if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Enum<?>) {
+            out.writeByte(TYPE_ENUM);
+            writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) value).name());
+        } else if (value instanceof boolean[]) {
+            final boolean[] array = (boolean[]) value;
+            out.writeByte(TYPE_BOOLEAN_ARRAY);
+            out.writeInt(array.length);
+            for (boolean v : array) {
+                out.writeBoolean(v);
+            }
+        } else if (value instanceof byte[]) {
+            final byte[] array = (byte[]) value;
+            out.writeByte(TYPE_BYTE_ARRAY);
+            out.writeInt(array.length);
+            out.write(array);
+        } else if (value instanceof short[]) {
+            final short[] array = (short[]) value;
+            out.writeByte(TYPE_SHORT_ARRAY);
+            out.writeInt(array.length);
+            for (short v : array) {
+                out.writeShort(v);
+            }
+        } else if (value instanceof int[]) {
+            final int[] array = (int[]) value;
+            out.writeByte(TYPE_INTEGER_ARRAY);
+            out.writeInt(array.length);
+            for (int v : array) {
+                out.writeInt(v);
+            }
+        } else if (value instanceof long[]) {
+            final long[] array = (long[]) value;
+            out.writeByte(TYPE_LONG_ARRAY);
+            out.writeInt(array.length);
+            for (long v : array) {
+                out.writeLong(v);
+            }
+        } else if (value instanceof float[]) {
+            final float[] array = (float[]) value;
+            out.writeByte(TYPE_FLOAT_ARRAY);
+            out.writeInt(array.length);
+            for (float v : array) {
+                out.writeFloat(v);
+            }
+        } else if (value instanceof double[]) {
+            final double[] array = (double[]) value;
+            out.writeByte(TYPE_DOUBLE_ARRAY);
+            out.writeInt(array.length);
+            for (double v : array) {
+                out.writeDouble(v);
+            }
+        } else if (value instanceof char[]) {
+            final char[] array = (char[]) value;
+            out.writeByte(TYPE_CHAR_ARRAY);
+            out.writeInt(array.length);
+            for (char v : array) {
+                out.writeChar(v);
+            }
+        } else if (value instanceof List<?>) {
+            @SuppressWarnings("unchecked")
+            final List<String> list = (List<String>) value;
+            out.writeByte(TYPE_STRING_LIST);
+            out.writeInt(list.size());
+            for (String v : list) {
+                writeString(out, v);
+            }
+        } else {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object readValue(final ByteBuffer in) throws IOException {
+        final byte type = in.get();
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_BYTE:
+                return in.get();
+            case TYPE_SHORT:
+                return in.getShort();
+            case TYPE_INTEGER:
+                return in.getInt();
+            case TYPE_LONG:
+                return in.getLong();
+            case TYPE_FLOAT:
+                return in.getFloat();
+            case TYPE_DOUBLE:
+                return in.getDouble();
+            case TYPE_CHAR:
+                return in.getChar();
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_ENUM: {
+                final String enumType = readString(in);
+                final String name = readString(in);
+                try {
+                    @SuppressWarnings({ "unchecked", "rawtypes" })
+                    final Class<? extends Enum> enumClass = (Class<? extends Enum>) Class.forName(enumType);
+                    @SuppressWarnings("unchecked")
+                    final Enum<?> enumValue = Enum.valueOf(enumClass, name);
+                    return enumValue;
+                } catch (ClassNotFoundException e) {
+                    Logger.getInstance().w(TAG, "Error deserializing enum '" + enumType + "' -- " + e);
+                } catch (IllegalArgumentException e) {
+                    Logger.getInstance().w(TAG, "Error deserializing enum '" + enumType + "' -- " + e);
+                }
+                return null;
+            }
+            case TYPE_BOOLEAN_ARRAY: {
+                final boolean[] array = new boolean[in.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.get() != 0;
+                }
+                return array;
+            }
+            case TYPE_BYTE_ARRAY: {
+                final byte[] array = new byte[in.getInt()];
+                in.get(array);
+                return array;
+            }
+            case TYPE_SHORT_ARRAY: {
+                final short[] array = new short[in.getInt()];
+                in.asShortBuffer().get(array);
+                in.position(in.position() + array.length * 2);
+                return array;
+            }
+            case TYPE_INTEGER_ARRAY: {
+                final int[] array = new int[in.getInt()];
+                in.asIntBuffer().get(array);
+                in.position(in.position() + array.length * 4);
+                return array;
+            }
+            case TYPE_LONG_ARRAY: {
+                final long[] array = new long[in.getInt()];
+                in.asLongBuffer().get(array);
+                in.position(in.position() + array.length * 8);
+                return array;
+            }
+            case TYPE_FLOAT_ARRAY: {
+                final float[] array = new float[in.getInt()];
+                in.asFloatBuffer().get(array);
+                in.position(in.position() + array.length * 4);
+                return array;
+            }
+            case TYPE_DOUBLE_ARRAY: {
+                final double[] array = new double[in.getInt()];
+                in.asDoubleBuffer().get(array);
+                in.position(in.position() + array.length * 8);
+                return array;
+            }
+            case TYPE_CHAR_ARRAY: {
+                final char[] array = new char[in.getInt()];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + array.length * 2);
+                return array;
+            }
+            case TYPE_STRING_LIST: {
+                final int size = in.getInt();
+                final ArrayList<String> list = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readString(in));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("unknown value type : " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putValue(final Bundle bundle, final String key, final Object value) {
+        if (value instanceof Boolean) {
+            bundle.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Byte) {
+            bundle.putByte(key, (Byte) value);
+        } else if (value instanceof Short) {
+            bundle.putShort(key, (Short) value);
+        } else if (value instanceof Integer) {
+            bundle.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            bundle.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            bundle.putFloat(key, (Float) value);
+        } else if (value instanceof Double) {
+            bundle.putDouble(key, (Double) value);
+        } else if (value instanceof Character) {
+            bundle.putChar(key, (Character) value);
+        } else if (value instanceof String) {
+            bundle.putString(key, (String) value);
+        } else if (value instanceof boolean[]) {
+            bundle.putBooleanArray(key, ((boolean[]) value).clone());
+        } else if (value instanceof byte[]) {
+            bundle.putByteArray(key, ((byte[]) value).clone());
+        } else if (value instanceof short[]) {
+            bundle.putShortArray(key, ((short[]) value).clone());
+        } else if (value instanceof int[]) {
+            bundle.putIntArray(key, ((int[]) value).clone());
+        } else if (value instanceof long[]) {
+            bundle.putLongArray(key, ((long[]) value).clone());
+        } else if (value instanceof float[]) {
+            bundle.putFloatArray(key, ((float[]) value).clone());
+        } else if (value instanceof double[]) {
+            bundle.putDoubleArray(key, ((double[]) value).clone());
+        } else if (value instanceof char[]) {
+            bundle.putCharArray(key, ((char[]) value).clone());
+        } else if (value instanceof List<?>) {
+            bundle.putStringArrayList(key, new ArrayList<String>((List<String>) value));
+        } else if (value instanceof Serializable) {
+            bundle.putSerializable(key, (Serializable) value);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer in) throws IOException {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IOException("broken string length : " + length);
+        }
+        final String value = new String(in.array(), in.arrayOffset() + in.position(), length, "UTF-8");
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -17,9 +17,14 @@
  */
 package com.kakao.helper;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -33,7 +38,7 @@ public class JsonHelper {
 
     public static Map<String, Object> MapFromJson(JSONObject obj) throws JSONException {
         Map<String, Object> map = new HashMap<String, Object>();
-        Iterator it = obj.keys();
+        Iterator<?> it = obj.keys();
         while (it.hasNext()) {
             String key = (String)it.next();
             map.put(key, fromJson(obj.get(key)));
@@ -42,8 +47,8 @@ public class JsonHelper {
         return map;
     }
 
-    public static List ListFromJson(JSONArray obj) throws JSONException {
-        List list = new ArrayList();
+    public static List<Object> ListFromJson(JSONArray obj) throws JSONException {
+        List<Object> list = new ArrayList<Object>();
         for (int i = 0; i < obj.length(); i++) {
             list.add(fromJson(obj.get(i)));
         }
@@ -62,4 +67,76 @@ public class JsonHelper {
         }
     }
 
+    /**
+     * JSONObject를 거치지 않고 {@link JsonReader}에서 바로 Map을 만든다.
+     * 값의 type은 {@link #MapFromJson(JSONObject)}와 같다. (정수는 Integer 또는 Long, 실수는 Double)
+     */
+    public static Map<String, Object> MapFromJsonReader(JsonReader reader) throws IOException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            map.put(key, fromJsonReader(reader));
+        }
+        reader.endObject();
+        return map;
+    }
+
+    public static List<Object> ListFromJsonReader(JsonReader reader) throws IOException {
+        List<Object> list = new ArrayList<Object>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(fromJsonReader(reader));
+        }
+        reader.endArray();
+        return list;
+    }
+
+    /**
+     * 다음 값을 {@link JSONObject#getString(String)}과 같은 규칙으로 문자열로 읽는다.
+     */
+    public static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return "null";
+        } else if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        } else {
+            return reader.nextString();
+        }
+    }
+
+    private static Object fromJsonReader(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return MapFromJsonReader(reader);
+            case BEGIN_ARRAY:
+                return ListFromJsonReader(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static Object parseNumber(String literal) {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(literal);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException ignored) {
+                // long 범위를 넘는 정수는 실수로 다룬다.
+            }
+        }
+        return Double.valueOf(literal);
+    }
 }
@@ -26,10 +26,20 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class SharedPreferencesCache {
     private static final String TAG = SharedPreferencesCache.class.getSimpleName();
@@ -58,23 +68,510 @@ public class SharedPreferencesCache {
     private static final String TYPE_STRING_LIST = "stringList";
     private static final String TYPE_ENUM = "enum";
     private static final long INVALID_BUNDLE_MILLISECONDS = Long.MIN_VALUE;
+    // memoizedValues에서 저장소에 값이 없음을 나타낸다.
+    private static final Object NO_VALUE = new Object();
+
+    private static final String BINARY_FILE_PREFIX = "com.kakao.cache.";
+
+    /**
+     * cache 값을 저장하는 방식
+     */
+    public static enum StorageType {
+        /**
+         * 값마다 type을 붙인 JSON 문자열로 SharedPreferences에 저장한다.
+         */
+        SHARED_PREFERENCES,
+        /**
+         * type이 있는 binary record로 파일에 덧붙여 저장하고 memory map으로 읽는다.
+         * 처음 사용할 때 SharedPreferences에 저장되어 있던 값을 옮겨온다.
+         */
+        BINARY_FILE
+    }
+
+    private static volatile StorageType defaultStorageType = StorageType.SHARED_PREFERENCES;
+    private static volatile long defaultWriteBehindDelayInMs = 0;
+
+    private static final ScheduledExecutorService WRITE_BEHIND_EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "KakaoCacheWriter");
+            // 앱의 종료를 막지 않도록 한다. 반드시 저장되어야 하는 값은 flush()로 바로 저장한다.
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private final String cacheName;
     private final SharedPreferences cache;
+    // null이면 SharedPreferences에 저장한다.
+    private final BinaryCacheFile binaryCacheFile;
+    // 0 이하이면 바로 저장한다.
+    private final long writeBehindDelayInMs;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // 저장소를 읽고 쓰는 동안 잡는 lock. 아래 값들은 storageLock의 보호를 받는다.
+    private final Object storageLock = new Object();
+    // 저장소에 쓰여 있다고 알고 있는 값. 같은 값을 다시 쓰지 않기 위해 사용한다.
+    private final Map<String, Object> persistedValues = new HashMap<String, Object>();
+    // persistedValues가 저장소의 모든 값을 알고 있는지 여부
+    private boolean persistedValuesComplete;
+    // key별로 저장소에서 읽어 둔 값. 저장소에 쓸 때마다 해당 key를 지운다.
+    private final Map<String, Object> memoizedValues = new HashMap<String, Object>();
+    // 저장소에 있는 key 목록. null이면 다시 읽는다.
+    private Set<String> memoizedKeys;
+
+    // 아직 저장소에 쓰지 않은 변경. this의 보호를 받는다.
+    private final Bundle pendingValues = new Bundle();
+    private final Set<String> pendingRemovals = new HashSet<String>();
+    private boolean pendingClearAll;
+    private boolean flushScheduled;
+
+    /**
+     * 이후에 생성되는 cache의 저장 방식을 지정한다. {@link com.kakao.Session}을 초기화하기 전에 호출해야 한다.
+     * @param storageType cache 값을 저장하는 방식
+     */
+    public static void setDefaultStorageType(final StorageType storageType) {
+        Utility.notNull(storageType, "storageType");
+        defaultStorageType = storageType;
+    }
+
+    public static StorageType getDefaultStorageType() {
+        return defaultStorageType;
+    }
+
+    /**
+     * 이후에 생성되는 cache의 write-behind 지연 시간을 지정한다. {@link com.kakao.Session}을 초기화하기 전에 호출해야 한다.
+     * 0보다 크면 save/clear는 바로 반환하고, 그 시간 동안 들어온 변경을 모아 background thread에서 한번에 저장한다.
+     * @param delayInMs write-behind 지연 시간(ms). 0 이하이면 호출한 thread에서 바로 저장한다. 기본값은 0
+     */
+    public static void setDefaultWriteBehindDelay(final long delayInMs) {
+        defaultWriteBehindDelayInMs = delayInMs;
+    }
+
+    public static long getDefaultWriteBehindDelay() {
+        return defaultWriteBehindDelayInMs;
+    }
 
     public SharedPreferencesCache(Context context, String cacheName) {
+        this(context, cacheName, defaultStorageType);
+    }
+
+    public SharedPreferencesCache(Context context, String cacheName, StorageType storageType) {
         Utility.notNull(context, "context");
         Utility.notNull(cacheName, "cacheName");
+        Utility.notNull(storageType, "storageType");
         this.cacheName = cacheName;
+        this.writeBehindDelayInMs = defaultWriteBehindDelayInMs;
 
         Context applicationContext = context.getApplicationContext();
         context = applicationContext != null ? applicationContext : context;
         this.cache = context.getSharedPreferences(
                 this.cacheName,
                 Context.MODE_PRIVATE);
+
+        if (storageType == StorageType.BINARY_FILE) {
+            this.binaryCacheFile = new BinaryCacheFile(new File(context.getFilesDir(), BINARY_FILE_PREFIX + cacheName));
+            migrateToBinaryFile();
+        } else {
+            this.binaryCacheFile = null;
+        }
+    }
+
+    public StorageType getStorageType() {
+        return binaryCacheFile != null ? StorageType.BINARY_FILE : StorageType.SHARED_PREFERENCES;
     }
 
+    public boolean isWriteBehind() {
+        return writeBehindDelayInMs > 0;
+    }
+
+    /**
+     * 저장된 값을 읽는다. 아직 저장하지 않은 write-behind 변경도 반영된다.
+     */
     public Bundle load()  {
+        synchronized (storageLock) {
+            final Bundle loaded = loadFromStorage();
+            if (loaded != null) {
+                memoizedValues.clear();
+                for (String key : loaded.keySet()) {
+                    memoizedValues.put(key, loaded.get(key));
+                }
+                memoizedKeys = new HashSet<String>(loaded.keySet());
+            }
+            if (!isWriteBehind()) {
+                return loaded;
+            }
+            if (loaded != null) {
+                persistedValues.clear();
+                for (String key : loaded.keySet()) {
+                    persistedValues.put(key, loaded.get(key));
+                }
+                persistedValuesComplete = true;
+            }
+            synchronized (this) {
+                if (loaded == null) {
+                    return null;
+                }
+                if (pendingClearAll) {
+                    loaded.clear();
+                }
+                for (String key : pendingRemovals) {
+                    loaded.remove(key);
+                }
+                loaded.putAll(pendingValues);
+            }
+            return loaded;
+        }
+    }
+
+    public void save(Bundle bundle) {
+        Utility.notNull(bundle, "bundle");
+        if (!isWriteBehind()) {
+            synchronized (storageLock) {
+                saveToStorage(bundle);
+            }
+            return;
+        }
+        synchronized (this) {
+            for (String key : bundle.keySet()) {
+                pendingRemovals.remove(key);
+            }
+            pendingValues.putAll(bundle);
+            scheduleFlush();
+        }
+    }
+
+    public void clearAll() {
+        if (!isWriteBehind()) {
+            synchronized (storageLock) {
+                clearAllStorage();
+            }
+            return;
+        }
+        synchronized (this) {
+            pendingValues.clear();
+            pendingRemovals.clear();
+            pendingClearAll = true;
+            scheduleFlush();
+        }
+    }
+
+    public void clear(final List<String> keysToClear) {
+        if (!isWriteBehind()) {
+            synchronized (storageLock) {
+                clearStorage(keysToClear);
+            }
+            return;
+        }
+        synchronized (this) {
+            for (String key : keysToClear) {
+                pendingValues.remove(key);
+                pendingRemovals.add(key);
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * key 하나의 값을 읽는다. 한번 읽은 값은 저장소에 다시 쓸 때까지 memory에 두고 사용한다.
+     * 아직 저장하지 않은 write-behind 변경도 반영된다. 반환된 배열이나 list는 수정하지 않는다.
+     * @param key 읽을 key
+     * @return key에 저장된 값. 없으면 null
+     */
+    public Object get(final String key) {
+        synchronized (this) {
+            if (pendingValues.containsKey(key)) {
+                return pendingValues.get(key);
+            }
+            if (pendingClearAll || pendingRemovals.contains(key)) {
+                return null;
+            }
+        }
+        synchronized (storageLock) {
+            final Object memoized = memoizedValues.get(key);
+            if (memoized != null) {
+                return memoized == NO_VALUE ? null : memoized;
+            }
+            final Object value = readFromStorage(key);
+            memoizedValues.put(key, value == null ? NO_VALUE : value);
+            return value;
+        }
+    }
+
+    public String getString(final String key) {
+        final Object value = get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public int getInt(final String key, final int defaultValue) {
+        final Object value = get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getLong(final String key, final long defaultValue) {
+        final Object value = get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        final Object value = get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    /**
+     * {@link #putDate(Bundle, String, Date)}로 저장한 값을 읽는다.
+     * @return 저장된 날짜. 없으면 null
+     */
+    public Date getDate(final String key) {
+        final long n = getLong(key, INVALID_BUNDLE_MILLISECONDS);
+        return n == INVALID_BUNDLE_MILLISECONDS ? null : new Date(n);
+    }
+
+    /**
+     * 값은 읽지 않고 prefix로 시작하는 key 목록만 구한다.
+     * @param prefix 찾을 key의 prefix
+     * @return prefix로 시작하는 key 목록
+     */
+    public Set<String> getKeysStartingWith(final String prefix) {
+        final Set<String> keys = new HashSet<String>();
+        synchronized (storageLock) {
+            if (memoizedKeys == null) {
+                memoizedKeys = readKeysFromStorage();
+            }
+            for (String key : memoizedKeys) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+        }
+        synchronized (this) {
+            if (pendingClearAll) {
+                keys.clear();
+            }
+            keys.removeAll(pendingRemovals);
+            for (String key : pendingValues.keySet()) {
+                if (key.startsWith(prefix) && pendingValues.get(key) != null) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 아직 저장하지 않은 write-behind 변경을 호출한 thread에서 바로 저장한다.
+     * 로그아웃처럼 변경이 반드시 저장되어야 하는 경우에 호출한다. write-behind를 사용하지 않으면 아무것도 하지 않는다.
+     */
+    public void flush() {
+        synchronized (storageLock) {
+            final Bundle values;
+            final List<String> removals;
+            final boolean clearAll;
+            synchronized (this) {
+                flushScheduled = false;
+                if (!pendingClearAll && pendingRemovals.isEmpty() && pendingValues.isEmpty()) {
+                    return;
+                }
+                values = new Bundle(pendingValues);
+                removals = new ArrayList<String>(pendingRemovals);
+                clearAll = pendingClearAll;
+                pendingValues.clear();
+                pendingRemovals.clear();
+                pendingClearAll = false;
+            }
+
+            if (clearAll && !(persistedValuesComplete && persistedValues.isEmpty())) {
+                clearAllStorage();
+                persistedValues.clear();
+                persistedValuesComplete = true;
+            }
+
+            final List<String> changedRemovals = new ArrayList<String>();
+            for (String key : removals) {
+                if (!persistedValuesComplete || persistedValues.containsKey(key)) {
+                    changedRemovals.add(key);
+                }
+            }
+            if (!changedRemovals.isEmpty()) {
+                clearStorage(changedRemovals);
+                for (String key : changedRemovals) {
+                    persistedValues.remove(key);
+                }
+            }
+
+            // 저장소에 이미 같은 값이 있는 key는 다시 쓰지 않는다.
+            final Bundle changedValues = new Bundle(values);
+            for (String key : values.keySet()) {
+                final Object value = values.get(key);
+                if (value != null && valueEquals(value, persistedValues.get(key))) {
+                    changedValues.remove(key);
+                }
+            }
+            if (!changedValues.isEmpty()) {
+                saveToStorage(changedValues);
+                for (String key : changedValues.keySet()) {
+                    persistedValues.put(key, changedValues.get(key));
+                }
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            WRITE_BEHIND_EXECUTOR.schedule(flushRunnable, writeBehindDelayInMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean valueEquals(final Object a, final Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof boolean[] && b instanceof boolean[]) {
+            return Arrays.equals((boolean[]) a, (boolean[]) b);
+        } else if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        } else if (a instanceof short[] && b instanceof short[]) {
+            return Arrays.equals((short[]) a, (short[]) b);
+        } else if (a instanceof int[] && b instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        } else if (a instanceof long[] && b instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        } else if (a instanceof float[] && b instanceof float[]) {
+            return Arrays.equals((float[]) a, (float[]) b);
+        } else if (a instanceof double[] && b instanceof double[]) {
+            return Arrays.equals((double[]) a, (double[]) b);
+        } else if (a instanceof char[] && b instanceof char[]) {
+            return Arrays.equals((char[]) a, (char[]) b);
+        }
+        return a.equals(b);
+    }
+
+    private Object readFromStorage(final String key) {
+        if (binaryCacheFile != null) {
+            try {
+                return binaryCacheFile.get(key);
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error reading cache file -- " + e);
+                return null;
+            }
+        }
+        if (!cache.contains(key)) {
+            return null;
+        }
+        final Bundle bundle = new Bundle();
+        try {
+            deserializeKey(key, bundle);
+        } catch (JSONException e) {
+            Logger.getInstance().w(TAG, "Error reading cached value for key: '" + key + "' -- " + e);
+            return null;
+        }
+        return bundle.get(key);
+    }
+
+    private Set<String> readKeysFromStorage() {
+        if (binaryCacheFile != null) {
+            try {
+                return binaryCacheFile.keySet();
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error reading cache file -- " + e);
+                return new HashSet<String>();
+            }
+        }
+        return new HashSet<String>(cache.getAll().keySet());
+    }
+
+    private Bundle loadFromStorage() {
+        if (binaryCacheFile != null) {
+            try {
+                return binaryCacheFile.load();
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error reading cache file -- " + e);
+                return null;
+            }
+        }
+        return loadFromPreferences();
+    }
+
+    private void saveToStorage(Bundle bundle) {
+        for (String key : bundle.keySet()) {
+            memoizedValues.remove(key);
+        }
+        memoizedKeys = null;
+        if (binaryCacheFile != null) {
+            try {
+                binaryCacheFile.save(bundle);
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error writing cache file -- " + e);
+            }
+            return;
+        }
+        saveToPreferences(bundle);
+    }
+
+    private void clearAllStorage() {
+        memoizedValues.clear();
+        memoizedKeys = null;
+        if (binaryCacheFile != null) {
+            try {
+                binaryCacheFile.clearAll();
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error clearing cache file -- " + e);
+            }
+            return;
+        }
+        cache.edit().clear().commit();
+    }
+
+    private void clearStorage(final List<String> keysToClear) {
+        for (String key : keysToClear) {
+            memoizedValues.remove(key);
+        }
+        memoizedKeys = null;
+        if (binaryCacheFile != null) {
+            try {
+                binaryCacheFile.remove(keysToClear);
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error clearing cache file -- " + e);
+            }
+            return;
+        }
+        SharedPreferences.Editor cacheEditor = cache.edit();
+        for(String key : keysToClear){
+            cacheEditor.remove(key);
+        }
+        cacheEditor.commit();
+    }
+
+    /**
+     * SharedPreferences에 남아 있는 값을 binary file로 옮긴 후 SharedPreferences에서 지운다.
+     * binary file을 먼저 쓰고 지우므로 도중에 죽더라도 다음 실행 때 값을 잃지 않는다.
+     */
+    private void migrateToBinaryFile() {
+        if (cache.getAll().isEmpty()) {
+            return;
+        }
+        // 이미 binary file이 있다면 이전 migration이 SharedPreferences를 지우기 전에 중단된 것이다.
+        if (!binaryCacheFile.exists()) {
+            final Bundle migrated = loadFromPreferences();
+            if (migrated == null) {
+                return;
+            }
+            try {
+                binaryCacheFile.save(migrated);
+            } catch (IOException e) {
+                Logger.getInstance().w(TAG, "Error migrating cache to binary file -- " + e);
+                return;
+            }
+        }
+        cache.edit().clear().commit();
+    }
+
+    private Bundle loadFromPreferences() {
         Bundle settings = new Bundle();
 
         Map<String, ?> allCachedEntries = cache.getAll();
@@ -91,9 +588,7 @@ public class SharedPreferencesCache {
         return settings;
     }
 
-    public void save(Bundle bundle) {
-        Utility.notNull(bundle, "bundle");
-
+    private void saveToPreferences(Bundle bundle) {
         SharedPreferences.Editor editor = cache.edit();
 
         for (String key : bundle.keySet()) {
@@ -113,18 +608,6 @@ public class SharedPreferencesCache {
         }
     }
 
-    public void clearAll() {
-        cache.edit().clear().commit();
-    }
-
-    public void clear(final List<String> keysToClear) {
-        SharedPreferences.Editor cacheEditor = cache.edit();
-        for(String key : keysToClear){
-            cacheEditor.remove(key);
-        }
-        cacheEditor.commit();
-    }
-
     public static Date getDate(Bundle bundle, String key) {
         if (bundle == null) {
             return null;
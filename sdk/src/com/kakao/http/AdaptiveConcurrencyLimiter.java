@@ -0,0 +1,261 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 관찰한 응답 시간과 실패로 동시에 보낼 수 있는 요청 수를 조절한다.
+ * 응답 시간이 가장 빠른 응답 시간(min RTT)의 tolerance배 이내로 평탄하면 limit을 천천히 늘리고(RTT마다 약 1씩),
+ * 그보다 늘어나거나 timeout, 5xx 등으로 실패하면 backoffRatio를 곱해 줄인다. (AIMD)
+ * 줄이는 것은 그때 보내고 있던 요청들이 모두 끝날 때까지, 즉 RTT마다 한번만 한다.
+ * min RTT는 네트워크가 바뀌는 경우를 위해 minRttWindowInMs마다 다시 측정한다.
+ * {@link AsyncHttpClient#setConcurrencyLimiter(AdaptiveConcurrencyLimiter)}로 등록한다.
+ * @author kkung
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 16;
+    public static final double DEFAULT_TOLERANCE = 1.5;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final long DEFAULT_MIN_RTT_WINDOW_IN_MS = 60 * 1000L;
+
+    private static final double RTT_SMOOTHING = 0.2;
+    private static final int MAX_HISTORY_SIZE = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final long minRttWindowInMs;
+
+    // 아래 값들은 this의 보호를 받는다.
+    private double estimatedLimit;
+    private int inFlight;
+    private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+    private double smoothedRttInMs;
+    private long minRttInMs;
+    private long minRttMeasuredAt;
+    // limit을 줄인 뒤 그때 보내고 있던 요청이 모두 끝나기 전에는 다시 줄이지 않는다. 한번의 혼잡으로 여러번 줄이지 않기 위함이다.
+    private int releasesBeforeNextDecrease;
+    private final LinkedList<LimitChange> history = new LinkedList<LimitChange>();
+
+    public AdaptiveConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_TOLERANCE, DEFAULT_BACKOFF_RATIO, DEFAULT_MIN_RTT_WINDOW_IN_MS);
+    }
+
+    /**
+     * @param initialLimit 처음 limit
+     * @param minLimit limit의 하한
+     * @param maxLimit limit의 상한
+     * @param tolerance 응답 시간이 min RTT의 이 배수를 넘으면 혼잡한 것으로 본다. 1보다 커야 한다.
+     * @param backoffRatio 혼잡하거나 실패했을 때 limit에 곱하는 값. 0과 1 사이
+     * @param minRttWindowInMs min RTT를 다시 측정하는 주기
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final double tolerance,
+                                      final double backoffRatio, final long minRttWindowInMs) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("invalid limit. initial = " + initialLimit + ", min = " + minLimit + ", max = " + maxLimit);
+        }
+        if (tolerance <= 1 || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("invalid tolerance = " + tolerance + " or backoffRatio = " + backoffRatio);
+        }
+        this.estimatedLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.minRttWindowInMs = minRttWindowInMs;
+        history.add(new LimitChange(System.currentTimeMillis(), initialLimit, 0));
+    }
+
+    /**
+     * 요청을 보낼 자리를 얻는다. 자리가 없으면 onAvailable을 기다리는 목록에 넣고, 자리가 나면 호출한다.
+     * onAvailable에서는 다시 이 method로 자리를 얻어야 한다.
+     * @param onAvailable 자리가 났을 때 호출할 작업
+     * @return 자리를 얻었으면 true. 이 경우 요청이 끝나면 반드시 {@link #release(long, boolean)}를 호출해야 한다.
+     */
+    public boolean acquire(final Runnable onAvailable) {
+        synchronized (this) {
+            if (inFlight < getLimit()) {
+                inFlight++;
+                return true;
+            }
+            waiting.addLast(onAvailable);
+            return false;
+        }
+    }
+
+    /**
+     * 요청이 끝나 자리를 돌려준다.
+     * @param rttInMs 요청을 보내고 response를 받을 때까지 걸린 시간. 0 이하이면 응답 시간은 반영하지 않는다.
+     * @param dropped timeout, 연결 실패, 5xx 등 서버나 네트워크가 감당하지 못한 것으로 보이는 실패이면 true
+     */
+    public void release(final long rttInMs, final boolean dropped) {
+        final List<Runnable> available = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (dropped || rttInMs > 0) {
+                update(Math.max(1, rttInMs), dropped, System.currentTimeMillis());
+            }
+            inFlight--;
+            int free = getLimit() - inFlight;
+            while (free-- > 0 && !waiting.isEmpty()) {
+                available.add(waiting.removeFirst());
+            }
+        }
+        for (Runnable runnable : available) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * @return 지금 동시에 보낼 수 있는 요청 수
+     */
+    public synchronized int getLimit() {
+        return (int) estimatedLimit;
+    }
+
+    /**
+     * @return 지금 보내고 있는 요청 수
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return 자리가 나기를 기다리는 요청 수
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    public synchronized long getMinRttInMs() {
+        return minRttInMs;
+    }
+
+    public synchronized long getSmoothedRttInMs() {
+        return (long) smoothedRttInMs;
+    }
+
+    /**
+     * @return limit이 바뀐 기록. 최근 {@value #MAX_HISTORY_SIZE}개까지 오래된 순서로 보관한다.
+     */
+    public synchronized List<LimitChange> getHistory() {
+        return Collections.unmodifiableList(new ArrayList<LimitChange>(history));
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("AdaptiveConcurrencyLimiter{");
+        sb.append("limit=").append(getLimit());
+        sb.append(", inFlight=").append(inFlight);
+        sb.append(", waiting=").append(waiting.size());
+        sb.append(", minRtt=").append(minRttInMs);
+        sb.append(", smoothedRtt=").append((long) smoothedRttInMs);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    // this의 lock을 가진 상태에서 호출한다.
+    private void update(final long rttInMs, final boolean dropped, final long now) {
+        final int oldLimit = getLimit();
+        if (releasesBeforeNextDecrease > 0) {
+            releasesBeforeNextDecrease--;
+        }
+        if (dropped) {
+            decrease();
+        } else {
+            smoothedRttInMs = smoothedRttInMs == 0 ? rttInMs : smoothedRttInMs * (1 - RTT_SMOOTHING) + rttInMs * RTT_SMOOTHING;
+            if (minRttInMs == 0 || rttInMs < minRttInMs) {
+                minRttInMs = rttInMs;
+                minRttMeasuredAt = now;
+            } else if (now - minRttMeasuredAt > minRttWindowInMs) {
+                // 기준 응답 시간 자체가 바뀌었을 수 있으므로 지금 응답 시간을 기준으로 다시 측정한다.
+                minRttInMs = (long) smoothedRttInMs;
+                minRttMeasuredAt = now;
+            }
+
+            if (smoothedRttInMs > minRttInMs * tolerance) {
+                decrease();
+            } else if (inFlight * 2 >= oldLimit) {
+                // limit의 절반 이상을 쓰고 있을 때만 늘린다. 쓰지 않는 limit을 늘리면 혼잡해졌을 때 한번에 몰린다.
+                estimatedLimit = Math.min(maxLimit, estimatedLimit + 1.0 / estimatedLimit);
+            }
+        }
+
+        final int newLimit = getLimit();
+        if (newLimit != oldLimit) {
+            history.addLast(new LimitChange(now, newLimit, (long) smoothedRttInMs));
+            if (history.size() > MAX_HISTORY_SIZE) {
+                history.removeFirst();
+            }
+        }
+    }
+
+    // this의 lock을 가진 상태에서 호출한다.
+    private void decrease() {
+        if (releasesBeforeNextDecrease > 0) {
+            return;
+        }
+        estimatedLimit = Math.max(minLimit, estimatedLimit * backoffRatio);
+        // 지금 끝난 요청을 제외하고 보내고 있는 요청 수
+        releasesBeforeNextDecrease = inFlight - 1;
+    }
+
+    /**
+     * limit이 바뀐 기록
+     */
+    public static final class LimitChange {
+        private final long time;
+        private final int limit;
+        private final long smoothedRttInMs;
+
+        LimitChange(final long time, final int limit, final long smoothedRttInMs) {
+            this.time = time;
+            this.limit = limit;
+            this.smoothedRttInMs = smoothedRttInMs;
+        }
+
+        /**
+         * @return 바뀐 시각. {@link System#currentTimeMillis()} 기준
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return limit이 바뀔 때의 평균 응답 시간
+         */
+        public long getSmoothedRttInMs() {
+            return smoothedRttInMs;
+        }
+
+        @Override
+        public String toString() {
+            return "LimitChange{time=" + time + ", limit=" + limit + ", smoothedRtt=" + smoothedRttInMs + '}';
+        }
+    }
+}
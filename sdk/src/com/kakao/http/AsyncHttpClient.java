@@ -17,193 +17,938 @@
  */
 package com.kakao.http;
 
-import org.apache.http.HttpEntity;
+import com.kakao.helper.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author kkung
  */
 public class AsyncHttpClient {
+    private static final int DELIVERY_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // 재시도할 요청, hedge 요청, rate limit으로 늦춘 요청을 대기 시간이 지난 후 http executor에 넣는다.
+    private static final ScheduledExecutorService RETRY_SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "KakaoHttpRetry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // NIO transport의 I/O thread가 알려준 응답을 처리한다. http executor와 따로 두어 queue가 가득 차더라도 버리거나 I/O thread에서 처리하지 않는다.
+    // 응답 처리는 이미 보낸 요청 수 만큼만 생기므로 queue의 크기를 제한하지 않는다.
+    private static final ThreadPoolExecutor DELIVERY_EXECUTOR = new ThreadPoolExecutor(DELIVERY_THREAD_COUNT, DELIVERY_THREAD_COUNT,
+        30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "KakaoHttpDelivery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
+    static {
+        DELIVERY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
 
-    private ExecutorService httpExecutor;
+    // null이면 요청할 때마다 HttpTaskManager에 등록된 executor를 사용한다.
+    private final ExecutorService httpExecutor;
     private int defaultConnectionToInMs;
     private int defaultRequestToInMs;
-
+    private volatile HttpTransport transport = new UrlConnectionTransport();
+    private volatile KeepAliveConnectionPool connectionPool;
+    private volatile HttpResponseCache responseCache;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private volatile HedgingPolicy hedgingPolicy;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile RateLimiter rateLimiter;
+    private volatile boolean requestCoalescingEnabled = true;
+
+    // 수행 중인 요청의 key와 그 요청을 대표해서 수행하는 handler, 결과를 함께 기다리는 handler 목록
+    private final Map<String, InFlightRequest> inFlightRequests = new HashMap<String, InFlightRequest>();
+    private final AtomicLong coalescedCount = new AtomicLong(0);
+
+    /**
+     * @param httpExecutor 요청을 수행할 executor. null이면 요청할 때마다 {@link HttpTaskManager#getHttpExecutor()}를 사용하므로
+     *                     나중에 {@link HttpTaskManager#setHttpExecutor(ExecutorService)}로 바꾼 executor도 적용된다.
+     * @param defaultConnectionToInMs 요청에 지정하지 않은 경우의 연결 timeout
+     * @param defaultRequestToInMs 요청에 지정하지 않은 경우의 read timeout
+     */
     public AsyncHttpClient(ExecutorService httpExecutor, int defaultConnectionToInMs, int defaultRequestToInMs) {
         this.httpExecutor = httpExecutor;
         this.defaultConnectionToInMs = defaultConnectionToInMs;
         this.defaultRequestToInMs = defaultRequestToInMs;
     }
 
+    /**
+     * 요청을 보내고 응답을 받을 transport를 설정한다. 기본값은 요청마다 executor thread에서 응답을 기다리는 {@link UrlConnectionTransport}.
+     * {@link NioHttpTransport}를 사용하면 적은 수의 I/O thread가 모든 요청의 응답을 기다리고, executor thread는 응답을 처리할 때만 사용한다.
+     * @param transport 요청을 보낼 transport
+     */
+    public void setTransport(final HttpTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport should not be null.");
+        }
+        this.transport = transport;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * connection 재사용 모드를 설정한다. null이면 요청마다 connection을 끊는다.
+     * {@link UrlConnectionTransport}는 platform의 keep-alive 설정을 그대로 사용한다.
+     * @param connectionPool 재사용할 connection의 수와 보관 시간
+     */
+    public void setConnectionPool(final KeepAliveConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public KeepAliveConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * 응답 cache를 설정한다. null이면 cache를 사용하지 않는다.
+     * @param responseCache cache 대상 요청의 응답을 보관할 cache
+     */
+    public void setResponseCache(final HttpResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * 실패한 요청의 재시도 방법을 설정한다. null이면 재시도하지 않는다.
+     * 기본값은 {@link RetryPolicy#RetryPolicy()}로 조회 요청을 최대 {@link RetryPolicy#DEFAULT_MAX_ATTEMPTS}번까지 시도한다.
+     * @param retryPolicy 재시도 방법
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 관찰한 응답 시간에 따라 동시에 보내는 요청 수를 조절한다. null이면 executor의 thread 수만큼 보낸다. 기본값은 null.
+     * 자리가 없는 요청은 executor thread를 잡고 기다리지 않고, 자리가 나면 다시 executor에 넣는다.
+     * @param concurrencyLimiter 동시에 보내는 요청 수를 조절할 limiter
+     */
+    public void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * 응답이 늦은 조회 요청을 한번 더 보내 먼저 받은 응답을 사용한다. null이면 hedge하지 않는다. 기본값은 null.
+     * @param hedgingPolicy hedge할 요청과 hedge 전에 기다릴 시간을 결정하는 policy
+     */
+    public void setHedgingPolicy(final HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * authority별로 실패가 많거나 응답이 느리면 한동안 요청을 보내지 않고 바로 실패를 알린다. null이면 항상 요청을 보낸다. 기본값은 null.
+     * 요청을 보내지 않은 경우 {@link KakaoAsyncHandler#onThrowable(Throwable)}에 {@link CircuitBreakerOpenException}을 전달한다.
+     * @param circuitBreaker authority별 상태를 관리하는 circuit breaker
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * path별로 요청 빈도를 제한하고 서버의 Retry-After를 따른다. null이면 제한하지 않는다. 기본값은 null.
+     * 제한을 넘어 보내지 않은 경우 {@link KakaoAsyncHandler#onThrowable(Throwable)}에 {@link RateLimitExceededException}을 전달한다.
+     * @param rateLimiter path별 요청 빈도를 제한하는 limiter
+     */
+    public void setRateLimiter(final RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 같은 요청이 이미 수행 중이면 새로 요청하지 않고 수행 중인 요청의 결과를 함께 받을지 설정한다. 기본값은 true.
+     * 사용자 정보, 프로필 조회처럼 {@link ReadOnlyRequests}의 조회 요청 중 method, url, header가 모두 같은 요청만 합친다.
+     * @param enabled true이면 같은 요청을 합친다.
+     */
+    public void setRequestCoalescingEnabled(final boolean enabled) {
+        this.requestCoalescingEnabled = enabled;
+    }
+
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescingEnabled;
+    }
+
+    /**
+     * @return 수행 중인 같은 요청에 합쳐져서 따로 요청하지 않은 요청의 누적 수
+     */
+    public long getCoalescedRequestCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return request의 deadline이 지났으면 true
+     */
+    static boolean isDeadlineExceeded(final Request request) {
+        return remainingTimeInMs(request) <= 0;
+    }
+
+    /**
+     * @return request의 deadline까지 남은 시간. deadline이 없으면 {@link Long#MAX_VALUE}
+     */
+    static long remainingTimeInMs(final Request request) {
+        final long deadline = BaseRequest.deadlineOf(request);
+        return deadline > 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return 기본 timeout과 요청에 설정한 timeout 중 사용할 값. deadline까지 남은 시간을 넘지 않는다.
+     */
+    private static int timeoutOf(final int requestTimeoutInMs, final int defaultTimeoutInMs, final long remainingInMs) {
+        final int timeout = requestTimeoutInMs > 0 ? requestTimeoutInMs : defaultTimeoutInMs;
+        return (int) Math.max(1, Math.min(timeout, remainingInMs));
+    }
+
     public <T> void executeRequest(Request request, KakaoAsyncHandler<T> asyncHandler) {
-        this.httpExecutor.submit(
-                new HttpRunnable<T>(
-                        request,
-                        asyncHandler,
-                        defaultConnectionToInMs,
-                        defaultRequestToInMs
-                )
+        // token 갱신 후 재요청하는 경우에는 이미 대표 요청이므로 다시 확인하지 않는다.
+        if (requestCoalescingEnabled && !asyncHandler.isCoalescing() && attachToInFlightRequest(request, asyncHandler)) {
+            return;
+        }
+
+        final HttpRunnable<T> runnable = new HttpRunnable<T>(
+                request,
+                asyncHandler,
+                defaultConnectionToInMs,
+                defaultRequestToInMs,
+                transport,
+                connectionPool,
+                responseCache,
+                retryPolicy,
+                concurrencyLimiter,
+                circuitBreaker,
+                rateLimiter
         );
+        final HedgingPolicy hedging = hedgingPolicy;
+        if (hedging != null && hedging.isHedgeable(request)) {
+            hedging.onHedgeableRequest();
+            runnable.hedge = new Hedge(hedging);
+        }
+        execute(runnable);
     }
 
-    private static class HttpRunnable<T> implements Runnable {
+    private ExecutorService currentExecutor() {
+        return httpExecutor != null ? httpExecutor : HttpTaskManager.getHttpExecutor();
+    }
+
+    private void execute(final HttpRunnable<?> runnable) {
+        final ExecutorService executor = currentExecutor();
+        runnable.queuedExecutor = executor;
+        runnable.asyncHandler.onQueued(this, runnable);
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.onRejected(e);
+        }
+    }
+
+    /**
+     * 같은 요청이 수행 중이면 그 결과를 받도록 handler를 붙이고, 없으면 이 요청을 대표 요청으로 등록한다.
+     * @return handler를 수행 중인 요청에 붙인 경우 true. 이 경우 새로 요청하지 않는다.
+     */
+    private <T> boolean attachToInFlightRequest(final Request request, final KakaoAsyncHandler<T> asyncHandler) {
+        final String key = coalescingKeyOf(request, asyncHandler.returnType);
+        if (key == null) {
+            return false;
+        }
+
+        synchronized (inFlightRequests) {
+            final InFlightRequest inFlightRequest = inFlightRequests.get(key);
+            if (inFlightRequest != null) {
+                inFlightRequest.waitingHandlers.add(asyncHandler);
+                asyncHandler.attachTo(this, key);
+                coalescedCount.incrementAndGet();
+                return true;
+            }
+            inFlightRequests.put(key, new InFlightRequest(asyncHandler));
+            asyncHandler.startCoalescing(this, key);
+            return false;
+        }
+    }
+
+    /**
+     * 대표 요청이 끝났음을 기록한다.
+     * @return 대표 요청의 결과를 함께 받아야 하는 handler 목록
+     */
+    List<KakaoAsyncHandler<?>> completeInFlightRequest(final String key, final KakaoAsyncHandler<?> leader) {
+        synchronized (inFlightRequests) {
+            final InFlightRequest inFlightRequest = inFlightRequests.get(key);
+            if (inFlightRequest == null || inFlightRequest.leader != leader) {
+                return null;
+            }
+            inFlightRequests.remove(key);
+            return inFlightRequest.waitingHandlers;
+        }
+    }
+
+    /**
+     * 대표 요청이 취소되었을 때 결과를 기다리는 handler가 없으면 더 이상 같은 요청을 합치지 않도록 지운다.
+     * @return 지웠으면 true. 기다리는 handler가 있으면 요청을 계속 수행해야 하므로 false
+     */
+    boolean abandonInFlightRequest(final String key, final KakaoAsyncHandler<?> leader) {
+        synchronized (inFlightRequests) {
+            final InFlightRequest inFlightRequest = inFlightRequests.get(key);
+            if (inFlightRequest == null || inFlightRequest.leader != leader) {
+                return true;
+            }
+            if (!inFlightRequest.waitingHandlers.isEmpty()) {
+                return false;
+            }
+            inFlightRequests.remove(key);
+            return true;
+        }
+    }
+
+    /**
+     * 수행 중인 요청에 붙였던 handler를 뗀다. 취소된 요청의 handler가 결과를 받지 않도록 한다.
+     */
+    void detachFromInFlightRequest(final String key, final KakaoAsyncHandler<?> handler) {
+        synchronized (inFlightRequests) {
+            final InFlightRequest inFlightRequest = inFlightRequests.get(key);
+            if (inFlightRequest != null) {
+                inFlightRequest.waitingHandlers.remove(handler);
+            }
+        }
+    }
+
+    /**
+     * 취소된 요청이 executor queue에서 기다리고 있으면 꺼낸다.
+     */
+    void removeFromQueue(final Runnable runnable) {
+        // executor가 바뀌었을 수 있으므로 넣었던 executor에서 꺼낸다.
+        final ExecutorService executor = runnable instanceof HttpRunnable ? ((HttpRunnable<?>) runnable).queuedExecutor : currentExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).remove(runnable);
+        } else if (executor instanceof PriorityLaneExecutor) {
+            ((PriorityLaneExecutor) executor).remove(runnable);
+        }
+    }
+
+    private static class InFlightRequest {
+        private final KakaoAsyncHandler<?> leader;
+        private final List<KakaoAsyncHandler<?>> waitingHandlers = new ArrayList<KakaoAsyncHandler<?>>();
+
+        private InFlightRequest(final KakaoAsyncHandler<?> leader) {
+            this.leader = leader;
+        }
+    }
+
+    /**
+     * 같은 요청을 보낸 첫 시도와 hedge 시도 중 먼저 응답을 받은 쪽을 정한다.
+     */
+    private static class Hedge {
+        private final HedgingPolicy policy;
+        // 아래 값들은 this의 보호를 받는다.
+        // 결과를 전달할 시도가 정해졌거나 모든 시도가 실패해서 더 이상 hedge하지 않으면 true
+        private boolean decided;
+        // 진행 중인 시도의 수
+        private int outstanding = 1;
+        private HttpTransport.Call primaryCall;
+        private HttpTransport.Call hedgeCall;
+
+        private Hedge(final HedgingPolicy policy) {
+            this.policy = policy;
+        }
+
+        /**
+         * @return 아직 응답을 받은 시도가 없고 budget이 남아 있어 hedge 시도를 보내도 되면 true
+         */
+        synchronized boolean launch() {
+            if (decided || !policy.tryAcquireBudget()) {
+                return false;
+            }
+            outstanding++;
+            return true;
+        }
+
+        synchronized boolean isDecided() {
+            return decided;
+        }
+
+        /**
+         * @return 이미 다른 시도가 응답을 받았으면 false. 이 경우 call을 보내지 않는다.
+         */
+        synchronized boolean setCall(final boolean isHedge, final HttpTransport.Call call) {
+            if (decided) {
+                return false;
+            }
+            if (isHedge) {
+                hedgeCall = call;
+            } else {
+                primaryCall = call;
+            }
+            return true;
+        }
+
+        /**
+         * 먼저 응답을 받은 시도가 결과를 전달하도록 하고 다른 시도를 취소한다.
+         * @return 이 시도가 먼저 응답을 받았으면 true
+         */
+        boolean claim(final boolean isHedge) {
+            final HttpTransport.Call other;
+            synchronized (this) {
+                if (decided) {
+                    return false;
+                }
+                decided = true;
+                other = isHedge ? primaryCall : hedgeCall;
+            }
+            if (isHedge) {
+                policy.onHedgeWon();
+            }
+            if (other != null) {
+                other.cancel();
+            }
+            return true;
+        }
+
+        /**
+         * @return 마지막으로 남은 시도가 실패해서 실패를 전달해야 하면 true.
+         * 다른 시도가 아직 진행 중이거나 이미 결과를 전달했으면 false
+         */
+        synchronized boolean onAttemptFailed() {
+            outstanding--;
+            if (decided || outstanding > 0) {
+                return false;
+            }
+            decided = true;
+            return true;
+        }
+    }
+
+    /**
+     * @return 합칠 수 있는 요청이면 method, url, header, 결과 type으로 만든 key. 합칠 수 없는 요청이면 null.
+     */
+    private static String coalescingKeyOf(final Request request, final Class<?> returnType) {
+        // 로그아웃처럼 GET이더라도 부작용이 있는 요청은 합치지 않는다. body 없는 조회 요청만 합친다.
+        if (!ReadOnlyRequests.isReadOnly(request)) {
+            return null;
+        }
+
+        final StringBuilder key = new StringBuilder();
+        key.append(request.getMethod()).append(' ').append(request.getUrl()).append(' ').append(returnType.getName());
+        final Map<String, String> headers = request.getHeaders();
+        if (headers != null) {
+            // header 순서와 상관없이 같은 key가 되도록 정렬한다.
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(headers).entrySet()) {
+                key.append('\n').append(entry.getKey()).append(':').append(entry.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    private class HttpRunnable<T> implements Runnable, RejectableTask, PrioritizedTask {
 
         private final Request request;
-        private final KakaoAsyncHandler asyncHandler;
+        private final KakaoAsyncHandler<T> asyncHandler;
         private final int defaultConnectionToInMs;
         private final int defaultRequestToInMs;
-
-        public HttpRunnable(Request request, KakaoAsyncHandler<T> asyncHandler, int defaultConnectionToInMs, int defaultRequestToInMs) {
+        private final HttpTransport transport;
+        private final KeepAliveConnectionPool connectionPool;
+        private final HttpResponseCache responseCache;
+        private final RetryPolicy retryPolicy;
+        private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+        private final CircuitBreaker circuitBreaker;
+        private final RateLimiter rateLimiter;
+        private final long startedAt = System.currentTimeMillis();
+        // 지금 수행 중인 시도가 몇번째인지. 1부터 시작한다.
+        private int attempt = 1;
+        // rate limiter가 정한 시간만큼 기다린 후 다시 수행하는 중이면 true. 이미 token을 얻었으므로 다시 얻지 않는다.
+        private boolean rateLimitReserved;
+        // hedge 대상 요청이면 첫 시도와 hedge 시도가 함께 가진다. 결과를 전달할 시도가 정해지면 null이 된다.
+        private volatile Hedge hedge;
+        // 첫 시도가 늦어서 추가로 보낸 시도이면 true
+        private boolean isHedge;
+        // 이 작업을 넣은 executor. 취소할 때 queue에서 꺼낸다.
+        private volatile ExecutorService queuedExecutor;
+
+        public HttpRunnable(Request request, KakaoAsyncHandler<T> asyncHandler, int defaultConnectionToInMs, int defaultRequestToInMs,
+                            HttpTransport transport, KeepAliveConnectionPool connectionPool, HttpResponseCache responseCache, RetryPolicy retryPolicy,
+                            AdaptiveConcurrencyLimiter concurrencyLimiter, CircuitBreaker circuitBreaker,
+                            RateLimiter rateLimiter) {
             this.request = request;
             this.asyncHandler = asyncHandler;
             this.defaultConnectionToInMs = defaultConnectionToInMs;
             this.defaultRequestToInMs = defaultRequestToInMs;
+            this.transport = transport;
+            this.connectionPool = connectionPool;
+            this.responseCache = responseCache;
+            this.retryPolicy = retryPolicy;
+            this.concurrencyLimiter = concurrencyLimiter;
+            this.circuitBreaker = circuitBreaker;
+            this.rateLimiter = rateLimiter;
         }
 
         @Override
-        public void run() {
+        public RequestPriority getPriority() {
+            return BaseRequest.priorityOf(request);
+        }
+
+        @Override
+        public void onRejected(final RejectedExecutionException e) {
+            if (!resolveFailedAttempt()) {
+                return;
+            }
+            asyncHandler.setAttemptCount(attempt);
+            asyncHandler.onThrowable(e);
+        }
+
+        /**
+         * retry policy가 허용하면 대기 시간 후에 다시 시도하도록 예약한다.
+         * @return 재시도를 예약했으면 true
+         */
+        private boolean retryLater(final Throwable t, final int statusCode) {
+            if (retryPolicy == null) {
+                return false;
+            }
+            final long delay = retryPolicy.getRetryDelayInMs(request, attempt, System.currentTimeMillis() - startedAt, t, statusCode);
+            if (delay < 0 || delay >= remainingTimeInMs(request)) {
+                return false;
+            }
+            Logger.getInstance().d("retry http request after " + delay + "ms. attempt = " + attempt + ", url = " + request.getUrl()
+                + (t != null ? ", t = " + t : ", status = " + statusCode));
+            attempt++;
             try {
-                final URL url = new URL(request.getUrl());
+                RETRY_SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(HttpRunnable.this);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                attempt--;
+                return false;
+            }
+            return true;
+        }
 
-                HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setConnectTimeout(defaultConnectionToInMs);
-                urlConnection.setReadTimeout(defaultRequestToInMs);
-                urlConnection.setRequestMethod(request.getMethod());
-
-                for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
-                    urlConnection.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-
-                urlConnection.setDoInput(true);
-                urlConnection.setInstanceFollowRedirects(true);
-
-                InputStream in = null, err = null;
-                OutputStream os = null;
-                Response response;
-                try {
-                    byte[] responseData;
-                    Object payload = request.getPayload();
-
-                    if (request.hasPayload() && payload != null) {
-                        urlConnection.setDoOutput(true);
-
-                        if (payload instanceof HttpEntity) {
-                            HttpEntity e = (HttpEntity)payload;
-                            urlConnection.setRequestProperty(
-                                    "Content-Type", e.getContentType().getValue()
-                            );
-
-                            long contentLength = e.getContentLength();
-                            if (contentLength > 0) {
-                                urlConnection.setRequestProperty(
-                                        "Content-Length", String.valueOf(contentLength)
-                                );
-                            }
-
-                        } else if (payload instanceof Multipart) {
-                            urlConnection.setRequestProperty(
-                                    "Content-Type", ((Multipart)payload).getContentType()
-                            );
-                        } else if (payload instanceof byte[]) {
-                            urlConnection.setRequestProperty(
-                                    "Content-Length", String.valueOf(((byte[]) payload).length)
-                            );
-                        }
+        /**
+         * delay 후에 이 작업을 다시 executor에 넣는다.
+         */
+        private void scheduleExecute(final long delay) {
+            try {
+                RETRY_SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(HttpRunnable.this);
                     }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                execute(this);
+            }
+        }
 
-                    urlConnection.connect();
+        /**
+         * 이 시도가 먼저 응답을 받았는지 확인한다. hedge 대상이 아니면 항상 true
+         * @return 이 시도의 결과를 전달해야 하면 true
+         */
+        private boolean claimResult() {
+            final Hedge h = hedge;
+            if (h == null) {
+                return true;
+            }
+            // 결과를 전달할 시도가 정해지면 이후의 재시도는 hedge하지 않는다.
+            hedge = null;
+            return h.claim(isHedge);
+        }
 
-                    if (request.hasPayload() && payload != null) {
-                        os = urlConnection.getOutputStream();
+        /**
+         * @return 실패한 이 시도의 결과를 전달해야 하면 true. hedge한 다른 시도가 진행 중이거나 이미 결과를 전달했으면 false
+         */
+        private boolean resolveFailedAttempt() {
+            final Hedge h = hedge;
+            if (h == null) {
+                return true;
+            }
+            hedge = null;
+            return h.onAttemptFailed();
+        }
 
-                        if (payload instanceof HttpEntity) {
-                            ((HttpEntity)payload).writeTo(os);
-                        } else if (payload instanceof byte[]) {
-                            os.write((byte[])payload);
-                        } else if (payload instanceof Multipart) {
-                            ((Multipart)payload).writeTo(os);
+        /**
+         * 첫 시도가 응답 시간의 percentile 만큼 지나도 응답을 받지 못하면 같은 요청을 한번 더 보내도록 예약한다.
+         */
+        private void scheduleHedge(final Hedge h) {
+            final long delay = h.policy.getHedgeDelayInMs();
+            if (delay < 0 || delay >= remainingTimeInMs(request)) {
+                return;
+            }
+            try {
+                RETRY_SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (asyncHandler.isAborted() || !h.launch()) {
+                            return;
                         }
+                        Logger.getInstance().d("hedge http request after " + delay + "ms. url = " + request.getUrl());
+                        final HttpRunnable<T> hedgeRunnable = new HttpRunnable<T>(request, asyncHandler, defaultConnectionToInMs,
+                            defaultRequestToInMs, transport, connectionPool, responseCache, retryPolicy, concurrencyLimiter, circuitBreaker,
+                            rateLimiter);
+                        hedgeRunnable.hedge = h;
+                        hedgeRunnable.isHedge = true;
+                        execute(hedgeRunnable);
                     }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // hedge는 최적화이므로 예약하지 못하면 첫 시도만 기다린다.
+            }
+        }
 
-                    int status = urlConnection.getResponseCode();
 
-                    if (status >= 400) {
-                        err = urlConnection.getErrorStream();
-                        responseData = consume(err);
-                    } else {
-                        in = urlConnection.getInputStream();
-                        responseData = consume(in);
+        @Override
+        public void run() {
+            if (asyncHandler.isAborted()) {
+                return;
+            }
+            final Hedge startedHedge = hedge;
+            if (isHedge && (startedHedge == null || startedHedge.isDecided())) {
+                // 기다리는 동안 첫 시도가 응답을 받았다.
+                return;
+            }
+            // executor queue나 재시도 대기 중에 deadline이 지났으면 더 이상 시도하지 않는다.
+            if (isDeadlineExceeded(request)) {
+                if (!resolveFailedAttempt()) {
+                    return;
+                }
+                asyncHandler.setAttemptCount(attempt - 1);
+                asyncHandler.onDeadlineExceeded("before attempt " + attempt);
+                return;
+            }
+            final Attempt current = new Attempt();
+            // transport에 요청을 넘기면 이후의 처리는 응답을 받은 후에 한다.
+            boolean sent = false;
+            try {
+                final URL url = new URL(request.getUrl());
+                current.url = url;
+
+                if (responseCache != null && responseCache.isCacheable(request)) {
+                    current.cacheKey = responseCache.keyOf(request);
+                    current.cacheEntry = responseCache.get(current.cacheKey);
+                    // 유효기간이 남아 있으면 요청하지 않는다.
+                    if (current.cacheEntry != null && current.cacheEntry.isFresh()) {
+                        if (!claimResult()) {
+                            current.lost = true;
+                            return;
+                        }
+                        responseCache.onHit();
+                        current.delivered = true;
+                        asyncHandler.setAttemptCount(attempt);
+                        asyncHandler.onCachedResponse(current.cacheEntry, url.toURI());
+                        return;
                     }
+                }
 
-                    Map<String, String> headers = new HashMap<String, String>();
-                    for (String key : urlConnection.getHeaderFields().keySet()) {
-                        headers.put(key, urlConnection.getHeaderField(key));
+                if (rateLimiter != null && !rateLimitReserved) {
+                    final long delay = rateLimiter.reserve(url.getPath(), remainingTimeInMs(request));
+                    if (delay < 0) {
+                        if (!resolveFailedAttempt()) {
+                            current.lost = true;
+                            return;
+                        }
+                        current.delivered = true;
+                        asyncHandler.setAttemptCount(attempt);
+                        asyncHandler.onThrowable(new RateLimitExceededException(url.getPath()));
+                        return;
+                    }
+                    if (delay > 0) {
+                        // executor thread를 잡고 기다리지 않는다.
+                        rateLimitReserved = true;
+                        scheduleExecute(delay);
+                        return;
+                    }
+                }
+                rateLimitReserved = false;
+
+                if (circuitBreaker != null) {
+                    final String authority = url.getAuthority();
+                    if (!circuitBreaker.allowRequest(authority)) {
+                        // timeout을 기다리지 않고 바로 실패를 알린다. 재시도하지 않는다.
+                        if (!resolveFailedAttempt()) {
+                            current.lost = true;
+                            return;
+                        }
+                        current.delivered = true;
+                        asyncHandler.setAttemptCount(attempt);
+                        asyncHandler.onThrowable(new CircuitBreakerOpenException(authority, circuitBreaker.getRemainingOpenTimeInMs(authority)));
+                        return;
                     }
+                    current.circuitAuthority = authority;
+                }
 
-                    response = new Response(
-                            url.toURI(),
-                            status,
-                            urlConnection.getResponseMessage(),
-                            headers,
-                            new String(responseData, request.getCharSet())
-                    );
+                if (concurrencyLimiter != null) {
+                    if (!concurrencyLimiter.acquire(new Runnable() {
+                        @Override
+                        public void run() {
+                            execute(HttpRunnable.this);
+                        }
+                    })) {
+                        return;
+                    }
+                    current.sentAt = System.currentTimeMillis();
+                }
+                current.startedAt = System.currentTimeMillis();
+                current.hedge = hedge;
+                if (current.hedge != null && !isHedge && attempt == 1) {
+                    scheduleHedge(current.hedge);
+                }
 
-                    if (status != HttpURLConnection.HTTP_OK) {
-                        asyncHandler.handleFailureHttpStatus(
-                                response,
-                                url.toURI(),
-                                status
-                        );
-                    } else {
-                        asyncHandler.onCompleted(response);
+                final Map<String, String> headers = new HashMap<String, String>(request.getHeaders());
+                if (current.cacheEntry != null && current.cacheEntry.getEtag() != null) {
+                    headers.put("If-None-Match", current.cacheEntry.getEtag());
+                }
+                final long remainingInMs = remainingTimeInMs(request);
+                final HttpTransport.Call call = transport.newCall(request, headers,
+                    timeoutOf(BaseRequest.connectTimeoutOf(request), defaultConnectionToInMs, remainingInMs),
+                    timeoutOf(BaseRequest.readTimeoutOf(request), defaultRequestToInMs, remainingInMs),
+                    connectionPool);
+                current.call = call;
+                // 취소되거나 hedge한 다른 시도가 먼저 응답을 받으면 다른 thread에서 call을 취소하여 진행 중인 read, write를 중단한다.
+                asyncHandler.addCall(call);
+                if (current.hedge != null && !current.hedge.setCall(isHedge, call)) {
+                    call.cancel();
+                }
+
+                sent = true;
+                final Thread callerThread = Thread.currentThread();
+                call.enqueue(new HttpTransport.Callback() {
+                    @Override
+                    public void onResponse(final Response response) {
+                        dispatch(callerThread, current, response, null);
                     }
 
-                } finally {
-                    if (in != null) {
-                        in.close();
-                        in = null;
+                    @Override
+                    public void onFailure(final IOException e) {
+                        dispatch(callerThread, current, null, e);
                     }
+                });
+            } catch (Exception e) {
+                sent = true;
+                onAttemptCompleted(current, null, e);
+            } finally {
+                if (!sent) {
+                    finishAttempt(current);
+                }
+            }
+        }
+
+        /**
+         * transport가 I/O thread에서 결과를 알려주면 응답 처리 전용 executor에서 처리하여 I/O thread가 parsing이나 handler를 기다리지 않도록 한다.
+         * http executor의 {@link BoundedHttpExecutor.SaturationPolicy}와 상관없이 응답 처리는 버려지지 않는다.
+         */
+        private void dispatch(final Thread callerThread, final Attempt current, final Response response, final Exception failure) {
+            if (Thread.currentThread() == callerThread) {
+                onAttemptCompleted(current, response, failure);
+                return;
+            }
+            DELIVERY_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onAttemptCompleted(current, response, failure);
+                }
+            });
+        }
 
-                    if (err != null) {
-                        err.close();
-                        err = null;
+        /**
+         * 한번의 시도에 대한 응답이나 실패를 처리한다. 재시도하거나 handler에 결과를 전달한다.
+         */
+        private void onAttemptCompleted(final Attempt current, final Response response, final Exception failure) {
+            // 재시도를 예약한 후에 발생한 예외는 무시한다.
+            boolean retryScheduled = false;
+            try {
+                if (current.call != null) {
+                    asyncHandler.removeCall(current.call);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                final URL url = current.url;
+                final int status = response.getStatusCode();
+                current.receivedAt = System.currentTimeMillis();
+                current.observedStatus = status;
+                final HedgingPolicy hedgingPolicy = current.hedge != null ? current.hedge.policy : null;
+                if (!claimResult()) {
+                    current.lost = true;
+                    return;
+                }
+                if (hedgingPolicy != null && status < 500) {
+                    hedgingPolicy.recordLatency(current.receivedAt - current.startedAt);
+                }
+                if (rateLimiter != null && (status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE)) {
+                    rateLimiter.onRetryAfter(url.getPath(), response.getHeader("Retry-After"));
+                }
+                if (current.circuitAuthority != null) {
+                    current.circuitRecorded = true;
+                    if (status >= 500) {
+                        circuitBreaker.onFailure(current.circuitAuthority);
+                    } else {
+                        circuitBreaker.onSuccess(current.circuitAuthority, current.receivedAt - current.startedAt);
                     }
+                }
 
-                    if (os != null) {
-                        os.close();
-                        os = null;
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED && current.cacheEntry != null) {
+                    // body가 없으므로 보관한 응답을 사용한다.
+                    final long expiresAt = HttpResponseCache.expiresAtOf(response.getHeader("Cache-Control"));
+                    if (expiresAt > 0) {
+                        current.cacheEntry.setExpiresAt(expiresAt);
+                        responseCache.put(current.cacheKey, current.cacheEntry);
                     }
+                    responseCache.onRevalidated();
+                    current.delivered = true;
+                    asyncHandler.setAttemptCount(attempt);
+                    asyncHandler.onCachedResponse(current.cacheEntry, url.toURI());
+                    return;
+                }
 
-                    if (urlConnection != null) {
-                        urlConnection.disconnect();
+                if (status != HttpURLConnection.HTTP_OK && retryLater(null, status)) {
+                    retryScheduled = true;
+                } else if (status != HttpURLConnection.HTTP_OK) {
+                    current.delivered = true;
+                    asyncHandler.setAttemptCount(attempt);
+                    asyncHandler.handleFailureHttpStatus(
+                            response,
+                            url.toURI(),
+                            status
+                    );
+                } else {
+                    HttpResponseCache.Entry newEntry = null;
+                    if (current.cacheKey != null) {
+                        newEntry = HttpResponseCache.createEntry(response.getHeader("ETag"), response.getHeader("Cache-Control"),
+                            response.getResponseBodyAsBytes(), request.getCharSet());
+                        if (newEntry != null) {
+                            responseCache.put(current.cacheKey, newEntry);
+                        } else if (current.cacheEntry != null) {
+                            responseCache.remove(current.cacheKey);
+                        }
                     }
+                    current.delivered = true;
+                    asyncHandler.setAttemptCount(attempt);
+                    asyncHandler.onCompleted(response, newEntry);
                 }
 
             } catch (Exception e) {
-                asyncHandler.onThrowable(e);
+                if (asyncHandler.isAborted()) {
+                    return;
+                }
+                if (!current.delivered && !resolveFailedAttempt()) {
+                    current.lost = true;
+                    return;
+                }
+                if (current.circuitAuthority != null && !current.circuitRecorded) {
+                    // 연결 실패나 timeout 등 response status를 받지 못한 경우
+                    current.circuitRecorded = true;
+                    circuitBreaker.onFailure(current.circuitAuthority);
+                }
+                // handler에 결과를 넘긴 후에 발생한 예외로는 재시도하지 않는다.
+                if (retryScheduled || (!current.delivered && retryLater(e, 0))) {
+                    return;
+                }
+                asyncHandler.setAttemptCount(attempt);
+                if (!current.delivered && isDeadlineExceeded(request)) {
+                    asyncHandler.onDeadlineExceeded("during attempt " + attempt + ". t = " + e);
+                } else {
+                    asyncHandler.onThrowable(e);
+                }
+            } finally {
+                // handler는 이 thread에서 response를 모두 처리하므로 여기서 buffer를 반납한다.
+                if (response != null) {
+                    response.release();
+                }
+                finishAttempt(current);
             }
         }
 
-        private byte[] consume(InputStream in) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buf = new byte[2048];
-            while(true) {
-                int readlen = in.read(buf);
-                if (readlen<1)
-                    break;
-                baos.write(buf, 0, readlen);
+        /**
+         * 결과를 알리지 않은 circuit breaker와 concurrency limiter에 시도가 끝났음을 알린다.
+         */
+        private void finishAttempt(final Attempt current) {
+            if (current.circuitAuthority != null && !current.circuitRecorded) {
+                current.circuitRecorded = true;
+                circuitBreaker.onIgnored(current.circuitAuthority);
             }
-            return baos.toByteArray();
+            if (current.sentAt > 0) {
+                final long sentAt = current.sentAt;
+                current.sentAt = 0;
+                releaseConcurrencyLimit(sentAt, current.receivedAt, current.observedStatus, current.lost);
+            }
+        }
+
+        private void releaseConcurrencyLimit(final long sentAt, final long receivedAt, final int status, final boolean lost) {
+            if (asyncHandler.isAborted() || lost) {
+                // 취소나 hedge로 끊은 요청은 네트워크 상태와 상관이 없다.
+                concurrencyLimiter.release(0, false);
+                return;
+            }
+            final boolean dropped = receivedAt == 0 || status >= 500 || status == 429;
+            // 파일 upload처럼 body를 보내는 시간은 혼잡과 상관없이 길기 때문에 응답 시간으로 쓰지 않는다.
+            final boolean sample = receivedAt > 0 && !(request.hasPayload() && request.getPayload() instanceof Multipart);
+            concurrencyLimiter.release(sample ? receivedAt - sentAt : 0, dropped);
         }
     }
+
+    /**
+     * 한번의 시도에서 요청을 보내기 전에 정한 값과 응답을 처리하며 기록하는 값.
+     * transport에 따라 요청을 보낸 thread와 응답을 처리하는 thread가 다를 수 있다.
+     */
+    private static class Attempt {
+        private URL url;
+        private String cacheKey;
+        private HttpResponseCache.Entry cacheEntry;
+        private HttpTransport.Call call;
+        private Hedge hedge;
+        // circuit breaker가 요청을 허용한 authority와 그 결과를 알렸는지 여부
+        private String circuitAuthority;
+        private boolean circuitRecorded;
+        // limiter에서 자리를 얻은 시각, 요청을 보내기 시작한 시각, 응답을 받은 시각과 response status
+        private long sentAt;
+        private long startedAt;
+        private long receivedAt;
+        private int observedStatus;
+        // handler에 결과를 넘겼으면 true
+        private boolean delivered;
+        // hedge한 다른 시도가 먼저 응답을 받아 이 시도의 결과는 버리는 경우 true
+        private boolean lost;
+    }
 }
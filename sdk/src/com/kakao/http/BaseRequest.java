@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * 요청별 timeout, deadline, 우선순위를 지정할 수 있는 {@link Request}의 기본 구현.
+ * {@link HttpRequestBuilder#build()}가 만드는 요청은 이 class를 상속한다.
+ * {@link Request}를 직접 구현한 요청은 {@link AsyncHttpClient}의 기본 timeout으로 deadline 없이 {@link RequestPriority#INTERACTIVE}로 수행한다.
+ * @author kkung
+ */
+public abstract class BaseRequest implements Request {
+
+    /**
+     * @return 연결 timeout. 0이면 {@link AsyncHttpClient}의 기본값을 사용한다.
+     */
+    public int getConnectTimeoutInMs() {
+        return 0;
+    }
+
+    /**
+     * @return response를 읽는 동안의 timeout. 0이면 {@link AsyncHttpClient}의 기본값을 사용한다.
+     */
+    public int getReadTimeoutInMs() {
+        return 0;
+    }
+
+    /**
+     * @return 이 시각({@link System#currentTimeMillis()} 기준)까지 결과를 받지 못하면 요청을 실패 처리한다. 0이면 deadline이 없다.
+     */
+    public long getDeadline() {
+        return 0;
+    }
+
+    /**
+     * @return {@link PriorityLaneExecutor}에서 수행할 lane
+     */
+    public RequestPriority getPriority() {
+        return RequestPriority.INTERACTIVE;
+    }
+
+    static int connectTimeoutOf(final Request request) {
+        return (request instanceof BaseRequest) ? ((BaseRequest) request).getConnectTimeoutInMs() : 0;
+    }
+
+    static int readTimeoutOf(final Request request) {
+        return (request instanceof BaseRequest) ? ((BaseRequest) request).getReadTimeoutInMs() : 0;
+    }
+
+    static long deadlineOf(final Request request) {
+        return (request instanceof BaseRequest) ? ((BaseRequest) request).getDeadline() : 0;
+    }
+
+    static RequestPriority priorityOf(final Request request) {
+        return (request instanceof BaseRequest) ? ((BaseRequest) request).getPriority() : RequestPriority.INTERACTIVE;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 동시에 수행되는 thread 수와 대기 queue의 크기가 제한된 http executor.
+ * queue가 가득 찬 경우의 처리는 {@link SaturationPolicy}로 결정한다.
+ * @author kkung
+ */
+public class BoundedHttpExecutor extends ThreadPoolExecutor {
+
+    /**
+     * thread와 queue가 모두 찬 상태에서 새 작업이 들어왔을 때의 처리 방법
+     */
+    public static enum SaturationPolicy {
+        /**
+         * 새 작업을 수행하지 않고 요청한 쪽에 {@link com.kakao.APIErrorResult}로 실패를 알린다.
+         */
+        REJECT,
+        /**
+         * queue에서 가장 오래 기다린 작업을 실패 처리하고 새 작업을 queue에 넣는다.
+         * 실패를 알릴 수 없는 작업만 queue에 있으면 {@link #REJECT}처럼 새 작업을 실패 처리한다.
+         */
+        DROP_OLDEST,
+        /**
+         * 새 작업을 호출한 thread에서 바로 수행한다.
+         * main thread에서 {@link HttpTaskManager#execute(HttpRequestTask)}를 호출하는 경우에는 사용하지 않는다.
+         */
+        CALLER_RUNS
+    }
+
+    private final SaturationPolicy saturationPolicy;
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    public BoundedHttpExecutor(final int maxConcurrency, final int queueCapacity, final long keepAliveInSec,
+                               final SaturationPolicy saturationPolicy, final ThreadFactory threadFactory) {
+        super(maxConcurrency, maxConcurrency, keepAliveInSec, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(queueCapacity), threadFactory);
+        if (saturationPolicy == null) {
+            throw new IllegalArgumentException("saturationPolicy == null");
+        }
+        this.saturationPolicy = saturationPolicy;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new SaturationHandler());
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * @return 현재 queue에서 수행을 기다리고 있는 작업의 수
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return queue가 가득 차서 실패 처리된 작업의 누적 수. {@link SaturationPolicy#CALLER_RUNS}로 수행된 작업은 포함하지 않는다.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private static boolean notifyRejected(final Runnable runnable, final RejectedExecutionException e) {
+        if (runnable instanceof RejectableTask) {
+            ((RejectableTask) runnable).onRejected(e);
+            return true;
+        }
+        return false;
+    }
+
+    private class SaturationHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                reject(runnable, new RejectedExecutionException("http executor has been shut down"));
+                return;
+            }
+
+            switch (saturationPolicy) {
+                case CALLER_RUNS:
+                    runnable.run();
+                    break;
+                case DROP_OLDEST:
+                    // 다른 thread도 queue에 넣고 있을 수 있으므로 자리를 얻을 때까지 반복한다. execute를 다시 부르지 않는다.
+                    while (!executor.getQueue().offer(runnable)) {
+                        if (executor.isShutdown() || !dropOldest(executor.getQueue())) {
+                            reject(runnable, new RejectedExecutionException("http queue is full. queue depth = " + executor.getQueue().size()));
+                            return;
+                        }
+                    }
+                    // 모든 thread가 끝난 사이에 queue에 넣었을 수 있다.
+                    executor.prestartCoreThread();
+                    break;
+                case REJECT:
+                default:
+                    reject(runnable, new RejectedExecutionException("http queue is full. queue depth = " + executor.getQueue().size()));
+                    break;
+            }
+        }
+
+        /**
+         * queue에서 가장 오래 기다린 작업 중 실패를 알릴 수 있는 작업을 꺼내 실패 처리한다.
+         * 실패를 알릴 수 없는 작업은 꺼내면 결과가 사라지므로 꺼내지 않는다.
+         * @return 작업을 꺼냈으면 true
+         */
+        private boolean dropOldest(final BlockingQueue<Runnable> queue) {
+            for (Runnable queued : queue) {
+                if (queued instanceof RejectableTask && queue.remove(queued)) {
+                    rejectedCount.incrementAndGet();
+                    notifyRejected(queued, new RejectedExecutionException("dropped from the full http queue by a newer request"));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void reject(final Runnable runnable, final RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            // 실패를 알릴 수 없는 작업이면 호출한 쪽에서 알 수 있도록 그대로 던진다.
+            if (!notifyRejected(runnable, e)) {
+                throw e;
+            }
+        }
+    }
+}
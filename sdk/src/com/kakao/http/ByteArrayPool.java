@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * response body를 읽을 때 사용하는 byte[]를 재사용하기 위한 pool.
+ * 전체 크기가 sizeLimit을 넘으면 가장 오래 사용하지 않은 buffer부터 버린다.
+ * Android Open Source Project의 Volley(com.android.volley.toolbox.ByteArrayPool)를 바탕으로 하며 Apache License 2.0을 따른다.
+ * @author kkung
+ */
+public class ByteArrayPool {
+    private static final int DEFAULT_SIZE_LIMIT = 64 * 1024;
+    private static final ByteArrayPool DEFAULT_POOL = new ByteArrayPool(DEFAULT_SIZE_LIMIT);
+
+    private static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(final byte[] lhs, final byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    private final List<byte[]> buffersByLastUse = new LinkedList<byte[]>();
+    private final List<byte[]> buffersBySize = new ArrayList<byte[]>(64);
+    private final int sizeLimit;
+    private int currentSize = 0;
+
+    public ByteArrayPool(final int sizeLimit) {
+        this.sizeLimit = sizeLimit;
+    }
+
+    public static ByteArrayPool getDefault() {
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * @param len 필요한 최소 크기
+     * @return len 이상의 크기를 가진 buffer. pool에 없으면 새로 만든다.
+     */
+    public synchronized byte[] getBuf(final int len) {
+        for (int i = 0; i < buffersBySize.size(); i++) {
+            final byte[] buf = buffersBySize.get(i);
+            if (buf.length >= len) {
+                currentSize -= buf.length;
+                buffersBySize.remove(i);
+                buffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[len];
+    }
+
+    /**
+     * 다 쓴 buffer를 pool에 반납한다. 반납한 뒤에는 buffer를 사용하지 않아야 한다.
+     * @param buf 반납할 buffer
+     */
+    public synchronized void returnBuf(final byte[] buf) {
+        if (buf == null || buf.length > sizeLimit) {
+            return;
+        }
+        buffersByLastUse.add(buf);
+        int pos = Collections.binarySearch(buffersBySize, buf, BUF_COMPARATOR);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        buffersBySize.add(pos, buf);
+        currentSize += buf.length;
+        trim();
+    }
+
+    private void trim() {
+        while (currentSize > sizeLimit) {
+            final byte[] buf = buffersByLastUse.remove(0);
+            buffersBySize.remove(buf);
+            currentSize -= buf.length;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.Logger;
+import com.kakao.helper.ServerProtocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * authority(host:port)별로 최근 요청의 실패율과 느린 응답의 비율을 보고, 서버가 감당하지 못하는 것으로 보이면 한동안 요청을 보내지 않는다.
+ * <ul>
+ *     <li>{@link State#CLOSED} : 요청을 보낸다. 최근 windowSize개의 결과 중 실패나 느린 응답의 비율이 threshold를 넘으면 OPEN으로 바뀐다.</li>
+ *     <li>{@link State#OPEN} : 요청을 보내지 않고 바로 실패를 알린다. openDurationInMs가 지나면 HALF_OPEN으로 바뀐다.</li>
+ *     <li>{@link State#HALF_OPEN} : halfOpenMaxCalls개의 요청만 시험 삼아 보낸다. 모두 성공하면 CLOSED, 하나라도 실패하거나 느리면 다시 OPEN으로 바뀐다.</li>
+ * </ul>
+ * timeout, 연결 실패, 5xx 응답을 실패로 보고 4xx 응답은 성공으로 본다.
+ * {@link AsyncHttpClient#setCircuitBreaker(CircuitBreaker)}로 등록한다.
+ * @author kkung
+ */
+public class CircuitBreaker {
+    public static final List<String> DEFAULT_AUTHORITIES = Arrays.asList(ServerProtocol.API_AUTHORITY, ServerProtocol.AUTH_AUTHORITY);
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MIN_CALLS = 10;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final long DEFAULT_SLOW_CALL_THRESHOLD_IN_MS = 3000;
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+    public static final long DEFAULT_OPEN_DURATION_IN_MS = 30 * 1000L;
+    public static final int DEFAULT_HALF_OPEN_MAX_CALLS = 3;
+
+    private static final int MAX_HISTORY_SIZE = 100;
+    private static final byte OUTCOME_SUCCESS = 0;
+    private static final byte OUTCOME_FAILURE = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 상태가 바뀔 때 불린다. 요청을 수행하는 thread에서 불리므로 오래 걸리는 작업을 하지 않는다.
+     */
+    public static interface StateListener {
+        void onStateChanged(StateChange change);
+    }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallThresholdInMs;
+    private final double slowCallRateThreshold;
+    private final long openDurationInMs;
+    private final int halfOpenMaxCalls;
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
+    // 아래 값들은 this의 보호를 받는다.
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+    private final LinkedList<StateChange> history = new LinkedList<StateChange>();
+    private long rejectedCount;
+
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_THRESHOLD_IN_MS,
+            DEFAULT_SLOW_CALL_RATE_THRESHOLD, DEFAULT_OPEN_DURATION_IN_MS, DEFAULT_HALF_OPEN_MAX_CALLS, DEFAULT_AUTHORITIES);
+    }
+
+    /**
+     * @param windowSize 실패율을 계산할 최근 요청 수
+     * @param minCalls 최근 요청이 이 수보다 적으면 실패율과 상관없이 OPEN으로 바꾸지 않는다.
+     * @param failureRateThreshold 최근 요청 중 실패한 요청의 비율이 이 값 이상이면 OPEN으로 바뀐다. 0과 1 사이
+     * @param slowCallThresholdInMs 요청을 보내고 response를 받을 때까지 이 시간보다 오래 걸리면 느린 응답으로 본다.
+     * @param slowCallRateThreshold 최근 요청 중 느린 응답의 비율이 이 값 이상이면 OPEN으로 바뀐다. 0과 1 사이
+     * @param openDurationInMs OPEN 상태를 유지하는 시간
+     * @param halfOpenMaxCalls HALF_OPEN 상태에서 시험 삼아 보내는 요청 수
+     * @param authorities 대상 authority. {@link ServerProtocol#API_AUTHORITY} 형식. 이 외의 authority로 가는 요청은 항상 보낸다.
+     */
+    public CircuitBreaker(final int windowSize, final int minCalls, final double failureRateThreshold, final long slowCallThresholdInMs,
+                          final double slowCallRateThreshold, final long openDurationInMs, final int halfOpenMaxCalls,
+                          final Collection<String> authorities) {
+        if (windowSize < 1 || minCalls < 1 || minCalls > windowSize || halfOpenMaxCalls < 1) {
+            throw new IllegalArgumentException("invalid windowSize = " + windowSize + ", minCalls = " + minCalls + " or halfOpenMaxCalls = " + halfOpenMaxCalls);
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("invalid failureRateThreshold = " + failureRateThreshold + " or slowCallRateThreshold = " + slowCallRateThreshold);
+        }
+        if (slowCallThresholdInMs < 0 || openDurationInMs < 0) {
+            throw new IllegalArgumentException("invalid slowCallThresholdInMs = " + slowCallThresholdInMs + " or openDurationInMs = " + openDurationInMs);
+        }
+        this.windowSize = windowSize;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallThresholdInMs = slowCallThresholdInMs;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDurationInMs = openDurationInMs;
+        this.halfOpenMaxCalls = halfOpenMaxCalls;
+        for (String authority : authorities) {
+            circuits.put(authority, new Circuit(windowSize));
+        }
+    }
+
+    public void addStateListener(final StateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeStateListener(final StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 요청을 보내도 되는지 확인한다. OPEN 상태에서 openDurationInMs가 지났으면 HALF_OPEN으로 바꾼다.
+     * @param authority 요청할 host:port
+     * @return 보내도 되면 true. 이 경우 요청이 끝나면 {@link #onSuccess(String, long)}, {@link #onFailure(String)},
+     * {@link #onIgnored(String)} 중 하나를 반드시 호출해야 한다.
+     */
+    public boolean allowRequest(final String authority) {
+        StateChange change = null;
+        final boolean allowed;
+        synchronized (this) {
+            final Circuit circuit = circuits.get(authority);
+            if (circuit == null) {
+                return true;
+            }
+            final long now = System.currentTimeMillis();
+            if (circuit.state == State.OPEN && now - circuit.openedAt >= openDurationInMs) {
+                change = transition(authority, circuit, State.HALF_OPEN, now, "open duration elapsed");
+            }
+            if (circuit.state == State.CLOSED) {
+                allowed = true;
+            } else if (circuit.state == State.HALF_OPEN && circuit.halfOpenCalls < halfOpenMaxCalls) {
+                circuit.halfOpenCalls++;
+                allowed = true;
+            } else {
+                rejectedCount++;
+                allowed = false;
+            }
+        }
+        notifyListeners(change);
+        return allowed;
+    }
+
+    /**
+     * @param latencyInMs 요청을 보내고 response를 받을 때까지 걸린 시간
+     */
+    public void onSuccess(final String authority, final long latencyInMs) {
+        record(authority, latencyInMs > slowCallThresholdInMs ? OUTCOME_SLOW : OUTCOME_SUCCESS);
+    }
+
+    /**
+     * timeout, 연결 실패, 5xx 응답 등 서버나 네트워크의 문제로 보이는 실패를 기록한다.
+     */
+    public void onFailure(final String authority) {
+        record(authority, OUTCOME_FAILURE);
+    }
+
+    /**
+     * 취소 등 서버 상태와 상관없이 끝난 요청의 자리를 돌려준다. 결과는 기록하지 않는다.
+     */
+    public synchronized void onIgnored(final String authority) {
+        final Circuit circuit = circuits.get(authority);
+        if (circuit != null && circuit.state == State.HALF_OPEN && circuit.halfOpenCalls > 0) {
+            circuit.halfOpenCalls--;
+        }
+    }
+
+    /**
+     * @return authority의 지금 상태. 대상이 아닌 authority이면 {@link State#CLOSED}
+     */
+    public synchronized State getState(final String authority) {
+        final Circuit circuit = circuits.get(authority);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * @return OPEN 상태가 끝나 다시 요청을 보낼 수 있을 때까지 남은 시간. OPEN 상태가 아니면 0
+     */
+    public synchronized long getRemainingOpenTimeInMs(final String authority) {
+        final Circuit circuit = circuits.get(authority);
+        if (circuit == null || circuit.state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, circuit.openedAt + openDurationInMs - System.currentTimeMillis());
+    }
+
+    /**
+     * @return OPEN 상태라서 보내지 않고 바로 실패 처리한 요청의 누적 수
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return 상태가 바뀐 기록. 최근 {@value #MAX_HISTORY_SIZE}개까지 오래된 순서로 보관한다.
+     */
+    public synchronized List<StateChange> getHistory() {
+        return Collections.unmodifiableList(new ArrayList<StateChange>(history));
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("CircuitBreaker{");
+        for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue().state).append(", ");
+        }
+        sb.append("rejected=").append(rejectedCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private void record(final String authority, final byte outcome) {
+        StateChange change = null;
+        synchronized (this) {
+            final Circuit circuit = circuits.get(authority);
+            if (circuit == null) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            switch (circuit.state) {
+                case HALF_OPEN:
+                    if (outcome != OUTCOME_SUCCESS) {
+                        change = transition(authority, circuit, State.OPEN, now,
+                            "trial call " + (outcome == OUTCOME_SLOW ? "was slow" : "failed"));
+                    } else if (++circuit.halfOpenSuccesses >= halfOpenMaxCalls) {
+                        change = transition(authority, circuit, State.CLOSED, now, halfOpenMaxCalls + " trial calls succeeded");
+                    }
+                    break;
+                case CLOSED:
+                    circuit.add(outcome);
+                    if (circuit.count >= minCalls) {
+                        final double failureRate = (double) circuit.failures / circuit.count;
+                        final double slowCallRate = (double) circuit.slowCalls / circuit.count;
+                        if (failureRate >= failureRateThreshold) {
+                            change = transition(authority, circuit, State.OPEN, now,
+                                String.format("failure rate %.2f of %d calls", failureRate, circuit.count));
+                        } else if (slowCallRate >= slowCallRateThreshold) {
+                            change = transition(authority, circuit, State.OPEN, now,
+                                String.format("slow call rate %.2f of %d calls", slowCallRate, circuit.count));
+                        }
+                    }
+                    break;
+                case OPEN:
+                default:
+                    // OPEN 되기 전에 보낸 요청의 결과는 무시한다.
+                    break;
+            }
+        }
+        notifyListeners(change);
+    }
+
+    // this의 lock을 가진 상태에서 호출한다.
+    private StateChange transition(final String authority, final Circuit circuit, final State to, final long now, final String reason) {
+        final StateChange change = new StateChange(now, authority, circuit.state, to, reason);
+        circuit.state = to;
+        circuit.halfOpenCalls = 0;
+        circuit.halfOpenSuccesses = 0;
+        if (to == State.OPEN) {
+            circuit.openedAt = now;
+        } else if (to == State.CLOSED) {
+            circuit.reset(windowSize);
+        }
+        history.addLast(change);
+        if (history.size() > MAX_HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        return change;
+    }
+
+    private void notifyListeners(final StateChange change) {
+        if (change == null) {
+            return;
+        }
+        Logger.getInstance().d("circuit breaker : " + change);
+        for (StateListener listener : listeners) {
+            listener.onStateChanged(change);
+        }
+    }
+
+    private static class Circuit {
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int halfOpenCalls;
+        private int halfOpenSuccesses;
+        // 최근 요청의 결과를 ring buffer로 보관한다.
+        private byte[] outcomes;
+        private int next;
+        private int count;
+        private int failures;
+        private int slowCalls;
+
+        private Circuit(final int windowSize) {
+            reset(windowSize);
+        }
+
+        private void reset(final int windowSize) {
+            outcomes = new byte[windowSize];
+            next = 0;
+            count = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+
+        private void add(final byte outcome) {
+            if (count == outcomes.length) {
+                remove(outcomes[next]);
+            } else {
+                count++;
+            }
+            outcomes[next] = outcome;
+            next = (next + 1) % outcomes.length;
+            if (outcome == OUTCOME_FAILURE) {
+                failures++;
+            } else if (outcome == OUTCOME_SLOW) {
+                slowCalls++;
+            }
+        }
+
+        private void remove(final byte outcome) {
+            if (outcome == OUTCOME_FAILURE) {
+                failures--;
+            } else if (outcome == OUTCOME_SLOW) {
+                slowCalls--;
+            }
+        }
+    }
+
+    /**
+     * 상태가 바뀐 기록
+     */
+    public static final class StateChange {
+        private final long time;
+        private final String authority;
+        private final State from;
+        private final State to;
+        private final String reason;
+
+        StateChange(final long time, final String authority, final State from, final State to, final String reason) {
+            this.time = time;
+            this.authority = authority;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+        }
+
+        /**
+         * @return 바뀐 시각. {@link System#currentTimeMillis()} 기준
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String getAuthority() {
+            return authority;
+        }
+
+        public State getFrom() {
+            return from;
+        }
+
+        public State getTo() {
+            return to;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "StateChange{authority=" + authority + ", " + from + " -> " + to + ", reason=" + reason + ", time=" + time + '}';
+        }
+    }
+}
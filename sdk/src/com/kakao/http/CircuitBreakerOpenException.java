@@ -0,0 +1,47 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * {@link CircuitBreaker}가 OPEN 상태라서 요청을 보내지 않았음을 알린다.
+ * {@link KakaoAsyncHandler#onThrowable(Throwable)}에서 {@link com.kakao.ErrorCode#CIRCUIT_OPEN_CODE}로 전달한다.
+ * @author kkung
+ */
+public class CircuitBreakerOpenException extends Exception {
+    private static final long serialVersionUID = -2471513722816410139L;
+
+    private final String authority;
+    private final long retryAfterInMs;
+
+    public CircuitBreakerOpenException(final String authority, final long retryAfterInMs) {
+        super("circuit breaker is open for " + authority + ". retry after " + retryAfterInMs + "ms");
+        this.authority = authority;
+        this.retryAfterInMs = retryAfterInMs;
+    }
+
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * @return 다시 요청을 보낼 수 있을 때까지 남은 시간
+     */
+    public long getRetryAfterInMs() {
+        return retryAfterInMs;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.ServerProtocol;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 응답이 늦은 요청을 기다리는 동안 같은 요청을 한번 더 보낼지(hedge)와 언제 보낼지를 결정한다.
+ * 최근 응답 시간의 percentile 만큼 기다려도 응답을 받지 못하면 같은 요청을 한번 더 보내고, 먼저 응답을 받은 쪽의 결과를 전달한다.
+ * 진 쪽의 connection은 끊는다.
+ * 추가로 보내는 요청은 budget으로 제한하여 hedge 대상 요청 수의 budgetRatio 비율을 넘지 않는다.
+ * 같은 요청을 두번 보내므로 {@link ServerProtocol#USER_ME_PATH}, {@link ServerProtocol#TALK_PROFILE_PATH}, {@link ServerProtocol#STORY_PROFILE_PATH}처럼
+ * 서버의 상태를 바꾸지 않는 조회 요청만 대상으로 한다. hedgeablePaths에 다른 path를 넣더라도 조회 요청이 아니면 hedge하지 않는다.
+ * {@link AsyncHttpClient#setHedgingPolicy(HedgingPolicy)}로 등록한다.
+ * @author kkung
+ */
+public class HedgingPolicy {
+    public static final List<String> DEFAULT_HEDGEABLE_PATHS = ReadOnlyRequests.PATHS;
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    public static final long DEFAULT_MIN_DELAY_IN_MS = 50;
+
+    private static final int MAX_SAMPLES = 100;
+    // 한동안 hedge하지 않아도 쌓아둘 수 있는 budget의 최대값. 한번에 몰아서 hedge하는 요청 수를 제한한다.
+    private static final double MAX_BUDGET = 10;
+
+    private final Set<String> hedgeablePaths;
+    private final double percentile;
+    private final double budgetRatio;
+    private final int minSamples;
+    private final long minDelayInMs;
+
+    // 아래 값들은 this의 보호를 받는다.
+    // 최근 응답 시간을 ring buffer로 보관한다.
+    private final long[] latencies = new long[MAX_SAMPLES];
+    private int sampleCount;
+    private int nextSampleIndex;
+    private long cachedDelayInMs = -1;
+    private boolean delayDirty;
+    private double budget;
+    private long hedgeableCount;
+    private long hedgedCount;
+    private long hedgeWinCount;
+
+    public HedgingPolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET_RATIO, DEFAULT_MIN_SAMPLES, DEFAULT_MIN_DELAY_IN_MS, DEFAULT_HEDGEABLE_PATHS);
+    }
+
+    /**
+     * @param percentile 이 percentile의 최근 응답 시간 만큼 기다린 후에 hedge한다. 0과 1 사이
+     * @param budgetRatio hedge 대상 요청 대비 추가로 보낼 수 있는 요청의 비율. 0과 1 사이
+     * @param minSamples 응답 시간을 이 수 만큼 모으기 전에는 hedge하지 않는다.
+     * @param minDelayInMs hedge 전에 기다리는 최소 시간
+     * @param hedgeablePaths hedge할 요청 path. {@link ServerProtocol}의 path 형식
+     */
+    public HedgingPolicy(final double percentile, final double budgetRatio, final int minSamples, final long minDelayInMs,
+                         final Collection<String> hedgeablePaths) {
+        if (percentile <= 0 || percentile >= 1 || budgetRatio <= 0 || budgetRatio >= 1) {
+            throw new IllegalArgumentException("invalid percentile = " + percentile + " or budgetRatio = " + budgetRatio);
+        }
+        if (minSamples < 1 || minSamples > MAX_SAMPLES || minDelayInMs < 0) {
+            throw new IllegalArgumentException("invalid minSamples = " + minSamples + " or minDelayInMs = " + minDelayInMs);
+        }
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+        this.minSamples = minSamples;
+        this.minDelayInMs = minDelayInMs;
+        this.hedgeablePaths = Collections.unmodifiableSet(ReadOnlyRequests.normalize(hedgeablePaths));
+    }
+
+    /**
+     * @return hedge 대상 요청이면 true. 대상 path로 보내는 조회 요청만 대상이다.
+     */
+    public boolean isHedgeable(final Request request) {
+        return ReadOnlyRequests.isReadOnly(request) && ReadOnlyRequests.matches(request, hedgeablePaths);
+    }
+
+    /**
+     * @return hedge 전에 기다릴 시간. 응답 시간을 충분히 모으지 못했으면 -1
+     */
+    public synchronized long getHedgeDelayInMs() {
+        if (sampleCount < minSamples) {
+            return -1;
+        }
+        if (delayDirty) {
+            final long[] sorted = Arrays.copyOf(latencies, sampleCount);
+            Arrays.sort(sorted);
+            final int index = Math.min(sampleCount - 1, (int) Math.ceil(percentile * sampleCount) - 1);
+            cachedDelayInMs = Math.max(minDelayInMs, sorted[Math.max(0, index)]);
+            delayDirty = false;
+        }
+        return cachedDelayInMs;
+    }
+
+    /**
+     * hedge 대상 요청을 시작할 때 호출한다. 요청마다 budgetRatio 만큼 budget이 쌓인다.
+     */
+    synchronized void onHedgeableRequest() {
+        hedgeableCount++;
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    /**
+     * @param latencyInMs 요청을 보내기 시작해서 response를 모두 받을 때까지 걸린 시간
+     */
+    synchronized void recordLatency(final long latencyInMs) {
+        latencies[nextSampleIndex] = latencyInMs;
+        nextSampleIndex = (nextSampleIndex + 1) % MAX_SAMPLES;
+        sampleCount = Math.min(MAX_SAMPLES, sampleCount + 1);
+        delayDirty = true;
+    }
+
+    /**
+     * budget이 남아 있으면 hedge 한번 만큼 쓴다.
+     * @return hedge해도 되면 true
+     */
+    synchronized boolean tryAcquireBudget() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        hedgedCount++;
+        return true;
+    }
+
+    synchronized void onHedgeWon() {
+        hedgeWinCount++;
+    }
+
+    /**
+     * @return hedge 대상 요청의 누적 수
+     */
+    public synchronized long getHedgeableCount() {
+        return hedgeableCount;
+    }
+
+    /**
+     * @return 추가로 보낸 hedge 요청의 누적 수
+     */
+    public synchronized long getHedgedCount() {
+        return hedgedCount;
+    }
+
+    /**
+     * @return 추가로 보낸 요청이 먼저 응답을 받은 누적 수
+     */
+    public synchronized long getHedgeWinCount() {
+        return hedgeWinCount;
+    }
+
+    /**
+     * @return hedge 대상 요청 중 추가로 요청을 보낸 비율. 추가 부하는 이 값을 넘지 않는다.
+     */
+    public synchronized double getHedgeRate() {
+        return hedgeableCount == 0 ? 0 : (double) hedgedCount / hedgeableCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HedgingPolicy{" +
+            "delayInMs=" + getHedgeDelayInMs() +
+            ", hedgeable=" + hedgeableCount +
+            ", hedged=" + hedgedCount +
+            ", won=" + hedgeWinCount +
+            ", rate=" + String.format("%.3f", getHedgeRate()) +
+            '}';
+    }
+}
@@ -19,6 +19,8 @@ package com.kakao.http;
 
 import android.net.Uri;
 
+import com.kakao.helper.ServerProtocol;
+
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.message.BasicNameValuePair;
@@ -29,11 +31,19 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author kkung
  */
 public abstract class HttpRequestBuilder {
+    // API path별 기본 timeout. path는 앞의 '/' 없이 저장한다.
+    private static final Map<String, RequestTimeout> ENDPOINT_TIMEOUTS = new ConcurrentHashMap<String, RequestTimeout>();
+
+    static {
+        // 이미지 upload는 작은 API 요청보다 오래 걸린다.
+        ENDPOINT_TIMEOUTS.put(ServerProtocol.STORY_UPLOAD_PATH, new RequestTimeout(10000, 30000, 0));
+    }
 
     public static HttpRequestBuilder get(final String url) {
         return new HttpGetRequestBuilder(url);
@@ -48,6 +58,10 @@ public abstract class HttpRequestBuilder {
     protected List<NameValuePair> parameters;
     protected Map<String, String> headers;
     protected String charset;
+    protected int connectTimeoutInMs;
+    protected int readTimeoutInMs;
+    protected long deadlineInMs;
+    protected RequestPriority priority = RequestPriority.INTERACTIVE;
 
     protected HttpRequestBuilder(final String url) {
         if (url == null || url.length() == 0) {
@@ -69,6 +83,94 @@ public abstract class HttpRequestBuilder {
         return this;
     }
 
+    /**
+     * 이 요청의 연결 timeout을 설정한다. 설정하지 않으면 path별 기본값이나 {@link AsyncHttpClient}의 기본값을 사용한다.
+     */
+    public HttpRequestBuilder setConnectTimeout(final int connectTimeoutInMs) {
+        this.connectTimeoutInMs = connectTimeoutInMs;
+        return this;
+    }
+
+    /**
+     * 이 요청의 response를 읽는 동안의 timeout을 설정한다. 설정하지 않으면 path별 기본값이나 {@link AsyncHttpClient}의 기본값을 사용한다.
+     */
+    public HttpRequestBuilder setReadTimeout(final int readTimeoutInMs) {
+        this.readTimeoutInMs = readTimeoutInMs;
+        return this;
+    }
+
+    /**
+     * {@link #build()}한 후 결과를 받을 때까지 허용하는 시간을 설정한다.
+     * executor queue 대기, token 갱신, 재시도 시간을 모두 포함하고, 지나면 {@link com.kakao.ErrorCode#DEADLINE_EXCEEDED_CODE}로 실패한다.
+     */
+    public HttpRequestBuilder setDeadline(final long deadlineInMs) {
+        this.deadlineInMs = deadlineInMs;
+        return this;
+    }
+
+    /**
+     * 연결 timeout, read timeout, deadline을 한번에 설정한다. 0인 값은 path별 기본값이나 {@link AsyncHttpClient}의 기본값을 사용한다.
+     * @param timeout 이 요청의 timeout 설정. null이면 아무것도 바꾸지 않는다.
+     */
+    public HttpRequestBuilder setTimeout(final RequestTimeout timeout) {
+        if (timeout != null) {
+            this.connectTimeoutInMs = timeout.getConnectTimeoutInMs();
+            this.readTimeoutInMs = timeout.getReadTimeoutInMs();
+            this.deadlineInMs = timeout.getDeadlineInMs();
+        }
+        return this;
+    }
+
+    /**
+     * 이 요청의 우선순위를 설정한다. 기본값은 {@link RequestPriority#INTERACTIVE}
+     */
+    public HttpRequestBuilder setPriority(final RequestPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority == null");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * API path별 기본 timeout을 설정한다. 요청마다 설정한 값이 우선한다.
+     * @param path {@link ServerProtocol}의 API path. 예) {@link ServerProtocol#USER_ME_PATH}
+     * @param timeout path의 기본 timeout. null이면 기본값을 지운다.
+     */
+    public static void setEndpointTimeout(final String path, final RequestTimeout timeout) {
+        if (timeout == null) {
+            ENDPOINT_TIMEOUTS.remove(normalizePath(path));
+        } else {
+            ENDPOINT_TIMEOUTS.put(normalizePath(path), timeout);
+        }
+    }
+
+    public static RequestTimeout getEndpointTimeout(final String path) {
+        return ENDPOINT_TIMEOUTS.get(normalizePath(path));
+    }
+
+    private static String normalizePath(final String path) {
+        if (path == null) {
+            return "";
+        }
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * @return 이 요청에 설정한 timeout을 path별 기본값으로 채운 설정
+     */
+    protected RequestTimeout resolveTimeout() {
+        return new RequestTimeout(connectTimeoutInMs, readTimeoutInMs, deadlineInMs)
+            .fillWith(getEndpointTimeout(Uri.parse(url).getPath()));
+    }
+
+    /**
+     * @return {@link BaseRequest#getDeadline()}으로 사용할 시각. deadline이 없으면 0
+     */
+    protected static long deadlineOf(final RequestTimeout timeout) {
+        return timeout.getDeadlineInMs() > 0 ? System.currentTimeMillis() + timeout.getDeadlineInMs() : 0;
+    }
+
     public abstract Request build();
 
     public HttpRequestBuilder setBodyEncoding(String bodyEncoding) {
@@ -96,8 +198,11 @@ public abstract class HttpRequestBuilder {
             }
 
             final String buildUrl = builder.build().toString();
+            final RequestTimeout timeout = resolveTimeout();
+            final long deadline = deadlineOf(timeout);
+            final RequestPriority requestPriority = priority;
 
-            return new Request() {
+            return new BaseRequest() {
                 @Override
                 public String getUrl() {
                     return buildUrl;
@@ -127,6 +232,26 @@ public abstract class HttpRequestBuilder {
                 public Object getPayload() {
                     return null;
                 }
+
+                @Override
+                public int getConnectTimeoutInMs() {
+                    return timeout.getConnectTimeoutInMs();
+                }
+
+                @Override
+                public int getReadTimeoutInMs() {
+                    return timeout.getReadTimeoutInMs();
+                }
+
+                @Override
+                public long getDeadline() {
+                    return deadline;
+                }
+
+                @Override
+                public RequestPriority getPriority() {
+                    return requestPriority;
+                }
             };
         }
 
@@ -162,8 +287,11 @@ public abstract class HttpRequestBuilder {
                     payload[0] = entity;
                 }
             }
+            final RequestTimeout timeout = resolveTimeout();
+            final long deadline = deadlineOf(timeout);
+            final RequestPriority requestPriority = priority;
 
-            return new Request() {
+            return new BaseRequest() {
                 @Override
                 public String getUrl() {
                     return url;
@@ -193,6 +321,26 @@ public abstract class HttpRequestBuilder {
                 public Object getPayload() {
                     return payload[0];
                 }
+
+                @Override
+                public int getConnectTimeoutInMs() {
+                    return timeout.getConnectTimeoutInMs();
+                }
+
+                @Override
+                public int getReadTimeoutInMs() {
+                    return timeout.getReadTimeoutInMs();
+                }
+
+                @Override
+                public long getDeadline() {
+                    return deadline;
+                }
+
+                @Override
+                public RequestPriority getPriority() {
+                    return requestPriority;
+                }
             };
         }
 
@@ -28,11 +28,12 @@ import com.kakao.helper.Utility;
 
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author MJ
  */
-public class HttpRequestTask<T> implements Runnable {
+public class HttpRequestTask<T> implements Runnable, RejectableTask, PrioritizedTask {
     public static final int SUCCESS = 1;
     public static final int ERROR = 2;
     public static final int NEED_TO_LOGIN = 4;
@@ -72,7 +73,15 @@ public class HttpRequestTask<T> implements Runnable {
 
     @Override
     public void run() {
+        if (asyncHandler.isCancelled()) {
+            return;
+        }
         try {
+            // executor queue에서 기다리거나 token 갱신을 기다리는 동안 deadline이 지났으면 요청하지 않는다.
+            if (AsyncHttpClient.isDeadlineExceeded(request)) {
+                asyncHandler.onDeadlineExceeded("before sending the request");
+                return;
+            }
             preRequest();
             ASYNC_HTTP_CLIENT.executeRequest(request, asyncHandler);
         } catch (Exception e) {
@@ -81,6 +90,60 @@ public class HttpRequestTask<T> implements Runnable {
         }
     }
 
+    @Override
+    public RequestPriority getPriority() {
+        return BaseRequest.priorityOf(request);
+    }
+
+    @Override
+    public void onRejected(final RejectedExecutionException e) {
+        Logger.getInstance().w("http request is rejected : " + e.getMessage());
+        asyncHandler.onThrowable(e);
+    }
+
+    /**
+     * 요청을 취소한다. queue에서 기다리는 중이면 꺼내고, 진행 중이면 connection을 끊는다. 취소한 후에는 callback이 불리지 않는다.
+     * @return 이번 호출로 취소되었으면 true. 이미 취소된 경우 false
+     */
+    public boolean cancel() {
+        if (!asyncHandler.cancel()) {
+            return false;
+        }
+        HttpTaskManager.remove(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return asyncHandler.isCancelled();
+    }
+
+    /**
+     * 요청의 결과보다 먼저 callback을 받는 thread에서 수행할 작업을 보낸다. 요청을 취소하면 수행하지 않는다.
+     * @param runnable callback을 받는 thread에서 수행할 작업
+     */
+    public void postBeforeResult(final Runnable runnable) {
+        asyncHandler.deliverBeforeResult(runnable);
+    }
+
+    /**
+     * @return 결과를 handler에 전달했으면 true
+     */
+    public boolean isCompleted() {
+        return asyncHandler.isCompleted();
+    }
+
+    boolean isInFlight() {
+        return asyncHandler.isInFlight();
+    }
+
+    /**
+     * 모든 HttpRequestTask가 공유하는 client. connection 재사용 등의 설정은 이 client에 한다.
+     * @return 요청을 수행하는 client
+     */
+    public static AsyncHttpClient getAsyncHttpClient() {
+        return ASYNC_HTTP_CLIENT;
+    }
+
     protected void preRequest() {
     }
 
@@ -88,8 +151,9 @@ public class HttpRequestTask<T> implements Runnable {
     }
 
     private static AsyncHttpClient newAsyncHttpClient() {
+        // HttpTaskManager의 executor를 바꾸면 요청을 보내는 단계에도 바로 적용되도록 고정하지 않는다.
         return new AsyncHttpClient(
-                HttpTaskManager.getHttpExecutor(),
+                null,
                 DEFAULT_CONNECTION_TO_IN_MS,
                 DEFAULT_REQUEST_TO_IN_MS
         );
@@ -0,0 +1,464 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import android.content.Context;
+
+import com.kakao.KakaoTalkProfile;
+import com.kakao.User;
+import com.kakao.helper.Logger;
+import com.kakao.helper.ServerProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 자주 바뀌지 않는 조회 요청의 응답을 보관하는 cache.
+ * 카카오톡/카카오스토리 프로필처럼 body 없는 POST로 보내는 조회 요청도 path로 판단하여 cache한다.
+ * Cache-Control의 max-age 동안은 요청하지 않고 보관한 응답을 사용하고, 그 이후에는 ETag로 If-None-Match 요청을 보내
+ * 304를 받으면 body를 받거나 parsing하지 않고 보관한 결과를 사용한다.
+ * Authorization header를 key에 포함하므로 사용자나 access token이 바뀌면 다른 entry를 사용한다.
+ * memory와 disk 두 단계로 보관하며 각각 크기를 넘으면 가장 오래 사용하지 않은 entry부터 지운다.
+ * {@link AsyncHttpClient#setResponseCache(HttpResponseCache)}로 설정한다.
+ * @author kkung
+ */
+public class HttpResponseCache {
+    private static final String TAG = HttpResponseCache.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_MEMORY_ENTRIES = 16;
+    public static final long DEFAULT_MAX_DISK_BYTES = 512 * 1024;
+    public static final List<String> DEFAULT_CACHEABLE_PATHS = ReadOnlyRequests.PATHS;
+
+    private static final String DIRECTORY_NAME = "com.kakao.http";
+    private static final int DISK_FORMAT_VERSION = 1;
+    // 세션이 닫힐 때 모두 비울 수 있도록 만들어진 cache를 기억한다.
+    private static final Set<HttpResponseCache> INSTANCES = Collections.newSetFromMap(new WeakHashMap<HttpResponseCache, Boolean>());
+
+    private final Set<String> cacheablePaths;
+    private final int maxMemoryEntries;
+    private final File directory;
+    private final long maxDiskBytes;
+    // 아래 값들은 this의 보호를 받는다.
+    private final LinkedHashMap<String, HttpResponseCache.Entry> memoryEntries;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong revalidatedCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * 사용자 정보, 카카오톡 프로필, 카카오스토리 프로필 요청을 기본 크기로 cache한다.
+     * @param context cache directory를 구할 context
+     */
+    public HttpResponseCache(final Context context) {
+        this(new File(context.getCacheDir(), DIRECTORY_NAME), DEFAULT_MAX_MEMORY_ENTRIES, DEFAULT_MAX_DISK_BYTES, DEFAULT_CACHEABLE_PATHS);
+    }
+
+    /**
+     * @param directory disk cache directory. null이면 memory에만 보관한다.
+     * @param maxMemoryEntries memory에 보관할 최대 entry 수
+     * @param maxDiskBytes disk에 보관할 최대 크기
+     * @param cacheablePaths cache할 요청 path. {@link ServerProtocol}의 path 형식
+     */
+    public HttpResponseCache(final File directory, final int maxMemoryEntries, final long maxDiskBytes, final Collection<String> cacheablePaths) {
+        this.directory = directory;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxDiskBytes = maxDiskBytes;
+        this.cacheablePaths = ReadOnlyRequests.normalize(cacheablePaths);
+        this.memoryEntries = new LinkedHashMap<String, HttpResponseCache.Entry>(maxMemoryEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, HttpResponseCache.Entry> eldest) {
+                return size() > HttpResponseCache.this.maxMemoryEntries;
+            }
+        };
+        synchronized (INSTANCES) {
+            INSTANCES.add(this);
+        }
+    }
+
+    /**
+     * 만들어진 모든 cache의 응답을 지운다. 이전 사용자의 응답이 남지 않도록 세션이 닫힐 때 호출된다.
+     */
+    public static void purgeAll() {
+        final List<HttpResponseCache> caches;
+        synchronized (INSTANCES) {
+            caches = new ArrayList<HttpResponseCache>(INSTANCES);
+        }
+        for (HttpResponseCache cache : caches) {
+            cache.purge();
+        }
+    }
+
+    /**
+     * body가 있는 요청은 key로 구분할 수 없으므로 cache하지 않는다.
+     * @return cache 대상 path로 보내는 body 없는 GET, POST 요청이면 true
+     */
+    public boolean isCacheable(final Request request) {
+        return ReadOnlyRequests.matches(request, cacheablePaths);
+    }
+
+    /**
+     * 요청 method, 주소와 Authorization header로 key를 만든다.
+     */
+    public String keyOf(final Request request) {
+        final String authorization = request.getHeaders().get(ServerProtocol.AUTHORIZATION_HEADER_KEY);
+        return request.getMethod() + " " + request.getUrl() + " " + (authorization == null ? "" : authorization);
+    }
+
+    /**
+     * memory에 없으면 disk에서 읽어 memory에 올린다.
+     * @return 보관된 entry. 없으면 null
+     */
+    public synchronized Entry get(final String key) {
+        Entry entry = memoryEntries.get(key);
+        if (entry == null && directory != null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memoryEntries.put(key, entry);
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public synchronized void put(final String key, final Entry entry) {
+        memoryEntries.put(key, entry);
+        if (directory != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    public synchronized void remove(final String key) {
+        memoryEntries.remove(key);
+        if (directory != null) {
+            fileOf(key).delete();
+        }
+    }
+
+    /**
+     * 보관한 모든 응답을 지운다.
+     */
+    public synchronized void purge() {
+        memoryEntries.clear();
+        if (directory != null) {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    void onHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void onRevalidated() {
+        revalidatedCount.incrementAndGet();
+    }
+
+    /**
+     * @return 요청하지 않고 보관한 응답을 사용한 횟수
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return 304를 받아 보관한 응답을 사용한 횟수
+     */
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 응답 header로 entry를 만든다.
+     * @param etag ETag header 값
+     * @param cacheControl Cache-Control header 값
+     * @return no-store이거나 ETag와 max-age가 모두 없어 보관할 필요가 없으면 null
+     */
+    static Entry createEntry(final String etag, final String cacheControl, final byte[] body, final String charset) {
+        final long expiresAt = expiresAtOf(cacheControl);
+        if (expiresAt < 0 || (etag == null && expiresAt == 0)) {
+            return null;
+        }
+        return new Entry(etag, expiresAt, body, charset == null ? "UTF-8" : charset);
+    }
+
+    /**
+     * @return 보관해도 되는 기한. no-store이면 -1, 바로 재검증해야 하면 0
+     */
+    static long expiresAtOf(final String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAge = 0;
+        for (String directive : cacheControl.split(",")) {
+            final String trimmed = directive.trim().toLowerCase();
+            if (trimmed.equals("no-store")) {
+                return -1;
+            } else if (trimmed.equals("no-cache")) {
+                return 0;
+            } else if (trimmed.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(trimmed.substring("max-age=".length()).trim());
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return maxAge > 0 ? System.currentTimeMillis() + maxAge * 1000 : 0;
+    }
+
+    private File fileOf(final String key) {
+        return new File(directory, hashOf(key));
+    }
+
+    private Entry readFromDisk(final String key) {
+        final File file = fileOf(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != DISK_FORMAT_VERSION) {
+                file.delete();
+                return null;
+            }
+            final String etag = in.readBoolean() ? in.readUTF() : null;
+            final long expiresAt = in.readLong();
+            final String charset = in.readUTF();
+            final int bodyLength = in.readInt();
+            // 잘렸거나 깨진 파일의 길이로 배열을 만들지 않는다.
+            if (bodyLength < 0 || bodyLength > file.length()) {
+                throw new IOException("invalid body length : " + bodyLength);
+            }
+            final byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(etag, expiresAt, body, charset);
+        } catch (IOException e) {
+            Logger.getInstance().w(TAG, "failed to read cached response : " + e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(final String key, final Entry entry) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        final File file = fileOf(key);
+        final File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(DISK_FORMAT_VERSION);
+            out.writeBoolean(entry.etag != null);
+            if (entry.etag != null) {
+                out.writeUTF(entry.etag);
+            }
+            out.writeLong(entry.getExpiresAt());
+            out.writeUTF(entry.charset);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Logger.getInstance().w(TAG, "failed to write cached response : " + e);
+            tempFile.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private static String hashOf(final String key) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        } catch (IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    private static void closeQuietly(final java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * 보관된 응답 하나. memory에 있는 동안은 parsing한 결과도 함께 보관한다.
+     */
+    public static final class Entry {
+        private final String etag;
+        private final byte[] body;
+        private final String charset;
+        private volatile long expiresAt;
+        // 아래 값들은 this의 보호를 받는다.
+        private Class<?> resultType;
+        private Object result;
+
+        Entry(final String etag, final long expiresAt, final byte[] body, final String charset) {
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.body = body;
+            this.charset = charset;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        void setExpiresAt(final long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        String getCharset() {
+            return charset;
+        }
+
+        /**
+         * parsing한 결과를 보관한다. 받는 쪽에서 바꿀 수 있는 type은 보관할 때와 전달할 때 복사한다.
+         */
+        synchronized void setResult(final Class<?> type, final Object result) {
+            if (result == null || !isShareable(type)) {
+                return;
+            }
+            this.resultType = type;
+            this.result = copyOf(result);
+        }
+
+        /**
+         * @return 보관된 결과의 복사본. 없으면 null
+         */
+        synchronized Object getResult(final Class<?> type) {
+            if (result == null || !type.equals(resultType)) {
+                return null;
+            }
+            return copyOf(result);
+        }
+
+        private static boolean isShareable(final Class<?> type) {
+            return Map.class.equals(type) || List.class.equals(type) || User.class.equals(type) || KakaoTalkProfile.class.equals(type);
+        }
+
+        @SuppressWarnings("unchecked")
+        static Object copyOf(final Object value) {
+            if (value instanceof Map) {
+                final Map<Object, Object> copy = new HashMap<Object, Object>();
+                for (Map.Entry<Object, Object> e : ((Map<Object, Object>) value).entrySet()) {
+                    copy.put(e.getKey(), copyOf(e.getValue()));
+                }
+                return copy;
+            } else if (value instanceof List) {
+                final List<Object> copy = new ArrayList<Object>();
+                for (Object item : (List<Object>) value) {
+                    copy.add(copyOf(item));
+                }
+                return copy;
+            }
+            return value;
+        }
+    }
+}
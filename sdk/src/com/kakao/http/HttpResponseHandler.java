@@ -19,6 +19,7 @@
 package com.kakao.http;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 
 import com.kakao.APIErrorResult;
@@ -32,17 +33,37 @@ import com.kakao.APIErrorResult;
  */
 public abstract class HttpResponseHandler<T> extends Handler {
 
+    public HttpResponseHandler() {
+        super();
+    }
+
+    /**
+     * @param looper 결과를 전달 받을 thread의 looper. looper가 없는 thread에서 요청하는 경우에 사용한다.
+     */
+    public HttpResponseHandler(final Looper looper) {
+        super(looper);
+    }
+
     @Override
     public void handleMessage(Message msg) {
+        Object result = msg.obj;
+        if (result instanceof KakaoAsyncHandler.Delivery) {
+            final KakaoAsyncHandler.Delivery delivery = (KakaoAsyncHandler.Delivery) result;
+            // 결과가 전달되기 전에 취소된 요청은 callback을 부르지 않는다.
+            if (delivery.isCancelled()) {
+                return;
+            }
+            result = delivery.getResult();
+        }
         switch (msg.what) {
             case HttpRequestTask.SUCCESS:
-                onHttpSuccess((T) msg.obj);
+                onHttpSuccess((T) result);
                 break;
             case HttpRequestTask.ERROR:
-                onHttpFailure((APIErrorResult) msg.obj);
+                onHttpFailure((APIErrorResult) result);
                 break;
             case HttpRequestTask.NEED_TO_LOGIN:
-                onHttpSessionClosedFailure((APIErrorResult) msg.obj);
+                onHttpSessionClosedFailure((APIErrorResult) result);
                 break;
         }
     }
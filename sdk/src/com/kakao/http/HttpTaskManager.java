@@ -33,6 +33,9 @@ public class HttpTaskManager {
     private static final int DEFAULT_CORE_POOL_SIZE = 0;
     private static final int DEFAULT_MAXIMUM_POOL_SIZE = Integer.MAX_VALUE;
     private static final long DEFAULT_KEEP_ALIVE = 60L;
+    private static final int DEFAULT_BOUNDED_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_URGENT_LANE_CAP = 2;
+    private static final int DEFAULT_BACKGROUND_LANE_CAP = 1;
     private static final BlockingQueue<Runnable> DEFAULT_WORK_QUEUE = new SynchronousQueue<Runnable>();
 
     private static final ThreadFactory DEFAULT_THREAD_FACTORY = new ThreadFactory() {
@@ -45,7 +48,7 @@ public class HttpTaskManager {
     private static final ExecutorService defaultExecutor = new ThreadPoolExecutor(DEFAULT_CORE_POOL_SIZE, DEFAULT_MAXIMUM_POOL_SIZE,
         DEFAULT_KEEP_ALIVE, TimeUnit.SECONDS, DEFAULT_WORK_QUEUE, DEFAULT_THREAD_FACTORY);
 
-    private static ExecutorService httpExecutor = defaultExecutor;
+    private static volatile ExecutorService httpExecutor = defaultExecutor;
 
     public static ExecutorService getHttpExecutor() {
         return httpExecutor;
@@ -56,7 +59,86 @@ public class HttpTaskManager {
         HttpTaskManager.httpExecutor = httpExecutor;
     }
 
-    public static void execute(HttpRequestTask httpRequest){
+    /**
+     * 동시 수행 thread 수와 대기 queue 크기가 제한된 executor를 만든다.
+     * 만든 executor는 {@link #setHttpExecutor(ExecutorService)}로 등록하거나 {@link #useBoundedExecutor(int, int, BoundedHttpExecutor.SaturationPolicy)}를 이용한다.
+     * @param maxConcurrency 동시에 수행할 수 있는 최대 thread 수
+     * @param queueCapacity thread가 모두 사용 중일 때 대기할 수 있는 최대 요청 수
+     * @param saturationPolicy queue까지 가득 찼을 때의 처리 방법
+     * @return 제한된 executor
+     */
+    public static BoundedHttpExecutor newBoundedExecutor(final int maxConcurrency, final int queueCapacity, final BoundedHttpExecutor.SaturationPolicy saturationPolicy) {
+        return new BoundedHttpExecutor(maxConcurrency, queueCapacity, DEFAULT_KEEP_ALIVE, saturationPolicy, DEFAULT_THREAD_FACTORY);
+    }
+
+    public static BoundedHttpExecutor newBoundedExecutor(final int maxConcurrency) {
+        return newBoundedExecutor(maxConcurrency, DEFAULT_BOUNDED_QUEUE_CAPACITY, BoundedHttpExecutor.SaturationPolicy.REJECT);
+    }
+
+    // default configuration 대신 제한된 executor를 쓰고 싶으면 HttpTaskManager를 처음 사용하기 전에 호출해 준다.
+    public static BoundedHttpExecutor useBoundedExecutor(final int maxConcurrency, final int queueCapacity, final BoundedHttpExecutor.SaturationPolicy saturationPolicy) {
+        final BoundedHttpExecutor executor = newBoundedExecutor(maxConcurrency, queueCapacity, saturationPolicy);
+        setHttpExecutor(executor);
+        return executor;
+    }
+
+    /**
+     * 우선순위별 lane으로 요청을 수행하는 executor를 만든다.
+     * 만든 executor는 {@link #setHttpExecutor(ExecutorService)}로 등록하거나 {@link #usePriorityLaneExecutor(int, int)}를 이용한다.
+     * @param maxConcurrency {@link RequestPriority#URGENT}를 제외한 요청을 동시에 수행할 수 있는 최대 thread 수. {@link RequestPriority#INTERACTIVE} lane의 제한이기도 하다.
+     * @param backgroundCap {@link RequestPriority#BACKGROUND} 요청을 동시에 수행할 수 있는 최대 thread 수
+     * @return 우선순위별 lane으로 나뉜 executor
+     */
+    public static PriorityLaneExecutor newPriorityLaneExecutor(final int maxConcurrency, final int backgroundCap) {
+        return new PriorityLaneExecutor(DEFAULT_URGENT_LANE_CAP, maxConcurrency, backgroundCap, maxConcurrency,
+            PriorityLaneExecutor.DEFAULT_STARVATION_THRESHOLD_IN_MS, DEFAULT_KEEP_ALIVE, DEFAULT_THREAD_FACTORY);
+    }
+
+    public static PriorityLaneExecutor newPriorityLaneExecutor(final int maxConcurrency) {
+        return newPriorityLaneExecutor(maxConcurrency, DEFAULT_BACKGROUND_LANE_CAP);
+    }
+
+    // default configuration 대신 우선순위별 lane executor를 쓰고 싶으면 HttpTaskManager를 처음 사용하기 전에 호출해 준다.
+    public static PriorityLaneExecutor usePriorityLaneExecutor(final int maxConcurrency, final int backgroundCap) {
+        final PriorityLaneExecutor executor = newPriorityLaneExecutor(maxConcurrency, backgroundCap);
+        setHttpExecutor(executor);
+        return executor;
+    }
+
+    /**
+     * @return 현재 executor의 queue에서 대기 중인 요청 수. 제한된 executor가 아니면 0.
+     */
+    public static int getQueueDepth() {
+        if (httpExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) httpExecutor).getQueue().size();
+        } else if (httpExecutor instanceof PriorityLaneExecutor) {
+            return ((PriorityLaneExecutor) httpExecutor).getQueueDepth();
+        }
+        return 0;
+    }
+
+    /**
+     * @return queue가 가득 차서 실패 처리된 요청의 누적 수. 제한된 executor가 아니면 0.
+     */
+    public static long getRejectedCount() {
+        if (httpExecutor instanceof BoundedHttpExecutor) {
+            return ((BoundedHttpExecutor) httpExecutor).getRejectedCount();
+        }
+        return 0;
+    }
+
+    public static void execute(HttpRequestTask<?> httpRequest){
         httpExecutor.execute(httpRequest);
     }
+
+    /**
+     * 취소된 요청이 executor queue에서 기다리고 있으면 꺼낸다.
+     */
+    static void remove(HttpRequestTask<?> httpRequest) {
+        if (httpExecutor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) httpExecutor).remove(httpRequest);
+        } else if (httpExecutor instanceof PriorityLaneExecutor) {
+            ((PriorityLaneExecutor) httpExecutor).remove(httpRequest);
+        }
+    }
 }
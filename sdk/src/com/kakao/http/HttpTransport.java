@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link AsyncHttpClient}가 요청을 보내고 response를 받는 방법.
+ * 재시도, cache, hedge 등은 {@link AsyncHttpClient}가 담당하고 transport는 한번의 요청과 응답만 처리한다.
+ * <ul>
+ *     <li>{@link UrlConnectionTransport} : {@link java.net.HttpURLConnection}으로 요청마다 executor thread 하나를 쓴다. 기본값</li>
+ *     <li>{@link NioHttpTransport} : selector 기반의 non-blocking I/O로 적은 수의 I/O thread에서 여러 요청을 처리한다.</li>
+ * </ul>
+ * {@link AsyncHttpClient#setTransport(HttpTransport)}로 등록한다.
+ * @author kkung
+ */
+public interface HttpTransport {
+
+    /**
+     * 보낼 요청을 만든다. {@link Call#enqueue(Callback)}를 호출하기 전에는 요청을 보내지 않는다.
+     * @param request 보낼 요청. url, method, payload를 사용한다.
+     * @param headers 요청에 실을 header. request의 header에 cache 검증 header 등을 더한 것이다.
+     * @param connectTimeoutInMs 연결 timeout
+     * @param readTimeoutInMs 응답을 기다리는 timeout. 마지막으로 데이터를 받은 후부터 잰다.
+     * @param connectionPool connection 재사용 설정. null이면 요청마다 connection을 끊는다.
+     */
+    Call newCall(Request request, Map<String, String> headers, int connectTimeoutInMs, int readTimeoutInMs,
+                 KeepAliveConnectionPool connectionPool);
+
+    /**
+     * 한번의 요청과 응답
+     */
+    interface Call {
+        /**
+         * 요청을 보낸다. {@link Callback}의 method 중 하나가 한번 불린다.
+         * 호출한 thread에서 응답을 모두 받은 후에 돌아오는 transport도 있고, 바로 돌아와서 I/O thread에서 callback을 부르는 transport도 있다.
+         */
+        void enqueue(Callback callback);
+
+        /**
+         * 진행 중인 요청을 중단한다. 어느 thread에서나 호출할 수 있고 callback에는 {@link IOException}이 전달된다.
+         */
+        void cancel();
+    }
+
+    interface Callback {
+        /**
+         * @param response body를 모두 읽은 response. 다 사용한 후에 {@link Response#release()}로 buffer를 반납해야 한다.
+         */
+        void onResponse(Response response);
+
+        void onFailure(IOException e);
+    }
+}
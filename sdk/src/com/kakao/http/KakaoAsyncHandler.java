@@ -21,6 +21,7 @@ package com.kakao.http;
 import android.os.Message;
 
 import com.kakao.APIErrorResult;
+import com.kakao.ErrorCode;
 import com.kakao.KakaoStoryProfile;
 import com.kakao.KakaoStoryUpload;
 import com.kakao.KakaoTalkProfile;
@@ -29,6 +30,7 @@ import com.kakao.helper.JsonHelper;
 
 import org.apache.http.HttpStatus;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
@@ -37,6 +39,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * response를 받아 response에 따라 사용자가 등록한 HttpResponseHandler<T>을 불러주는 역할을 담당한다.
@@ -44,17 +47,73 @@ import java.util.Map;
 * @author MJ
 */
 public abstract class KakaoAsyncHandler<T> {
+    private static volatile boolean streamingParserEnabled = false;
+
     protected final HttpResponseHandler<T> httpResponseHandler;
     protected final Request request;
     protected final Class<T> returnType;
 
+    // 같은 요청을 합쳐서 수행하는 경우 결과를 함께 받을 handler 목록을 가진 client와 그 key
+    private volatile AsyncHttpClient coalescingClient;
+    private volatile String coalescingKey;
+    // 다른 요청에 합쳐진 경우 그 요청을 가진 client와 key
+    private volatile AsyncHttpClient attachedClient;
+    private volatile String attachedKey;
+    // 결과를 받은 요청이 몇번째 시도였는지. {@link APIErrorResult}에 기록한다.
+    private volatile int attemptCount;
+
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    // 취소되어 요청을 더 이상 진행하지 않는 경우 true. 합쳐진 요청이 결과를 기다리면 취소되어도 요청은 계속한다.
+    private volatile boolean aborted;
+    // 취소할 때 중단할 진행 중인 요청과 executor queue에서 기다리는 작업. hedge한 경우 진행 중인 요청이 둘일 수 있다.
+    private final List<HttpTransport.Call> calls = new CopyOnWriteArrayList<HttpTransport.Call>();
+    private volatile AsyncHttpClient queuedClient;
+    private volatile Runnable queuedRunnable;
+    // handler의 message queue에서 기다리는 결과. 취소하면 queue에서 꺼낸다.
+    private volatile Delivery pendingDelivery;
+
     public KakaoAsyncHandler(final Request request, final HttpResponseHandler<T> httpResponseHandler, final Class<T> returnType) {
         this.request = request;
         this.httpResponseHandler = httpResponseHandler;
         this.returnType = returnType;
     }
 
+    /**
+     * 결과 객체를 {@link StreamingResultParser}로 바로 만들지, JSONObject를 거쳐 만들지 설정한다. 기본값은 false.
+     * 사용자 정보, 프로필처럼 작은 body는 reader를 만드는 비용 때문에 JSONObject를 거치는 쪽이 빠르고 할당도 적다.
+     * body가 큰 Map, List 결과를 주로 받는 경우에만 켠다.
+     * @param enabled true이면 response body stream에서 바로 결과 객체를 만든다.
+     */
+    public static void setStreamingParserEnabled(final boolean enabled) {
+        streamingParserEnabled = enabled;
+    }
+
+    public static boolean isStreamingParserEnabled() {
+        return streamingParserEnabled;
+    }
+
     public Void onCompleted(final Response response) throws Exception {
+        return onCompleted(response, null);
+    }
+
+    /**
+     * {@link HttpResponseCache}에 보관된 응답으로 결과를 전달한다. parsing한 결과가 보관되어 있으면 body를 다시 parsing하지 않는다.
+     */
+    void onCachedResponse(final HttpResponseCache.Entry cacheEntry, final URI requestUri) throws Exception {
+        final Object cachedResult = cacheEntry.getResult(returnType);
+        if (cachedResult != null) {
+            sendResult(HttpRequestTask.SUCCESS, cachedResult);
+            return;
+        }
+        final byte[] body = cacheEntry.getBody();
+        onCompleted(new Response(requestUri, HttpStatus.SC_OK, "OK", null, body, body.length, cacheEntry.getCharset(), null), cacheEntry);
+    }
+
+    /**
+     * @param cacheEntry 응답을 보관할 entry. null이 아니면 parsing한 결과도 함께 보관한다.
+     */
+    Void onCompleted(final Response response, final HttpResponseCache.Entry cacheEntry) throws Exception {
         final URI requestUri = response.getUri();
         try {
             if (!response.hasResponseStatus()) {
@@ -67,53 +126,19 @@ public abstract class KakaoAsyncHandler<T> {
                 return handleFailureHttpStatus(response, requestUri, httpStatusCode);
             } else {
                 if(returnType.equals(Void.class)){
-                    httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, HttpRequestTask.SUCCESS, 0, 0));
+                    sendResult(HttpRequestTask.SUCCESS, null);
                 } else {
                     Object result = null;
                     if (checkResponseBody(response)) return null;
-                    if (APIErrorResult.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-                        result = new APIErrorResult(
-                                json.getInt("code"),
-                                json.getString("msg")
-                        );
-                    } else if (User.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-                        result = new User(json.getLong("id"));
-                    } else if (KakaoTalkProfile.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-                        result = new KakaoTalkProfile(
-                                json.getString("nickName"),
-                                json.getString("profileImageURL"),
-                                json.getString("thumbnailURL"),
-                                json.getString("countryISO")
-                        );
-                    } else if (KakaoStoryUpload.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-                        result = new KakaoStoryUpload(
-                                json.getString("url")
-                        );
-                    } else if (KakaoStoryProfile.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-
-                        result = new KakaoStoryProfile(
-                                json.getString("nickName"),
-                                json.getString("profileImageURL"),
-                                json.getString("thumbnailURL"),
-                                json.getString("bgImageURL"),
-                                json.getString("birthday"),
-                                "+".equals(json.getString("birthdayType")) ? KakaoStoryProfile.BirthdayType.SOLAR : KakaoStoryProfile.BirthdayType.LUNAR
-                        );
-                    } else if (Map.class.equals(returnType)) {
-                        JSONObject json = new JSONObject(response.getResponseBody());
-                        result = JsonHelper.MapFromJson(json);
-                    } else if (List.class.equals(returnType)) {
-                        JSONArray json = new JSONArray(response.getResponseBody());
-                        result = JsonHelper.ListFromJson(json);
+                    if (streamingParserEnabled) {
+                        result = StreamingResultParser.parse(response.getResponseBodyAsReader(), returnType);
                     } else {
-                        throw new IllegalStateException("unknown result type " + returnType);
+                        result = parseWithJSONObject(response.getResponseBody(), returnType);
+                    }
+                    if (cacheEntry != null) {
+                        cacheEntry.setResult(returnType, result);
                     }
-                    httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, HttpRequestTask.SUCCESS, 0, 0, result));
+                    sendResult(HttpRequestTask.SUCCESS, result);
                 }
                 return null;
             }
@@ -123,14 +148,259 @@ public abstract class KakaoAsyncHandler<T> {
         }
     }
 
+    /**
+     * body 전체로 {@link JSONObject}를 만든 후 결과 객체를 만든다. {@link #setStreamingParserEnabled(boolean)}로 streaming parser를 끈 경우에 사용한다.
+     * @param body response body
+     * @param returnType 만들 결과 객체의 type
+     * @return returnType의 결과 객체
+     */
+    static Object parseWithJSONObject(final String body, final Class<?> returnType) throws JSONException {
+        if (APIErrorResult.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+            return new APIErrorResult(
+                    json.getInt("code"),
+                    json.getString("msg")
+            );
+        } else if (User.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+            return new User(json.getLong("id"));
+        } else if (KakaoTalkProfile.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+            return new KakaoTalkProfile(
+                    json.getString("nickName"),
+                    json.getString("profileImageURL"),
+                    json.getString("thumbnailURL"),
+                    json.getString("countryISO")
+            );
+        } else if (KakaoStoryUpload.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+            return new KakaoStoryUpload(
+                    json.getString("url")
+            );
+        } else if (KakaoStoryProfile.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+
+            return new KakaoStoryProfile(
+                    json.getString("nickName"),
+                    json.getString("profileImageURL"),
+                    json.getString("thumbnailURL"),
+                    json.getString("bgImageURL"),
+                    json.getString("birthday"),
+                    "+".equals(json.getString("birthdayType")) ? KakaoStoryProfile.BirthdayType.SOLAR : KakaoStoryProfile.BirthdayType.LUNAR
+            );
+        } else if (Map.class.equals(returnType)) {
+            JSONObject json = new JSONObject(body);
+            return JsonHelper.MapFromJson(json);
+        } else if (List.class.equals(returnType)) {
+            JSONArray json = new JSONArray(body);
+            return JsonHelper.ListFromJson(json);
+        } else {
+            throw new IllegalStateException("unknown result type " + returnType);
+        }
+    }
+
     public void onThrowable(final Throwable t) {
-        httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, HttpRequestTask.ERROR, 0, 0,
-            new APIErrorResult(request.getUrl(), "error occurred during http request. t= "+ t.toString())));
+        if (t instanceof CircuitBreakerOpenException) {
+            final APIErrorResult error = new APIErrorResult(ErrorCode.CIRCUIT_OPEN_CODE.getErrorCode(), t.getMessage());
+            error.setRequestURL(request.getUrl());
+            sendResult(HttpRequestTask.ERROR, error);
+            return;
+        }
+        if (t instanceof RateLimitExceededException) {
+            final APIErrorResult error = new APIErrorResult(ErrorCode.EXCEED_LIMIT_CODE.getErrorCode(), t.getMessage());
+            error.setRequestURL(request.getUrl());
+            sendResult(HttpRequestTask.ERROR, error);
+            return;
+        }
+        sendResult(HttpRequestTask.ERROR,
+            new APIErrorResult(request.getUrl(), "error occurred during http request. t= "+ t.toString()));
+    }
+
+    /**
+     * 요청의 deadline이 지나 더 이상 진행하지 않고 {@link ErrorCode#DEADLINE_EXCEEDED_CODE}로 실패를 알린다.
+     * @param msg deadline이 지난 시점에 대한 설명
+     */
+    public void onDeadlineExceeded(final String msg) {
+        final APIErrorResult error = new APIErrorResult(ErrorCode.DEADLINE_EXCEEDED_CODE.getErrorCode(), "deadline exceeded " + msg);
+        error.setRequestURL(request.getUrl());
+        sendResult(HttpRequestTask.ERROR, error);
     }
 
     protected void sendError(final Response response, final String msg) {
-        httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, HttpRequestTask.ERROR, 0, 0,
-            new APIErrorResult(request.getUrl(), "http status =  "+ response.getStatusText() + " msg = " + msg)));
+        sendResult(HttpRequestTask.ERROR,
+            new APIErrorResult(request.getUrl(), "http status =  "+ response.getStatusText() + " msg = " + msg));
+    }
+
+    /**
+     * 요청의 최종 결과를 handler에 전달한다. 같은 요청이 합쳐져 있으면 기다리던 handler들에게도 같은 결과를 전달한다.
+     * @param what {@link HttpRequestTask#SUCCESS}, {@link HttpRequestTask#ERROR}, {@link HttpRequestTask#NEED_TO_LOGIN} 중 하나
+     * @param result handler에 전달할 결과 객체
+     */
+    protected void sendResult(final int what, final Object result) {
+        completed = true;
+        if (result instanceof APIErrorResult && attemptCount > 0) {
+            ((APIErrorResult) result).setAttemptCount(attemptCount);
+        }
+        final List<KakaoAsyncHandler<?>> coalescedHandlers = completeCoalescing();
+        if (coalescedHandlers != null) {
+            // 결과 객체를 handler가 고칠 수 있으므로 Map, List는 handler마다 복사해서 전달한다.
+            for (KakaoAsyncHandler<?> handler : coalescedHandlers) {
+                handler.deliver(what, HttpResponseCache.Entry.copyOf(result));
+            }
+        }
+        deliver(what, result);
+    }
+
+    private void deliver(final int what, final Object result) {
+        if (cancelled) {
+            return;
+        }
+        // 결과가 handler의 thread에 전달되기 전에 취소될 수 있으므로 HttpResponseHandler가 callback을 부르기 직전에 다시 확인한다.
+        final Delivery delivery = new Delivery(this, result);
+        pendingDelivery = delivery;
+        httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, what, 0, 0, delivery));
+    }
+
+    /**
+     * 요청의 결과보다 먼저 handler의 thread에서 수행할 작업을 보낸다. 결과와 같이 요청이 취소되면 queue에서 꺼내고, 수행하기 직전에 다시 확인한다.
+     * @param runnable handler의 thread에서 수행할 작업
+     */
+    void deliverBeforeResult(final Runnable runnable) {
+        if (cancelled) {
+            return;
+        }
+        final Delivery delivery = new Delivery(this, runnable);
+        pendingDelivery = delivery;
+        final Message message = Message.obtain(httpResponseHandler, new Runnable() {
+            @Override
+            public void run() {
+                if (!delivery.isCancelled()) {
+                    runnable.run();
+                }
+            }
+        });
+        message.obj = delivery;
+        httpResponseHandler.sendMessage(message);
+    }
+
+    /**
+     * 요청을 취소한다. executor queue에서 기다리는 작업을 꺼내고 진행 중인 connection을 끊으며, 이후의 결과는 handler에 전달하지 않는다.
+     * 같은 요청에 합쳐진 다른 요청이 결과를 기다리고 있으면 요청은 계속하고 이 handler에만 결과를 전달하지 않는다.
+     * @return 이번 호출로 취소되었으면 true. 이미 취소된 경우 false
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+        }
+        final Delivery delivery = pendingDelivery;
+        if (delivery != null) {
+            httpResponseHandler.removeCallbacksAndMessages(delivery);
+        }
+
+        final AsyncHttpClient attached = attachedClient;
+        if (attached != null) {
+            attached.detachFromInFlightRequest(attachedKey, this);
+        }
+        final AsyncHttpClient leading = coalescingClient;
+        if (leading != null && !leading.abandonInFlightRequest(coalescingKey, this)) {
+            return true;
+        }
+
+        aborted = true;
+        final AsyncHttpClient client = queuedClient;
+        final Runnable runnable = queuedRunnable;
+        if (client != null && runnable != null) {
+            client.removeFromQueue(runnable);
+        }
+        for (HttpTransport.Call call : calls) {
+            call.cancel();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return 결과를 handler에 전달했으면 true
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return connection을 열고 요청을 보내거나 response를 받는 중이면 true
+     */
+    boolean isInFlight() {
+        return !calls.isEmpty();
+    }
+
+    /**
+     * @return 취소되어 요청을 더 이상 진행하지 않아야 하면 true
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    void onQueued(final AsyncHttpClient client, final Runnable runnable) {
+        this.queuedClient = client;
+        this.queuedRunnable = runnable;
+    }
+
+    void addCall(final HttpTransport.Call call) {
+        calls.add(call);
+        // 요청을 등록하는 사이에 취소된 경우
+        if (aborted) {
+            call.cancel();
+        }
+    }
+
+    void removeCall(final HttpTransport.Call call) {
+        calls.remove(call);
+    }
+
+    /**
+     * 이 handler가 key에 해당하는 수행 중인 요청에 합쳐졌음을 기록한다.
+     */
+    void attachTo(final AsyncHttpClient client, final String key) {
+        this.attachedKey = key;
+        this.attachedClient = client;
+    }
+
+    void setAttemptCount(final int attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
+    /**
+     * @return 결과를 받은 요청의 시도 횟수. 아직 요청하지 않았으면 0
+     */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /**
+     * 이 handler가 key에 해당하는 요청을 대표해서 수행함을 기록한다.
+     */
+    void startCoalescing(final AsyncHttpClient client, final String key) {
+        this.coalescingKey = key;
+        this.coalescingClient = client;
+    }
+
+    boolean isCoalescing() {
+        return coalescingClient != null;
+    }
+
+    private List<KakaoAsyncHandler<?>> completeCoalescing() {
+        final AsyncHttpClient client = coalescingClient;
+        if (client == null) {
+            return null;
+        }
+        coalescingClient = null;
+        return client.completeInFlightRequest(coalescingKey, this);
     }
 
     protected boolean checkResponseBody(final Response response) {
@@ -141,5 +411,26 @@ public abstract class KakaoAsyncHandler<T> {
         return false;
     }
 
+    /**
+     * handler에 전달하는 결과. {@link HttpResponseHandler}는 취소된 요청의 결과이면 callback을 부르지 않는다.
+     */
+    static final class Delivery {
+        private final KakaoAsyncHandler<?> asyncHandler;
+        private final Object result;
+
+        Delivery(final KakaoAsyncHandler<?> asyncHandler, final Object result) {
+            this.asyncHandler = asyncHandler;
+            this.result = result;
+        }
+
+        boolean isCancelled() {
+            return asyncHandler.isCancelled();
+        }
+
+        Object getResult() {
+            return result;
+        }
+    }
+
     protected abstract Void handleFailureHttpStatus(Response response, URI requestUri, int httpStatusCode) throws IOException;
 }
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 요청이 끝난 connection을 끊지 않고 재사용하기 위한 설정.
+ * {@link AsyncHttpClient#setConnectionPool(KeepAliveConnectionPool)}로 등록하면 response를 끝까지 읽은 요청은 disconnect하지 않는다.
+ * <ul>
+ *     <li>{@link UrlConnectionTransport} : socket은 platform의 {@link java.net.HttpURLConnection} pool이 관리한다.
+ *     platform의 설정은 앱 전체에 적용되므로 바꾸지 않으며, 보관할 connection 수와 보관 시간, 통계는 적용되지 않는다.</li>
+ *     <li>{@link NioHttpTransport} : transport의 I/O thread가 authority별로 idle connection을 이 설정만큼 보관하고 만료시키며 통계를 남긴다.</li>
+ * </ul>
+ * @author kkung
+ */
+public class KeepAliveConnectionPool {
+    public static final int DEFAULT_MAX_IDLE_PER_AUTHORITY = 2;
+    public static final long DEFAULT_KEEP_ALIVE_IN_MS = 60 * 1000L;
+
+    private final int maxIdlePerAuthority;
+    private final long keepAliveInMs;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public KeepAliveConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_AUTHORITY, DEFAULT_KEEP_ALIVE_IN_MS);
+    }
+
+    /**
+     * @param maxIdlePerAuthority {@link NioHttpTransport}의 I/O thread 하나가 authority(host:port)별로 보관할 idle connection의 최대 수
+     * @param keepAliveInMs idle connection을 보관할 시간
+     */
+    public KeepAliveConnectionPool(final int maxIdlePerAuthority, final long keepAliveInMs) {
+        if (maxIdlePerAuthority < 1) {
+            throw new IllegalArgumentException("maxIdlePerAuthority < 1");
+        }
+        if (keepAliveInMs <= 0) {
+            throw new IllegalArgumentException("keepAliveInMs <= 0");
+        }
+        this.maxIdlePerAuthority = maxIdlePerAuthority;
+        this.keepAliveInMs = keepAliveInMs;
+    }
+
+    public int getMaxIdlePerAuthority() {
+        return maxIdlePerAuthority;
+    }
+
+    public long getKeepAliveInMs() {
+        return keepAliveInMs;
+    }
+
+    /**
+     * @return idle connection을 재사용한 요청 수. {@link UrlConnectionTransport}는 platform이 재사용하므로 세지 않는다.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return 재사용할 connection이 없어 새로 연결한 요청 수. {@link UrlConnectionTransport}는 세지 않는다.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return idle 시간이 지났거나, 상대가 끊었거나, 보관할 수 있는 수를 넘어 닫은 idle connection 수. {@link UrlConnectionTransport}는 세지 않는다.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordEviction() {
+        evictionCount.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "KeepAliveConnectionPool{maxIdlePerAuthority=" + maxIdlePerAuthority + ", keepAliveInMs=" + keepAliveInMs
+            + ", hit=" + hitCount.get() + ", miss=" + missCount.get() + ", eviction=" + evictionCount.get() + '}';
+    }
+}
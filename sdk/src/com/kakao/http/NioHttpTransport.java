@@ -0,0 +1,1125 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.apache.http.HttpEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * selector 기반의 non-blocking I/O로 요청을 보내는 transport.
+ * 연결, TLS handshake({@link SSLEngine}), 요청 전송, 응답 수신을 모두 적은 수의 I/O thread에서 처리하므로 동시에 진행 중인 요청 수만큼 thread가 필요하지 않다.
+ * {@link Call#enqueue(Callback)}는 요청을 I/O thread에 넘기고 바로 돌아오며, callback은 I/O thread에서 불린다.
+ * <ul>
+ *     <li>HTTP/1.1만 지원하고 redirect는 따라가지 않는다.</li>
+ *     <li>요청 body는 보내기 전에 memory에 모두 만든다.</li>
+ *     <li>host 이름은 enqueue를 호출한 thread에서 찾는다.</li>
+ * </ul>
+ * @author kkung
+ */
+public class NioHttpTransport implements HttpTransport {
+    public static final int DEFAULT_IO_THREAD_COUNT = 1;
+
+    private static final int DEFAULT_BUFFER_SIZE = 2048;
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+    // 응답 header의 최대 크기
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    // 처리할 timeout이 없을 때 select에서 기다리는 최대 시간
+    private static final long MAX_SELECT_TIMEOUT_IN_MS = 1000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ByteArrayPool BUFFER_POOL = ByteArrayPool.getDefault();
+
+    private final SSLContext sslContext;
+    private final HostnameVerifier hostnameVerifier;
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+
+    public NioHttpTransport() throws IOException {
+        this(DEFAULT_IO_THREAD_COUNT, defaultSslContext(), HttpsURLConnection.getDefaultHostnameVerifier());
+    }
+
+    /**
+     * @param ioThreadCount 요청을 처리할 I/O thread 수
+     * @param sslContext https 요청의 {@link SSLEngine}을 만들 context
+     * @param hostnameVerifier handshake 후에 인증서가 요청한 host의 것인지 확인한다.
+     */
+    public NioHttpTransport(final int ioThreadCount, final SSLContext sslContext, final HostnameVerifier hostnameVerifier) throws IOException {
+        if (ioThreadCount < 1) {
+            throw new IllegalArgumentException("ioThreadCount < 1");
+        }
+        if (sslContext == null || hostnameVerifier == null) {
+            throw new IllegalArgumentException("sslContext and hostnameVerifier should not be null.");
+        }
+        this.sslContext = sslContext;
+        this.hostnameVerifier = hostnameVerifier;
+        this.loops = new IoLoop[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            loops[i] = new IoLoop("KakaoHttpIo-" + i);
+        }
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    private static SSLContext defaultSslContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    @Override
+    public Call newCall(final Request request, final Map<String, String> headers, final int connectTimeoutInMs, final int readTimeoutInMs,
+                        final KeepAliveConnectionPool connectionPool) {
+        return new NioCall(request, headers, connectTimeoutInMs, readTimeoutInMs, connectionPool);
+    }
+
+    /**
+     * I/O thread를 멈춘다. 진행 중인 요청은 실패 처리하고 idle connection은 닫는다.
+     */
+    public void shutdown() {
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * @return 모든 I/O thread에서 진행 중인 요청 수
+     */
+    public int getActiveCallCount() {
+        int count = 0;
+        for (IoLoop loop : loops) {
+            count += loop.activeCount;
+        }
+        return count;
+    }
+
+    /**
+     * socket과 https인 경우 그 위의 {@link SSLEngine}. 요청이 끝난 후 재사용할 수 있다.
+     */
+    private static class Connection {
+        private final String key;
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        // TLS record를 받는 buffer(쓰기 상태)와 보낼 TLS record를 담은 buffer(읽기 상태)
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        // 받은 평문을 담는 buffer(쓰기 상태)
+        private ByteBuffer appIn;
+        private SelectionKey selectionKey;
+        private long idleSince;
+
+        private Connection(final String key, final SocketChannel channel, final SSLEngine engine) {
+            this.key = key;
+            this.channel = channel;
+            this.engine = engine;
+            if (engine != null) {
+                netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                netOut.flip();
+                appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            } else {
+                appIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+            }
+        }
+
+        private void close() {
+            if (selectionKey != null) {
+                selectionKey.cancel();
+            }
+            if (engine != null) {
+                engine.closeOutbound();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        /**
+         * 보낼 TLS record를 socket에 쓴다.
+         * @return 모두 썼으면 true
+         */
+        private boolean flushNetOut() throws IOException {
+            while (netOut.hasRemaining()) {
+                if (channel.write(netOut) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * src를 암호화해서 socket에 쓴다. https가 아니면 그대로 쓴다.
+         * @return src를 모두 썼으면 true. 아니면 socket에 쓸 수 있을 때 다시 호출해야 한다.
+         */
+        private boolean write(final ByteBuffer src) throws IOException {
+            if (engine == null) {
+                while (src.hasRemaining()) {
+                    if (channel.write(src) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            while (true) {
+                if (!flushNetOut()) {
+                    return false;
+                }
+                if (!src.hasRemaining()) {
+                    return true;
+                }
+                wrap(src);
+            }
+        }
+
+        private void wrap(final ByteBuffer src) throws IOException {
+            netOut.clear();
+            final SSLEngineResult result = engine.wrap(src, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("SSLEngine closed during wrap");
+            }
+            runDelegatedTasks();
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        /**
+         * TLS handshake를 진행한다.
+         * @return handshake가 끝났으면 true. 아니면 selectionKey에 기다릴 event를 설정하고 false
+         */
+        private boolean handshake() throws IOException {
+            while (true) {
+                if (!flushNetOut()) {
+                    selectionKey.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_WRAP:
+                        wrap(EMPTY);
+                        break;
+                    case NEED_UNWRAP:
+                        netIn.flip();
+                        final SSLEngineResult result = engine.unwrap(netIn, appIn);
+                        netIn.compact();
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            netIn = ensureRemaining(netIn, engine.getSession().getPacketBufferSize());
+                            final int read = channel.read(netIn);
+                            if (read < 0) {
+                                throw new EOFException("connection closed during TLS handshake");
+                            }
+                            if (read == 0) {
+                                selectionKey.interestOps(SelectionKey.OP_READ);
+                                return false;
+                            }
+                        } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            appIn = ensureRemaining(appIn, engine.getSession().getApplicationBufferSize());
+                        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("SSLEngine closed during handshake");
+                        }
+                        break;
+                    case NEED_TASK:
+                        runDelegatedTasks();
+                        break;
+                    default:
+                        return true;
+                }
+            }
+        }
+
+        /**
+         * socket에서 읽어 평문을 appIn에 담는다.
+         * @return 상대가 연결을 끊었으면 -1, 아니면 읽은 byte 수
+         */
+        private int read() throws IOException {
+            if (engine == null) {
+                return channel.read(appIn);
+            }
+            netIn = ensureRemaining(netIn, engine.getSession().getPacketBufferSize());
+            final int read = channel.read(netIn);
+            netIn.flip();
+            boolean closed = read < 0;
+            try {
+                while (netIn.hasRemaining()) {
+                    final SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        break;
+                    } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        appIn = ensureRemaining(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        closed = true;
+                        break;
+                    }
+                    // TLS 1.3의 session ticket 등 handshake 이후에 오는 message를 처리한다.
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                    }
+                    if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        wrap(EMPTY);
+                        flushNetOut();
+                    }
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        break;
+                    }
+                }
+            } finally {
+                netIn.compact();
+            }
+            return closed && appIn.position() == 0 ? -1 : Math.max(0, read);
+        }
+
+        private static ByteBuffer ensureRemaining(final ByteBuffer buffer, final int remaining) {
+            if (buffer.remaining() >= remaining) {
+                return buffer;
+            }
+            final ByteBuffer newBuffer = ByteBuffer.allocate(buffer.position() + remaining);
+            buffer.flip();
+            newBuffer.put(buffer);
+            return newBuffer;
+        }
+    }
+
+    private class NioCall implements Call, ResponseParser.Listener {
+        private final Request request;
+        private final Map<String, String> headers;
+        private final int connectTimeoutInMs;
+        private final int readTimeoutInMs;
+        private final KeepAliveConnectionPool connectionPool;
+        private volatile boolean cancelled;
+        private volatile IoLoop loop;
+
+        // 아래 값들은 I/O thread에서만 접근한다.
+        private Callback callback;
+        private URL url;
+        private String connectionKey;
+        private String host;
+        private InetSocketAddress address;
+        private boolean secure;
+        private ByteBuffer requestBytes;
+        private Connection connection;
+        private boolean reusedConnection;
+        private boolean handshaking;
+        private boolean writing;
+        private long timeoutAt;
+        private ResponseParser parser;
+        private boolean receivedAny;
+        private boolean finished;
+
+        private NioCall(final Request request, final Map<String, String> headers, final int connectTimeoutInMs, final int readTimeoutInMs,
+                        final KeepAliveConnectionPool connectionPool) {
+            this.request = request;
+            this.headers = headers;
+            this.connectTimeoutInMs = connectTimeoutInMs;
+            this.readTimeoutInMs = readTimeoutInMs;
+            this.connectionPool = connectionPool;
+        }
+
+        @Override
+        public void enqueue(final Callback callback) {
+            this.callback = callback;
+            try {
+                url = new URL(request.getUrl());
+                final String protocol = url.getProtocol().toLowerCase(Locale.US);
+                if (!"http".equals(protocol) && !"https".equals(protocol)) {
+                    throw new IOException("unsupported protocol " + protocol);
+                }
+                secure = "https".equals(protocol);
+                host = url.getHost();
+                final int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+                connectionKey = protocol + "://" + host + ":" + port;
+                requestBytes = encodeRequest();
+                // 이름을 찾는 동안 I/O thread가 멈추지 않도록 여기서 찾는다.
+                address = new InetSocketAddress(host, port);
+                if (address.isUnresolved()) {
+                    throw new UnknownHostException(host);
+                }
+            } catch (IOException e) {
+                finished = true;
+                callback.onFailure(e);
+                return;
+            }
+            final IoLoop selected = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+            loop = selected;
+            selected.submit(this);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final IoLoop current = loop;
+            if (current != null) {
+                current.cancel(this);
+            }
+        }
+
+        private ByteBuffer encodeRequest() throws IOException {
+            final Object payload = request.hasPayload() ? request.getPayload() : null;
+            final Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+            byte[] body = null;
+            if (payload != null) {
+                final ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
+                if (payload instanceof HttpEntity) {
+                    final HttpEntity entity = (HttpEntity) payload;
+                    requestHeaders.put("Content-Type", entity.getContentType().getValue());
+                    entity.writeTo(bodyStream);
+                } else if (payload instanceof Multipart) {
+                    requestHeaders.put("Content-Type", ((Multipart) payload).getContentType());
+                    ((Multipart) payload).writeTo(bodyStream);
+                } else if (payload instanceof byte[]) {
+                    bodyStream.write((byte[]) payload);
+                }
+                body = bodyStream.toByteArray();
+            }
+
+            final StringBuilder head = new StringBuilder();
+            final String file = url.getFile();
+            head.append(request.getMethod()).append(' ').append(file.length() == 0 ? "/" : file).append(" HTTP/1.1\r\n");
+            head.append("Host: ").append(host);
+            if (url.getPort() > 0 && url.getPort() != url.getDefaultPort()) {
+                head.append(':').append(url.getPort());
+            }
+            head.append("\r\n");
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    requestHeaders.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+                head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+            }
+            if (body != null || "POST".equalsIgnoreCase(request.getMethod()) || "PUT".equalsIgnoreCase(request.getMethod())) {
+                head.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n");
+            }
+            head.append("Connection: ").append(connectionPool != null ? "keep-alive" : "close").append("\r\n");
+            head.append("\r\n");
+
+            final byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+            final ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + (body == null ? 0 : body.length));
+            buffer.put(headBytes);
+            if (body != null) {
+                buffer.put(body);
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        // 아래 method들은 I/O thread에서 호출한다.
+
+        private void start(final Selector selector) throws IOException {
+            if (cancelled) {
+                throw new IOException("Canceled");
+            }
+            final Connection idle = loop.takeIdleConnection(connectionKey, connectionPool);
+            if (idle != null) {
+                reusedConnection = true;
+                timeoutAt = System.currentTimeMillis() + readTimeoutInMs;
+                attach(idle);
+                startWriting();
+                return;
+            }
+
+            final SocketChannel channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                final SSLEngine engine;
+                if (secure) {
+                    engine = sslContext.createSSLEngine(host, address.getPort());
+                    engine.setUseClientMode(true);
+                } else {
+                    engine = null;
+                }
+                final Connection newConnection = new Connection(connectionKey, channel, engine);
+                newConnection.selectionKey = channel.register(selector, 0, this);
+                connection = newConnection;
+                timeoutAt = System.currentTimeMillis() + connectTimeoutInMs;
+                if (channel.connect(address)) {
+                    onConnected();
+                } else {
+                    newConnection.selectionKey.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException e) {
+                if (connection == null) {
+                    channel.close();
+                }
+                throw e;
+            }
+        }
+
+        private void attach(final Connection idle) {
+            connection = idle;
+            idle.selectionKey.attach(this);
+            idle.selectionKey.interestOps(0);
+        }
+
+        private void onConnected() throws IOException {
+            connection.channel.finishConnect();
+            timeoutAt = System.currentTimeMillis() + readTimeoutInMs;
+            if (connection.engine != null) {
+                connection.engine.beginHandshake();
+                handshaking = true;
+                continueHandshake();
+            } else {
+                startWriting();
+            }
+        }
+
+        private void continueHandshake() throws IOException {
+            if (!connection.handshake()) {
+                return;
+            }
+            handshaking = false;
+            if (!hostnameVerifier.verify(host, connection.engine.getSession())) {
+                throw new SSLPeerUnverifiedException("hostname " + host + " not verified");
+            }
+            startWriting();
+        }
+
+        private void startWriting() throws IOException {
+            writing = true;
+            parser = new ResponseParser("HEAD".equalsIgnoreCase(request.getMethod()), this);
+            continueWriting();
+        }
+
+        private void continueWriting() throws IOException {
+            if (!connection.write(requestBytes)) {
+                connection.selectionKey.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            writing = false;
+            connection.selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void onReady(final SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                onConnected();
+                return;
+            }
+            timeoutAt = System.currentTimeMillis() + readTimeoutInMs;
+            if (handshaking) {
+                continueHandshake();
+            } else if (writing) {
+                continueWriting();
+            } else if (key.isReadable()) {
+                continueReading();
+            }
+        }
+
+        private void continueReading() throws IOException {
+            while (!finished) {
+                final int read = connection.read();
+                final ByteBuffer appIn = connection.appIn;
+                if (appIn.position() > 0) {
+                    receivedAny = true;
+                    appIn.flip();
+                    parser.feed(appIn);
+                    if (appIn.hasRemaining()) {
+                        // 응답이 끝난 뒤에 데이터가 더 왔으면 connection을 재사용하지 않는다.
+                        parser.setReusable(false);
+                    }
+                    appIn.clear();
+                    if (parser.isDone()) {
+                        return;
+                    }
+                }
+                if (read < 0) {
+                    parser.onEndOfStream();
+                    if (!parser.isDone()) {
+                        throw new EOFException("unexpected end of stream");
+                    }
+                    return;
+                }
+                if (read == 0) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(final int statusCode, final String statusText, final Map<String, List<String>> headerFields,
+                               final byte[] body, final int bodyLength, final boolean reusable) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            loop.removeActive(this);
+            final Connection current = connection;
+            connection = null;
+            if (reusable && connectionPool != null && !cancelled) {
+                loop.addIdleConnection(current, connectionPool);
+            } else {
+                current.close();
+            }
+            final Response response;
+            try {
+                response = new Response(url.toURI(), statusCode, statusText, headerFields, body, bodyLength, request.getCharSet(),
+                    body != null ? BUFFER_POOL : null);
+            } catch (URISyntaxException e) {
+                if (body != null) {
+                    BUFFER_POOL.returnBuf(body);
+                }
+                callback.onFailure(new IOException(e.toString()));
+                return;
+            }
+            callback.onResponse(response);
+        }
+
+        /**
+         * @return 재사용한 connection이 응답 전에 끊겼으면 새 connection으로 다시 보내기 위해 true
+         */
+        private boolean shouldRetryOnNewConnection(final IOException e) {
+            return reusedConnection && !receivedAny && !cancelled && !(e instanceof SocketTimeoutException);
+        }
+
+        private void fail(final IOException e) {
+            if (finished) {
+                return;
+            }
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+            if (shouldRetryOnNewConnection(e)) {
+                reusedConnection = false;
+                requestBytes.rewind();
+                handshaking = false;
+                writing = false;
+                try {
+                    start(loop.selector);
+                    return;
+                } catch (IOException retryFailure) {
+                    fail(retryFailure);
+                    return;
+                }
+            }
+            finished = true;
+            loop.removeActive(this);
+            if (parser != null) {
+                parser.release();
+            }
+            callback.onFailure(e);
+        }
+    }
+
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<NioCall> pendingCalls = new ConcurrentLinkedQueue<NioCall>();
+        private final ConcurrentLinkedQueue<NioCall> cancelledCalls = new ConcurrentLinkedQueue<NioCall>();
+        private volatile boolean running = true;
+        private volatile int activeCount;
+
+        // 아래 값들은 I/O thread에서만 접근한다.
+        private final List<NioCall> activeCalls = new ArrayList<NioCall>();
+        private final Map<String, LinkedList<Connection>> idleConnections = new HashMap<String, LinkedList<Connection>>();
+        // idle connection을 반납한 요청의 설정. 보관 시간을 확인하고 만료된 connection을 기록한다.
+        private final Map<Connection, KeepAliveConnectionPool> idlePools = new HashMap<Connection, KeepAliveConnectionPool>();
+
+        private IoLoop(final String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void submit(final NioCall call) {
+            pendingCalls.add(call);
+            selector.wakeup();
+            if (!running) {
+                drainPendingCalls(new IOException("http transport has been shut down"));
+            }
+        }
+
+        private void cancel(final NioCall call) {
+            cancelledCalls.add(call);
+            selector.wakeup();
+        }
+
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(nextSelectTimeout());
+                    startPendingCalls();
+                    failCancelledCalls();
+                    handleSelectedKeys();
+                    checkTimeouts();
+                }
+            } catch (IOException e) {
+                // select가 실패하면 더 이상 진행할 수 없다.
+            } catch (ClosedSelectorException e) {
+                // shutdown
+            } finally {
+                running = false;
+                final IOException closed = new IOException("http transport has been shut down");
+                for (NioCall call : new ArrayList<NioCall>(activeCalls)) {
+                    call.fail(closed);
+                }
+                drainPendingCalls(closed);
+                for (LinkedList<Connection> idle : idleConnections.values()) {
+                    for (Connection connection : idle) {
+                        connection.close();
+                    }
+                }
+                idleConnections.clear();
+                idlePools.clear();
+                try {
+                    selector.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        private void drainPendingCalls(final IOException e) {
+            NioCall call;
+            while ((call = pendingCalls.poll()) != null) {
+                call.finished = true;
+                call.callback.onFailure(e);
+            }
+        }
+
+        private long nextSelectTimeout() {
+            final long now = System.currentTimeMillis();
+            long next = now + MAX_SELECT_TIMEOUT_IN_MS;
+            for (NioCall call : activeCalls) {
+                next = Math.min(next, call.timeoutAt);
+            }
+            return Math.max(1, next - now);
+        }
+
+        private void startPendingCalls() {
+            NioCall call;
+            while ((call = pendingCalls.poll()) != null) {
+                activeCalls.add(call);
+                activeCount = activeCalls.size();
+                try {
+                    call.start(selector);
+                } catch (IOException e) {
+                    call.fail(e);
+                }
+            }
+        }
+
+        private void failCancelledCalls() {
+            NioCall call;
+            while ((call = cancelledCalls.poll()) != null) {
+                if (activeCalls.contains(call)) {
+                    call.fail(new IOException("Canceled"));
+                }
+            }
+        }
+
+        private void handleSelectedKeys() {
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final Object attachment = key.attachment();
+                if (attachment instanceof NioCall) {
+                    final NioCall call = (NioCall) attachment;
+                    try {
+                        call.onReady(key);
+                    } catch (IOException e) {
+                        call.fail(e);
+                    } catch (CancelledKeyException e) {
+                        call.fail(new IOException("connection closed"));
+                    } catch (RuntimeException e) {
+                        call.fail(new IOException(e.toString()));
+                    }
+                } else if (attachment instanceof Connection) {
+                    // idle connection에 데이터가 오거나 상대가 끊었으면 더 이상 사용하지 않는다.
+                    removeIdleConnection((Connection) attachment);
+                }
+            }
+        }
+
+        private void checkTimeouts() {
+            final long now = System.currentTimeMillis();
+            for (NioCall call : new ArrayList<NioCall>(activeCalls)) {
+                if (now >= call.timeoutAt) {
+                    call.fail(new SocketTimeoutException(call.connection != null && call.connection.channel.isConnected()
+                        ? "read timed out" : "connect timed out"));
+                }
+            }
+            final Iterator<Map.Entry<Connection, KeepAliveConnectionPool>> idle = idlePools.entrySet().iterator();
+            final List<Connection> expired = new ArrayList<Connection>();
+            while (idle.hasNext()) {
+                final Map.Entry<Connection, KeepAliveConnectionPool> entry = idle.next();
+                if (now - entry.getKey().idleSince >= entry.getValue().getKeepAliveInMs()) {
+                    expired.add(entry.getKey());
+                }
+            }
+            for (Connection connection : expired) {
+                removeIdleConnection(connection);
+            }
+        }
+
+        private void removeActive(final NioCall call) {
+            activeCalls.remove(call);
+            activeCount = activeCalls.size();
+        }
+
+        private Connection takeIdleConnection(final String key, final KeepAliveConnectionPool connectionPool) {
+            if (connectionPool == null) {
+                return null;
+            }
+            final LinkedList<Connection> idle = idleConnections.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                final Connection connection = idle.removeLast();
+                final KeepAliveConnectionPool idlePool = idlePools.remove(connection);
+                if (connection.channel.isOpen() && connection.selectionKey.isValid()) {
+                    connectionPool.recordHit();
+                    return connection;
+                }
+                connection.close();
+                if (idlePool != null) {
+                    idlePool.recordEviction();
+                }
+            }
+            connectionPool.recordMiss();
+            return null;
+        }
+
+        private void addIdleConnection(final Connection connection, final KeepAliveConnectionPool connectionPool) {
+            LinkedList<Connection> idle = idleConnections.get(connection.key);
+            if (idle == null) {
+                idle = new LinkedList<Connection>();
+                idleConnections.put(connection.key, idle);
+            }
+            connection.idleSince = System.currentTimeMillis();
+            connection.selectionKey.attach(connection);
+            connection.selectionKey.interestOps(SelectionKey.OP_READ);
+            idle.addLast(connection);
+            idlePools.put(connection, connectionPool);
+            if (idle.size() > connectionPool.getMaxIdlePerAuthority()) {
+                final Connection eldest = idle.removeFirst();
+                final KeepAliveConnectionPool eldestPool = idlePools.remove(eldest);
+                eldest.close();
+                if (eldestPool != null) {
+                    eldestPool.recordEviction();
+                }
+            }
+        }
+
+        private void removeIdleConnection(final Connection connection) {
+            final LinkedList<Connection> idle = idleConnections.get(connection.key);
+            if (idle != null) {
+                idle.remove(connection);
+            }
+            final KeepAliveConnectionPool idlePool = idlePools.remove(connection);
+            connection.close();
+            if (idlePool != null) {
+                idlePool.recordEviction();
+            }
+        }
+    }
+
+    /**
+     * HTTP/1.1 응답을 받은 순서대로 해석한다. Content-Length, chunked, 연결이 끊길 때까지의 body를 지원한다.
+     */
+    static class ResponseParser {
+        interface Listener {
+            void onComplete(int statusCode, String statusText, Map<String, List<String>> headerFields, byte[] body, int bodyLength,
+                            boolean reusable);
+        }
+
+        private static final int STATE_HEAD = 0;
+        private static final int STATE_FIXED_BODY = 1;
+        private static final int STATE_CHUNK_SIZE = 2;
+        private static final int STATE_CHUNK_DATA = 3;
+        private static final int STATE_CHUNK_END = 4;
+        private static final int STATE_TRAILER = 5;
+        private static final int STATE_UNTIL_CLOSE = 6;
+        private static final int STATE_DONE = 7;
+
+        private final boolean headRequest;
+        private final Listener listener;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private int state = STATE_HEAD;
+        private int headSize;
+        private int statusCode;
+        private String statusText;
+        private boolean keepAlive;
+        private Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>();
+        private long remaining;
+        private byte[] body;
+        private int bodyLength;
+
+        ResponseParser(final boolean headRequest, final Listener listener) {
+            this.headRequest = headRequest;
+            this.listener = listener;
+        }
+
+        boolean isDone() {
+            return state == STATE_DONE;
+        }
+
+        void setReusable(final boolean reusable) {
+            keepAlive = keepAlive && reusable;
+        }
+
+        /**
+         * 끝나지 않은 응답의 buffer를 반납한다.
+         */
+        void release() {
+            if (body != null && state != STATE_DONE) {
+                BUFFER_POOL.returnBuf(body);
+                body = null;
+            }
+        }
+
+        void feed(final ByteBuffer src) throws IOException {
+            while (src.hasRemaining() && state != STATE_DONE) {
+                switch (state) {
+                    case STATE_HEAD:
+                    case STATE_CHUNK_SIZE:
+                    case STATE_CHUNK_END:
+                    case STATE_TRAILER:
+                        final String text = readLine(src);
+                        if (text != null) {
+                            onLine(text);
+                        }
+                        break;
+                    case STATE_FIXED_BODY:
+                    case STATE_CHUNK_DATA:
+                        final int count = (int) Math.min(remaining, src.remaining());
+                        appendBody(src, count);
+                        remaining -= count;
+                        if (remaining == 0) {
+                            if (state == STATE_FIXED_BODY) {
+                                complete();
+                            } else {
+                                state = STATE_CHUNK_END;
+                            }
+                        }
+                        break;
+                    case STATE_UNTIL_CLOSE:
+                        appendBody(src, src.remaining());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        void onEndOfStream() {
+            if (state == STATE_UNTIL_CLOSE) {
+                keepAlive = false;
+                complete();
+            }
+        }
+
+        /**
+         * @return CRLF로 끝나는 한 줄. 아직 줄이 끝나지 않았으면 null
+         */
+        private String readLine(final ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                final byte b = src.get();
+                if (state == STATE_HEAD && ++headSize > MAX_HEAD_SIZE) {
+                    throw new IOException("response header is too large");
+                }
+                if (b == '\n') {
+                    final String text = new String(line.toByteArray(), "ISO-8859-1");
+                    line.reset();
+                    return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+                }
+                line.write(b);
+            }
+            return null;
+        }
+
+        private void onLine(final String text) throws IOException {
+            switch (state) {
+                case STATE_HEAD:
+                    if (statusText == null) {
+                        parseStatusLine(text);
+                    } else if (text.length() == 0) {
+                        onHeadComplete();
+                    } else {
+                        final int colon = text.indexOf(':');
+                        if (colon > 0) {
+                            addHeader(text.substring(0, colon).trim(), text.substring(colon + 1).trim());
+                        }
+                    }
+                    break;
+                case STATE_CHUNK_SIZE:
+                    final int extension = text.indexOf(';');
+                    final String size = (extension >= 0 ? text.substring(0, extension) : text).trim();
+                    try {
+                        remaining = Long.parseLong(size, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("invalid chunk size " + size);
+                    }
+                    state = remaining == 0 ? STATE_TRAILER : STATE_CHUNK_DATA;
+                    break;
+                case STATE_CHUNK_END:
+                    state = STATE_CHUNK_SIZE;
+                    break;
+                case STATE_TRAILER:
+                    if (text.length() == 0) {
+                        complete();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void parseStatusLine(final String text) throws IOException {
+            // 예) HTTP/1.1 200 OK
+            final String[] parts = text.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("unexpected status line: " + text);
+            }
+            try {
+                statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected status line: " + text);
+            }
+            statusText = parts.length > 2 ? parts[2] : "";
+            keepAlive = "HTTP/1.1".equals(parts[0]);
+        }
+
+        private void addHeader(final String name, final String value) {
+            List<String> values = headerFields.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                headerFields.put(name, values);
+            }
+            values.add(value);
+            if ("Connection".equalsIgnoreCase(name)) {
+                if ("close".equalsIgnoreCase(value)) {
+                    keepAlive = false;
+                } else if ("keep-alive".equalsIgnoreCase(value)) {
+                    keepAlive = true;
+                }
+            }
+        }
+
+        private void onHeadComplete() throws IOException {
+            if (statusCode >= 100 && statusCode < 200) {
+                // 100 Continue 등 중간 응답은 무시하고 다음 응답을 기다린다.
+                statusText = null;
+                headerFields = new LinkedHashMap<String, List<String>>();
+                return;
+            }
+            if (headRequest || statusCode == 204 || statusCode == 304) {
+                complete();
+                return;
+            }
+            final String transferEncoding = headerValue("Transfer-Encoding");
+            final String contentLength = headerValue("Content-Length");
+            if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                body = BUFFER_POOL.getBuf(DEFAULT_BUFFER_SIZE);
+                state = STATE_CHUNK_SIZE;
+            } else if (contentLength != null) {
+                try {
+                    remaining = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid Content-Length " + contentLength);
+                }
+                if (remaining > Integer.MAX_VALUE || remaining < 0) {
+                    throw new IOException("invalid Content-Length " + contentLength);
+                }
+                if (remaining == 0) {
+                    complete();
+                    return;
+                }
+                // Content-Length를 알면 한번에 그 크기의 buffer를 받아 복사 없이 읽는다.
+                body = BUFFER_POOL.getBuf((int) remaining);
+                state = STATE_FIXED_BODY;
+            } else {
+                body = BUFFER_POOL.getBuf(DEFAULT_BUFFER_SIZE);
+                state = STATE_UNTIL_CLOSE;
+            }
+        }
+
+        private String headerValue(final String name) {
+            for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(entry.getValue().size() - 1);
+                }
+            }
+            return null;
+        }
+
+        private void appendBody(final ByteBuffer src, final int count) {
+            if (bodyLength + count > body.length) {
+                final byte[] newBody = BUFFER_POOL.getBuf(Math.max(body.length * 2, bodyLength + count));
+                System.arraycopy(body, 0, newBody, 0, bodyLength);
+                BUFFER_POOL.returnBuf(body);
+                body = newBody;
+            }
+            src.get(body, bodyLength, count);
+            bodyLength += count;
+        }
+
+        private void complete() {
+            state = STATE_DONE;
+            listener.onComplete(statusCode, statusText, headerFields, body, bodyLength, keepAlive);
+        }
+    }
+}
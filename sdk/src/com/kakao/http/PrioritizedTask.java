@@ -0,0 +1,30 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * {@link PriorityLaneExecutor}가 어느 lane에서 수행할지 알 수 있도록 우선순위를 알려주는 작업.
+ * @author kkung
+ */
+interface PrioritizedTask {
+
+    /**
+     * @return 작업의 우선순위
+     */
+    RequestPriority getPriority();
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 요청을 {@link RequestPriority}별 lane에 나누어 수행하는 http executor.
+ * <ul>
+ *     <li>lane마다 동시에 수행할 수 있는 작업 수를 제한한다.</li>
+ *     <li>{@link RequestPriority#URGENT}가 아닌 lane은 maxConcurrency를 나누어 쓰고, 빈 자리가 생기면 우선순위가 높은 lane부터 수행한다.</li>
+ *     <li>{@link RequestPriority#URGENT} lane은 maxConcurrency와 상관없이 자기 lane의 제한만 받으므로 다른 요청이 많아도 기다리지 않는다.</li>
+ *     <li>queue에서 starvationThresholdInMs 이상 기다린 작업은 우선순위와 상관없이 먼저 수행하여 낮은 우선순위의 작업도 계속 진행되도록 한다.</li>
+ * </ul>
+ * @author kkung
+ */
+public class PriorityLaneExecutor extends AbstractExecutorService {
+    public static final long DEFAULT_STARVATION_THRESHOLD_IN_MS = 2000;
+
+    private static final RequestPriority[] LANES = RequestPriority.values();
+
+    private final ThreadPoolExecutor workerPool;
+    private final int maxConcurrency;
+    private final long starvationThresholdInMs;
+    // 아래 값들은 this의 보호를 받는다. index는 RequestPriority의 ordinal
+    private final int[] laneCaps = new int[LANES.length];
+    private final int[] runningCounts = new int[LANES.length];
+    private final List<LinkedList<QueuedTask>> queues = new ArrayList<LinkedList<QueuedTask>>(LANES.length);
+    private final long[] executedCounts = new long[LANES.length];
+    private long starvationPromotedCount;
+    private boolean shutdown;
+
+    /**
+     * @param urgentCap {@link RequestPriority#URGENT} lane에서 동시에 수행할 수 있는 최대 작업 수
+     * @param interactiveCap {@link RequestPriority#INTERACTIVE} lane에서 동시에 수행할 수 있는 최대 작업 수
+     * @param backgroundCap {@link RequestPriority#BACKGROUND} lane에서 동시에 수행할 수 있는 최대 작업 수
+     * @param maxConcurrency {@link RequestPriority#URGENT}를 제외한 lane들이 동시에 수행할 수 있는 최대 작업 수
+     * @param starvationThresholdInMs 이 시간 이상 기다린 작업은 우선순위와 상관없이 먼저 수행한다.
+     */
+    public PriorityLaneExecutor(final int urgentCap, final int interactiveCap, final int backgroundCap, final int maxConcurrency,
+                                final long starvationThresholdInMs, final long keepAliveInSec, final ThreadFactory threadFactory) {
+        if (urgentCap < 1 || interactiveCap < 1 || backgroundCap < 1 || maxConcurrency < 1) {
+            throw new IllegalArgumentException("lane cap and maxConcurrency should be positive.");
+        }
+        laneCaps[RequestPriority.URGENT.ordinal()] = urgentCap;
+        laneCaps[RequestPriority.INTERACTIVE.ordinal()] = interactiveCap;
+        laneCaps[RequestPriority.BACKGROUND.ordinal()] = backgroundCap;
+        for (int i = 0; i < LANES.length; i++) {
+            queues.add(new LinkedList<QueuedTask>());
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.starvationThresholdInMs = starvationThresholdInMs;
+        // 동시 수행 수는 이 class가 제한하므로 worker thread는 필요한 만큼 만든다.
+        this.workerPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, keepAliveInSec, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), threadFactory);
+    }
+
+    @Override
+    public void execute(final Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException("runnable == null");
+        }
+        synchronized (this) {
+            if (!shutdown) {
+                queues.get(laneOf(runnable).ordinal()).addLast(new QueuedTask(runnable, System.currentTimeMillis()));
+                dispatch();
+                return;
+            }
+        }
+
+        final RejectedExecutionException e = new RejectedExecutionException("http executor has been shut down");
+        if (runnable instanceof RejectableTask) {
+            ((RejectableTask) runnable).onRejected(e);
+        } else {
+            throw e;
+        }
+    }
+
+    /**
+     * queue에서 기다리는 작업을 뺀다.
+     * @return queue에 있어서 뺐으면 true
+     */
+    public synchronized boolean remove(final Runnable runnable) {
+        for (LinkedList<QueuedTask> queue : queues) {
+            final Iterator<QueuedTask> it = queue.iterator();
+            while (it.hasNext()) {
+                if (it.next().runnable == runnable) {
+                    it.remove();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 모든 lane의 queue에서 기다리는 작업 수
+     */
+    public synchronized int getQueueDepth() {
+        int depth = 0;
+        for (LinkedList<QueuedTask> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public synchronized int getQueueDepth(final RequestPriority priority) {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    public synchronized int getRunningCount(final RequestPriority priority) {
+        return runningCounts[priority.ordinal()];
+    }
+
+    /**
+     * @return lane에서 수행을 시작한 작업의 누적 수
+     */
+    public synchronized long getExecutedCount(final RequestPriority priority) {
+        return executedCounts[priority.ordinal()];
+    }
+
+    /**
+     * @return 오래 기다려서 우선순위가 높은 lane보다 먼저 수행한 작업의 누적 수
+     */
+    public synchronized long getStarvationPromotedCount() {
+        return starvationPromotedCount;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            if (!isIdle()) {
+                // 남은 작업을 모두 수행한 후 worker pool을 닫는다.
+                return;
+            }
+        }
+        workerPool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> remaining = new ArrayList<Runnable>();
+        synchronized (this) {
+            shutdown = true;
+            for (LinkedList<QueuedTask> queue : queues) {
+                for (QueuedTask task : queue) {
+                    remaining.add(task.runnable);
+                }
+                queue.clear();
+            }
+        }
+        workerPool.shutdownNow();
+        return remaining;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (this) {
+            if (!shutdown || !isIdle()) {
+                return false;
+            }
+        }
+        return workerPool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            while (!shutdown || !isIdle()) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return workerPool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("PriorityLaneExecutor{");
+        for (RequestPriority lane : LANES) {
+            sb.append(lane).append("=[running=").append(runningCounts[lane.ordinal()])
+                .append(", queued=").append(queues.get(lane.ordinal()).size())
+                .append(", executed=").append(executedCounts[lane.ordinal()]).append("], ");
+        }
+        sb.append("starvationPromoted=").append(starvationPromotedCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static RequestPriority laneOf(final Runnable runnable) {
+        if (runnable instanceof PrioritizedTask) {
+            final RequestPriority priority = ((PrioritizedTask) runnable).getPriority();
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return RequestPriority.INTERACTIVE;
+    }
+
+    // this의 lock을 가진 상태에서 호출한다.
+    private void dispatch() {
+        QueuedTask task;
+        while ((task = pollNext()) != null) {
+            final int lane = task.lane;
+            runningCounts[lane]++;
+            executedCounts[lane]++;
+            final Runnable runnable = task.runnable;
+            workerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        onFinished(lane);
+                    }
+                }
+            });
+        }
+    }
+
+    // this의 lock을 가진 상태에서 호출한다. 다음에 수행할 작업을 queue에서 꺼낸다.
+    private QueuedTask pollNext() {
+        final int urgent = RequestPriority.URGENT.ordinal();
+        if (isRunnable(urgent)) {
+            return poll(urgent);
+        }
+
+        int running = 0;
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (lane != urgent) {
+                running += runningCounts[lane];
+            }
+        }
+        if (running >= maxConcurrency) {
+            return null;
+        }
+
+        // 가장 오래 기다린 작업이 기준 시간을 넘었으면 그 lane을 먼저 수행한다.
+        final long now = System.currentTimeMillis();
+        int starvedLane = -1;
+        long oldestEnqueuedAt = Long.MAX_VALUE;
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (lane != urgent && isRunnable(lane)) {
+                final long enqueuedAt = queues.get(lane).getFirst().enqueuedAt;
+                if (now - enqueuedAt >= starvationThresholdInMs && enqueuedAt < oldestEnqueuedAt) {
+                    starvedLane = lane;
+                    oldestEnqueuedAt = enqueuedAt;
+                }
+            }
+        }
+
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (lane != urgent && isRunnable(lane)) {
+                if (starvedLane >= 0 && starvedLane != lane) {
+                    starvationPromotedCount++;
+                    return poll(starvedLane);
+                }
+                return poll(lane);
+            }
+        }
+        return null;
+    }
+
+    private boolean isRunnable(final int lane) {
+        return !queues.get(lane).isEmpty() && runningCounts[lane] < laneCaps[lane];
+    }
+
+    private QueuedTask poll(final int lane) {
+        final QueuedTask task = queues.get(lane).removeFirst();
+        task.lane = lane;
+        return task;
+    }
+
+    private boolean isIdle() {
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (runningCounts[lane] > 0 || !queues.get(lane).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onFinished(final int lane) {
+        final boolean terminate;
+        synchronized (this) {
+            runningCounts[lane]--;
+            dispatch();
+            terminate = shutdown && isIdle();
+            notifyAll();
+        }
+        if (terminate) {
+            workerPool.shutdown();
+        }
+    }
+
+    private static class QueuedTask {
+        private final Runnable runnable;
+        private final long enqueuedAt;
+        private int lane;
+
+        private QueuedTask(final Runnable runnable, final long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
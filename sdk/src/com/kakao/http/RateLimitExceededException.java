@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * {@link RateLimiter}의 제한을 넘어 요청을 보내지 않았음을 알린다.
+ * {@link KakaoAsyncHandler#onThrowable(Throwable)}에서 {@link com.kakao.ErrorCode#EXCEED_LIMIT_CODE}로 전달한다.
+ * @author kkung
+ */
+public class RateLimitExceededException extends Exception {
+    private static final long serialVersionUID = 5387410926418826650L;
+
+    private final String path;
+
+    public RateLimitExceededException(final String path) {
+        super("client rate limit exceeded for " + path);
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.Logger;
+import com.kakao.helper.ServerProtocol;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * {@link ServerProtocol}의 path별로 token bucket을 두어 요청 빈도를 제한한다.
+ * 초당 permitsPerSecond개의 token이 burst개까지 쌓이고, 요청마다 token을 하나 쓴다.
+ * token이 없는 요청은 {@link ExcessPolicy}에 따라 token이 생길 때까지 늦추거나 바로 실패 처리한다.
+ * 서버가 429, 503 응답에 Retry-After header를 주면 그 시각까지 같은 path의 요청을 보내지 않는다.
+ * {@link AsyncHttpClient#setRateLimiter(RateLimiter)}로 등록한다.
+ * @author kkung
+ */
+public class RateLimiter {
+    public static final double DEFAULT_PERMITS_PER_SECOND = 1;
+    public static final int DEFAULT_BURST = 3;
+    public static final long DEFAULT_MAX_DELAY_IN_MS = 5000;
+
+    private static final String RETRY_AFTER_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * token이 없는 요청의 처리 방법
+     */
+    public static enum ExcessPolicy {
+        /**
+         * token이 생길 때까지 늦춰서 보낸다. maxDelayInMs보다 오래 기다려야 하면 실패 처리한다.
+         */
+        DELAY,
+        /**
+         * 보내지 않고 바로 {@link com.kakao.ErrorCode#EXCEED_LIMIT_CODE}로 실패를 알린다.
+         */
+        REJECT
+    }
+
+    private final ExcessPolicy excessPolicy;
+    private final long maxDelayInMs;
+
+    // 아래 값들은 this의 보호를 받는다.
+    private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+    private long allowedCount;
+    private long delayedCount;
+    private long rejectedCount;
+    private long retryAfterCount;
+    private long totalDelayInMs;
+
+    /**
+     * 앱 코드가 반복해서 호출하기 쉬운 {@link ServerProtocol#USER_UPDATE_PROFILE_PATH}, {@link ServerProtocol#STORY_POST_PATH}를
+     * 초당 {@value #DEFAULT_PERMITS_PER_SECOND}번, 한번에 {@value #DEFAULT_BURST}번까지로 제한하고 넘는 요청은 늦춘다.
+     */
+    public RateLimiter() {
+        this(ExcessPolicy.DELAY, DEFAULT_MAX_DELAY_IN_MS);
+        setLimit(ServerProtocol.USER_UPDATE_PROFILE_PATH, DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST);
+        setLimit(ServerProtocol.STORY_POST_PATH, DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    /**
+     * path별 제한은 {@link #setLimit(String, double, int)}로 설정한다.
+     * @param excessPolicy token이 없는 요청의 처리 방법
+     * @param maxDelayInMs {@link ExcessPolicy#DELAY}일 때 요청을 늦출 수 있는 최대 시간
+     */
+    public RateLimiter(final ExcessPolicy excessPolicy, final long maxDelayInMs) {
+        if (excessPolicy == null) {
+            throw new IllegalArgumentException("excessPolicy == null");
+        }
+        if (maxDelayInMs < 0) {
+            throw new IllegalArgumentException("maxDelayInMs < 0");
+        }
+        this.excessPolicy = excessPolicy;
+        this.maxDelayInMs = maxDelayInMs;
+    }
+
+    /**
+     * path의 요청 빈도를 제한한다.
+     * @param path {@link ServerProtocol}의 API path. 예) {@link ServerProtocol#USER_UPDATE_PROFILE_PATH}
+     * @param permitsPerSecond 초당 허용하는 요청 수. 0이면 제한하지 않는다.
+     * @param burst 한번에 보낼 수 있는 최대 요청 수
+     */
+    public synchronized RateLimiter setLimit(final String path, final double permitsPerSecond, final int burst) {
+        if (permitsPerSecond < 0 || (permitsPerSecond > 0 && burst < 1)) {
+            throw new IllegalArgumentException("invalid permitsPerSecond = " + permitsPerSecond + " or burst = " + burst);
+        }
+        final Bucket bucket = bucketOf(normalizePath(path));
+        bucket.permitsPerSecond = permitsPerSecond;
+        bucket.burst = burst;
+        bucket.tokens = burst;
+        bucket.refilledAt = System.currentTimeMillis();
+        return this;
+    }
+
+    public ExcessPolicy getExcessPolicy() {
+        return excessPolicy;
+    }
+
+    /**
+     * 요청을 보낼 token을 얻는다. token이 없으면 앞으로 생길 token을 미리 쓰고 기다릴 시간을 돌려준다.
+     * @param path 요청 path
+     * @param maxWaitInMs 요청의 deadline까지 남은 시간. 이보다 오래 기다려야 하면 실패 처리한다.
+     * @return 바로 보내도 되면 0, 기다린 후에 보내야 하면 기다릴 시간, 보내지 않아야 하면 -1
+     */
+    public synchronized long reserve(final String path, final long maxWaitInMs) {
+        final Bucket bucket = buckets.get(normalizePath(path));
+        if (bucket == null) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        long waitInMs = Math.max(0, bucket.blockedUntil - now);
+        if (bucket.permitsPerSecond > 0) {
+            bucket.refill(now);
+            if (bucket.tokens < 1) {
+                waitInMs = Math.max(waitInMs, (long) Math.ceil((1 - bucket.tokens) * 1000 / bucket.permitsPerSecond));
+            }
+        }
+
+        if (waitInMs > 0 && (excessPolicy == ExcessPolicy.REJECT || waitInMs > maxDelayInMs || waitInMs >= maxWaitInMs)) {
+            rejectedCount++;
+            bucket.rejectedCount++;
+            Logger.getInstance().d("rate limit exceeded. path = " + path + ", wait = " + waitInMs + "ms");
+            return -1;
+        }
+        if (bucket.permitsPerSecond > 0) {
+            // 기다리는 경우에는 앞으로 생길 token을 미리 써서 다음 요청이 더 오래 기다리도록 한다.
+            bucket.tokens -= 1;
+        }
+        if (waitInMs > 0) {
+            delayedCount++;
+            bucket.delayedCount++;
+            totalDelayInMs += waitInMs;
+        } else {
+            allowedCount++;
+            bucket.allowedCount++;
+        }
+        return waitInMs;
+    }
+
+    /**
+     * 서버가 Retry-After로 알려준 시각까지 path의 요청을 보내지 않는다.
+     * @param path 응답을 받은 요청 path
+     * @param retryAfter Retry-After header 값. 초 단위 숫자나 HTTP-date
+     */
+    public void onRetryAfter(final String path, final String retryAfter) {
+        final long now = System.currentTimeMillis();
+        final long until = retryAfterOf(retryAfter, now);
+        if (until <= now) {
+            return;
+        }
+        synchronized (this) {
+            final Bucket bucket = bucketOf(normalizePath(path));
+            bucket.blockedUntil = Math.max(bucket.blockedUntil, until);
+            retryAfterCount++;
+        }
+        Logger.getInstance().d("server asked to retry after " + (until - now) + "ms. path = " + path);
+    }
+
+    /**
+     * @return 기다리지 않고 보낸 요청의 누적 수. 제한하는 path의 요청만 센다.
+     */
+    public synchronized long getAllowedCount() {
+        return allowedCount;
+    }
+
+    /**
+     * @return 늦춰서 보낸 요청의 누적 수
+     */
+    public synchronized long getDelayedCount() {
+        return delayedCount;
+    }
+
+    /**
+     * @return 보내지 않고 실패 처리한 요청의 누적 수
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return 서버의 Retry-After를 따른 누적 횟수
+     */
+    public synchronized long getRetryAfterCount() {
+        return retryAfterCount;
+    }
+
+    /**
+     * @return 요청을 늦춘 시간의 합
+     */
+    public synchronized long getTotalDelayInMs() {
+        return totalDelayInMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("RateLimiter{");
+        sb.append("policy=").append(excessPolicy);
+        sb.append(", allowed=").append(allowedCount);
+        sb.append(", delayed=").append(delayedCount);
+        sb.append(", rejected=").append(rejectedCount);
+        sb.append(", retryAfter=").append(retryAfterCount);
+        sb.append(", totalDelay=").append(totalDelayInMs);
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            final Bucket bucket = entry.getValue();
+            sb.append(", ").append(entry.getKey()).append("=[").append(bucket.allowedCount).append('/')
+                .append(bucket.delayedCount).append('/').append(bucket.rejectedCount).append(']');
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * @return Retry-After header가 가리키는 시각. 해석할 수 없으면 0
+     */
+    static long retryAfterOf(final String retryAfter, final long now) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        final String value = retryAfter.trim();
+        try {
+            return now + Long.parseLong(value) * 1000;
+        } catch (NumberFormatException ignore) {
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(RETRY_AFTER_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    // this의 lock을 가진 상태에서 호출한다.
+    private Bucket bucketOf(final String path) {
+        Bucket bucket = buckets.get(path);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(path, bucket);
+        }
+        return bucket;
+    }
+
+    private static String normalizePath(final String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static class Bucket {
+        // 0이면 Retry-After만 따르고 빈도는 제한하지 않는다.
+        private double permitsPerSecond;
+        private int burst;
+        // 기다리는 요청이 미리 쓴 만큼 음수가 될 수 있다.
+        private double tokens;
+        private long refilledAt;
+        private long blockedUntil;
+        private long allowedCount;
+        private long delayedCount;
+        private long rejectedCount;
+
+        private void refill(final long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / 1000);
+                refilledAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.ServerProtocol;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 서버의 상태를 바꾸지 않는 조회 요청의 path 목록.
+ * 카카오톡/카카오스토리 프로필처럼 POST로 보내는 조회 요청이 있고, 로그아웃/탈퇴처럼 GET으로 보내는 변경 요청이 있으므로
+ * HTTP method가 아닌 path로 조회 요청인지를 판단한다.
+ * 응답 cache, 재시도, 같은 요청 합치기, hedge는 이 목록에 있는 요청만 대상으로 한다.
+ * @author kkung
+ */
+final class ReadOnlyRequests {
+    static final List<String> PATHS = Collections.unmodifiableList(Arrays.asList(
+        ServerProtocol.USER_ME_PATH, ServerProtocol.TALK_PROFILE_PATH, ServerProtocol.STORY_PROFILE_PATH));
+
+    private static final Set<String> NORMALIZED_PATHS = normalize(PATHS);
+
+    private ReadOnlyRequests() {
+    }
+
+    /**
+     * @return 기본 조회 path 중 하나로 보내는 body 없는 GET, POST 요청이면 true
+     */
+    static boolean isReadOnly(final Request request) {
+        return matches(request, NORMALIZED_PATHS);
+    }
+
+    /**
+     * @param paths {@link #normalize(Collection)}로 만든 path 목록
+     * @return paths 중 하나로 보내는 body 없는 GET, POST 요청이면 true
+     */
+    static boolean matches(final Request request, final Set<String> paths) {
+        final String method = request.getMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"POST".equalsIgnoreCase(method)) {
+            return false;
+        }
+        if (request.hasPayload() && request.getPayload() != null) {
+            return false;
+        }
+        try {
+            return paths.contains(normalizePath(new URL(request.getUrl()).getPath()));
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param paths {@link ServerProtocol}의 path 형식
+     */
+    static Set<String> normalize(final Collection<String> paths) {
+        final Set<String> normalized = new HashSet<String>();
+        for (String path : paths) {
+            normalized.add(normalizePath(path));
+        }
+        return normalized;
+    }
+
+    private static String normalizePath(final String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+}
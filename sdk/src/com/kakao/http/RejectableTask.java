@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * executor가 수행하지 못하고 버린 작업이 요청한 쪽에 실패를 알릴 수 있도록 한다.
+ * @author kkung
+ */
+interface RejectableTask {
+
+    /**
+     * executor가 작업을 수행하지 않기로 결정했을 때 호출된다.
+     * @param e 실패 원인
+     */
+    void onRejected(RejectedExecutionException e);
+}
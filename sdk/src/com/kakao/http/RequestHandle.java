@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * API 요청 결과로 돌려주는 handle로 요청을 취소할 때 사용한다.
+ * 화면을 벗어나는 등 결과가 더 이상 필요 없을 때 {@link #cancel()}을 부르면
+ * 기다리는 요청은 보내지 않고, 진행 중인 요청은 upload/download를 중단하며, 등록한 callback은 불리지 않는다.
+ * @author kkung
+ */
+public class RequestHandle {
+    private final HttpRequestTask<?> task;
+
+    /**
+     * @param task 취소할 요청. null이면 취소할 요청이 없는 handle을 만든다.
+     */
+    public RequestHandle(final HttpRequestTask<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * 요청을 취소한다. callback을 받는 thread에서 부르면 이후에는 callback이 불리지 않는다.
+     * @return 이번 호출로 취소되었으면 true. 이미 취소되었거나 취소할 요청이 없으면 false
+     */
+    public boolean cancel() {
+        return task != null && task.cancel();
+    }
+
+    public boolean isCancelled() {
+        return task != null && task.isCancelled();
+    }
+
+    /**
+     * @return 결과가 전달되었거나 취소되어 더 이상 진행할 것이 없으면 true
+     */
+    public boolean isDone() {
+        return task == null || task.isCancelled() || task.isCompleted();
+    }
+
+    boolean isInFlight() {
+        return task != null && task.isInFlight();
+    }
+}
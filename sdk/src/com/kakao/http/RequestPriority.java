@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * 요청의 우선순위. {@link PriorityLaneExecutor}는 우선순위별 lane으로 나누어 요청을 수행한다.
+ * @author kkung
+ */
+public enum RequestPriority {
+    /**
+     * access token 발급, 갱신처럼 다른 요청이 기다리고 있는 요청. 항상 가장 먼저 수행한다.
+     */
+    URGENT,
+    /**
+     * 사용자가 결과를 기다리는 요청. 기본값
+     */
+    INTERACTIVE,
+    /**
+     * 이미지 upload처럼 오래 걸리고 늦어져도 되는 요청
+     */
+    BACKGROUND
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.kakao.helper.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 화면 등 lifecycle을 가진 대상에 묶인 요청의 모음.
+ * 요청하면서 받은 {@link RequestHandle}을 {@link #add(RequestHandle)}로 등록해 두면, 대상이 사라질 때 {@link #close()}로 끝나지 않은 요청을 모두 취소하고
+ * callback에 대한 참조를 놓는다. 취소로 아낀 작업은 {@link #getCancelledBeforeSendCount()}, {@link #getAbortedInFlightCount()}로 알 수 있다.
+ * <p/>
+ * API level 14 이상에서는 {@link #bindTo(Activity)}로 activity가 destroy될 때 자동으로 닫을 수 있고,
+ * Fragment나 그 미만의 API level에서는 onDestroy에서 {@link #close()}를 호출한다.
+ * @author kkung
+ */
+public class RequestScope {
+    private final String name;
+    // 아래 값들은 this의 보호를 받는다.
+    private final List<RequestHandle> handles = new ArrayList<RequestHandle>();
+    private boolean closed;
+    private int cancelledBeforeSendCount;
+    private int abortedInFlightCount;
+
+    private Application application;
+    private Object activityLifecycleCallbacks;
+
+    /**
+     * @param name log에 남길 scope의 이름
+     */
+    public RequestScope(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * activity가 destroy될 때 자동으로 닫히는 scope를 만든다. main thread에서 호출한다.
+     * API level 14 미만에서는 activity의 onDestroy에서 {@link #close()}를 호출해야 한다.
+     * @param activity scope를 묶을 activity
+     * @return activity에 묶인 scope
+     */
+    public static RequestScope bindTo(final Activity activity) {
+        final RequestScope scope = new RequestScope(activity.getClass().getSimpleName());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            scope.application = activity.getApplication();
+            scope.registerActivityLifecycleCallbacks(activity);
+        }
+        return scope;
+    }
+
+    /**
+     * 요청을 scope에 등록한다. 이미 닫힌 scope이면 바로 취소한다.
+     * @param handle 요청하면서 받은 handle
+     * @return 등록한 handle
+     */
+    public RequestHandle add(final RequestHandle handle) {
+        final boolean cancelNow;
+        synchronized (this) {
+            cancelNow = closed;
+            if (!cancelNow) {
+                removeDoneHandles();
+                handles.add(handle);
+            }
+        }
+        if (cancelNow) {
+            cancel(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * 끝나지 않은 요청을 모두 취소하고 scope를 닫는다. 닫은 후에 등록하는 요청은 바로 취소된다.
+     * @return 이번에 취소한 요청 수
+     */
+    public int close() {
+        final List<RequestHandle> outstanding;
+        synchronized (this) {
+            if (closed) {
+                return 0;
+            }
+            closed = true;
+            outstanding = new ArrayList<RequestHandle>(handles);
+            handles.clear();
+        }
+        if (application != null) {
+            unregisterActivityLifecycleCallbacks();
+            application = null;
+        }
+        activityLifecycleCallbacks = null;
+
+        int cancelledCount = 0;
+        for (RequestHandle handle : outstanding) {
+            if (cancel(handle)) {
+                cancelledCount++;
+            }
+        }
+        Logger.getInstance().d(toString());
+        return cancelledCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return 끝나지 않은 요청 수
+     */
+    public synchronized int getOutstandingCount() {
+        removeDoneHandles();
+        return handles.size();
+    }
+
+    /**
+     * @return 요청을 보내기 전에 취소되어 보내지 않은 요청 수
+     */
+    public synchronized int getCancelledBeforeSendCount() {
+        return cancelledBeforeSendCount;
+    }
+
+    /**
+     * @return 보내는 중이거나 response를 받는 중에 connection을 끊은 요청 수
+     */
+    public synchronized int getAbortedInFlightCount() {
+        return abortedInFlightCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("RequestScope{");
+        sb.append("name='").append(name).append('\'');
+        sb.append(", closed=").append(closed);
+        sb.append(", cancelledBeforeSend=").append(cancelledBeforeSendCount);
+        sb.append(", abortedInFlight=").append(abortedInFlightCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private boolean cancel(final RequestHandle handle) {
+        final boolean inFlight = handle.isInFlight();
+        if (!handle.cancel()) {
+            return false;
+        }
+        synchronized (this) {
+            if (inFlight) {
+                abortedInFlightCount++;
+            } else {
+                cancelledBeforeSendCount++;
+            }
+        }
+        return true;
+    }
+
+    private void removeDoneHandles() {
+        final Iterator<RequestHandle> it = handles.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+    }
+
+    @TargetApi(14)
+    private void registerActivityLifecycleCallbacks(final Activity target) {
+        final Application.ActivityLifecycleCallbacks callbacks = new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(final Activity activity, final Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(final Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(final Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(final Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(final Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(final Activity activity, final Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(final Activity activity) {
+                if (activity == target) {
+                    close();
+                }
+            }
+        };
+        application.registerActivityLifecycleCallbacks(callbacks);
+        activityLifecycleCallbacks = callbacks;
+    }
+
+    @TargetApi(14)
+    private void unregisterActivityLifecycleCallbacks() {
+        application.unregisterActivityLifecycleCallbacks((Application.ActivityLifecycleCallbacks) activityLifecycleCallbacks);
+    }
+}
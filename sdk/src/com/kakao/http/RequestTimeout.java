@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+/**
+ * 요청의 timeout 설정.
+ * 0인 값은 설정하지 않은 것으로 보고 {@link AsyncHttpClient}의 기본값을 사용하거나 deadline을 두지 않는다.
+ * {@link HttpRequestBuilder#setEndpointTimeout(String, RequestTimeout)}로 API path별 기본값을 정할 수 있다.
+ * @author kkung
+ */
+public final class RequestTimeout {
+    private final int connectTimeoutInMs;
+    private final int readTimeoutInMs;
+    private final long deadlineInMs;
+
+    /**
+     * @param connectTimeoutInMs 연결 timeout
+     * @param readTimeoutInMs response를 읽는 동안의 timeout
+     * @param deadlineInMs 요청을 만든 후 executor queue 대기, token 갱신, 재시도를 모두 포함해서 결과를 받을 때까지 허용하는 시간
+     */
+    public RequestTimeout(final int connectTimeoutInMs, final int readTimeoutInMs, final long deadlineInMs) {
+        if (connectTimeoutInMs < 0 || readTimeoutInMs < 0 || deadlineInMs < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        this.connectTimeoutInMs = connectTimeoutInMs;
+        this.readTimeoutInMs = readTimeoutInMs;
+        this.deadlineInMs = deadlineInMs;
+    }
+
+    public int getConnectTimeoutInMs() {
+        return connectTimeoutInMs;
+    }
+
+    public int getReadTimeoutInMs() {
+        return readTimeoutInMs;
+    }
+
+    public long getDeadlineInMs() {
+        return deadlineInMs;
+    }
+
+    /**
+     * @return 이 설정에서 0인 값을 other의 값으로 채운 설정
+     */
+    RequestTimeout fillWith(final RequestTimeout other) {
+        if (other == null) {
+            return this;
+        }
+        return new RequestTimeout(
+            connectTimeoutInMs > 0 ? connectTimeoutInMs : other.connectTimeoutInMs,
+            readTimeoutInMs > 0 ? readTimeoutInMs : other.readTimeoutInMs,
+            deadlineInMs > 0 ? deadlineInMs : other.deadlineInMs);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RequestTimeout{");
+        sb.append("connect=").append(connectTimeoutInMs);
+        sb.append(", read=").append(readTimeoutInMs);
+        sb.append(", deadline=").append(deadlineInMs);
+        sb.append('}');
+        return sb.toString();
+    }
+}
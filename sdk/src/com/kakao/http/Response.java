@@ -17,26 +17,70 @@
  */
 package com.kakao.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * http 요청의 결과.
+ * body를 byte로 받은 경우에는 문자열 변환과 header 복사를 실제로 요청될 때까지 미룬다.
  * @author kkung
  */
 public class Response {
 
     private final int statusCode;
     private String statusText;
-    private final Map<String, String> headers;
-    private final String responseBody;
+    private Map<String, String> headers;
+    private final Map<String, List<String>> headerFields;
+    private String responseBody;
     private final URI uri;
 
+    private byte[] bodyBytes;
+    private final int bodyLength;
+    private final String charset;
+    private final ByteArrayPool bufferPool;
+    private boolean released;
+
     public Response(URI uri, int statusCode, String statusText, Map<String, String> headers, String responseBody) {
         this.uri = uri;
         this.statusCode = statusCode;
         this.statusText = statusText;
         this.headers = headers;
+        this.headerFields = null;
         this.responseBody = responseBody;
+        this.bodyBytes = null;
+        this.bodyLength = responseBody == null ? 0 : responseBody.length();
+        this.charset = null;
+        this.bufferPool = null;
+    }
+
+    /**
+     * body를 byte 그대로 가지고 있는 response를 만든다.
+     * @param headerFields {@link java.net.HttpURLConnection#getHeaderFields()}의 결과. 복사하지 않고 그대로 사용한다.
+     * @param bodyBytes body가 담긴 buffer. bodyLength 이후의 내용은 무시한다.
+     * @param bodyLength body의 길이
+     * @param charset body를 문자열로 바꿀 때 사용할 {@link java.nio.charset.Charset}의 이름
+     * @param bufferPool {@link #release()}시 bodyBytes를 반납할 pool. null이면 반납하지 않는다.
+     */
+    public Response(URI uri, int statusCode, String statusText, Map<String, List<String>> headerFields,
+                    byte[] bodyBytes, int bodyLength, String charset, ByteArrayPool bufferPool) {
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.headers = null;
+        this.headerFields = headerFields;
+        // body가 없는 응답도 이전과 같이 빈 문자열을 돌려준다.
+        this.responseBody = bodyLength == 0 ? "" : null;
+        this.bodyBytes = bodyBytes;
+        this.bodyLength = bodyLength;
+        this.charset = charset;
+        this.bufferPool = bufferPool;
     }
 
     public URI getUri() {
@@ -51,19 +95,141 @@ public class Response {
         return statusText;
     }
 
-    public Map<String, String> getHeaders() {
+    public synchronized Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new HashMap<String, String>();
+            if (headerFields != null) {
+                for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+                    headers.put(entry.getKey(), lastValue(entry.getValue()));
+                }
+            }
+        }
         return headers;
     }
 
-    public String getResponseBody() {
+    /**
+     * header map을 만들지 않고 header 값 하나를 찾는다. 이름은 대소문자를 구분하지 않는다.
+     * @param name header 이름
+     * @return header 값. 여러 개인 경우 마지막 값
+     */
+    public synchronized String getHeader(final String name) {
+        if (name == null) {
+            return null;
+        }
+        if (headerFields != null) {
+            for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    return lastValue(entry.getValue());
+                }
+            }
+        } else if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    public synchronized String getResponseBody() {
+        if (responseBody == null && bodyLength > 0) {
+            checkNotReleased();
+            try {
+                responseBody = new String(bodyBytes, 0, bodyLength, charset);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
         return responseBody;
     }
 
+    /**
+     * body를 문자열로 바꾸지 않고 읽을 수 있는 stream.
+     * {@link #release()} 전까지만 사용할 수 있다.
+     * @return body stream
+     */
+    public synchronized InputStream getResponseBodyAsStream() {
+        if (responseBody == null) {
+            if (bodyLength == 0) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            checkNotReleased();
+            return new ByteArrayInputStream(bodyBytes, 0, bodyLength);
+        }
+        try {
+            return new ByteArrayInputStream(responseBody.getBytes(charset == null ? "UTF-8" : charset));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return body를 복사한 byte 배열. {@link #release()} 전까지만 사용할 수 있다.
+     */
+    public synchronized byte[] getResponseBodyAsBytes() {
+        if (responseBody == null) {
+            final byte[] copy = new byte[bodyLength];
+            if (bodyLength > 0) {
+                checkNotReleased();
+                System.arraycopy(bodyBytes, 0, copy, 0, bodyLength);
+            }
+            return copy;
+        }
+        try {
+            return responseBody.getBytes(charset == null ? "UTF-8" : charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return body를 charset에 맞춰 읽는 reader. {@link #release()} 전까지만 사용할 수 있다.
+     */
+    public Reader getResponseBodyAsReader() {
+        try {
+            return new InputStreamReader(getResponseBodyAsStream(), charset == null ? "UTF-8" : charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return body의 byte 길이. String으로 만든 response는 문자 수
+     */
+    public int getContentLength() {
+        return bodyLength;
+    }
+
     public boolean hasResponseStatus() {
         return true;
     }
 
     public boolean hasResponseBody() {
-        return responseBody != null && responseBody.length() > 0;
+        return bodyLength > 0;
+    }
+
+    /**
+     * body buffer를 pool에 반납한다. 이미 문자열로 바꾼 body는 계속 사용할 수 있다.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (bufferPool != null && bodyBytes != null) {
+            bufferPool.returnBuf(bodyBytes);
+        }
+        bodyBytes = null;
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("the response body has already been released.");
+        }
+    }
+
+    private static String lastValue(final List<String> values) {
+        return (values == null || values.isEmpty()) ? null : values.get(values.size() - 1);
     }
 }
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 실패한 http 요청을 다시 시도할지와 얼마 후에 시도할지를 결정한다.
+ * 대기 시간은 시도할 때마다 두 배씩 늘어나고(최대 maxBackoffInMs), 0부터 그 값 사이에서 무작위로 정한다.
+ * 기본적으로 사용자 정보, 프로필 조회처럼 서버의 상태를 바꾸지 않는 path의 요청만 다시 시도한다.
+ * 로그아웃/탈퇴처럼 GET으로 보내는 변경 요청이 있고 프로필 조회처럼 POST로 보내는 조회 요청이 있으므로 method가 아닌 path로 판단한다.
+ * {@link AsyncHttpClient#setRetryPolicy(RetryPolicy)}로 등록한다.
+ * @author kkung
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_IN_MS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_IN_MS = 2000;
+    public static final long DEFAULT_DEADLINE_IN_MS = 15000;
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+    private final long initialBackoffInMs;
+    private final long maxBackoffInMs;
+    private final long deadlineInMs;
+
+    private volatile Set<Integer> retryableStatusCodes = Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(502, 503, 504)));
+    private volatile List<Class<? extends Throwable>> retryableExceptions =
+        Collections.<Class<? extends Throwable>>singletonList(IOException.class);
+    private volatile Set<String> retryablePaths = ReadOnlyRequests.normalize(ReadOnlyRequests.PATHS);
+    private volatile boolean retryNonIdempotentRequests;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_IN_MS, DEFAULT_MAX_BACKOFF_IN_MS, DEFAULT_DEADLINE_IN_MS);
+    }
+
+    /**
+     * @param maxAttempts 처음 요청을 포함한 최대 시도 횟수
+     * @param initialBackoffInMs 첫번째 재시도 전 대기 시간의 최대값
+     * @param maxBackoffInMs 재시도 전 대기 시간의 상한
+     * @param deadlineInMs 처음 요청을 시작한 후 이 시간이 지나면 더 이상 재시도하지 않는다.
+     */
+    public RetryPolicy(final int maxAttempts, final long initialBackoffInMs, final long maxBackoffInMs, final long deadlineInMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1");
+        }
+        if (initialBackoffInMs < 0 || maxBackoffInMs < initialBackoffInMs) {
+            throw new IllegalArgumentException("invalid backoff. initial = " + initialBackoffInMs + ", max = " + maxBackoffInMs);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffInMs = initialBackoffInMs;
+        this.maxBackoffInMs = maxBackoffInMs;
+        this.deadlineInMs = deadlineInMs;
+    }
+
+    /**
+     * 다시 시도할 http status code를 설정한다. 기본값은 502, 503, 504.
+     */
+    public RetryPolicy setRetryableStatusCodes(final int... statusCodes) {
+        final Set<Integer> codes = new HashSet<Integer>();
+        for (int statusCode : statusCodes) {
+            codes.add(statusCode);
+        }
+        this.retryableStatusCodes = Collections.unmodifiableSet(codes);
+        return this;
+    }
+
+    /**
+     * 다시 시도할 예외 class를 설정한다. 하위 class도 포함한다. 기본값은 {@link IOException}.
+     */
+    public RetryPolicy setRetryableExceptions(final Collection<Class<? extends Throwable>> exceptionClasses) {
+        this.retryableExceptions = Collections.unmodifiableList(new ArrayList<Class<? extends Throwable>>(exceptionClasses));
+        return this;
+    }
+
+    /**
+     * 다시 시도할 요청의 path를 설정한다. body 없는 GET, POST 요청만 대상이다.
+     * 기본값은 {@link com.kakao.helper.ServerProtocol#USER_ME_PATH}, {@link com.kakao.helper.ServerProtocol#TALK_PROFILE_PATH}, {@link com.kakao.helper.ServerProtocol#STORY_PROFILE_PATH}.
+     * @param paths {@link com.kakao.helper.ServerProtocol}의 path 형식
+     */
+    public RetryPolicy setRetryablePaths(final Collection<String> paths) {
+        this.retryablePaths = ReadOnlyRequests.normalize(paths);
+        return this;
+    }
+
+    /**
+     * 다시 시도할 path가 아닌 요청도 다시 시도할지 설정한다. 기본값은 false.
+     * 서버가 이미 처리한 요청이 한번 더 처리될 수 있으므로 주의해야 한다.
+     */
+    public RetryPolicy setRetryNonIdempotentRequests(final boolean retryNonIdempotentRequests) {
+        this.retryNonIdempotentRequests = retryNonIdempotentRequests;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getDeadlineInMs() {
+        return deadlineInMs;
+    }
+
+    /**
+     * @param request 실패한 요청
+     * @param attempt 지금까지 시도한 횟수
+     * @param elapsedInMs 처음 요청을 시작한 후 지난 시간
+     * @param t 요청 중 발생한 예외. status code로 실패한 경우에는 null
+     * @param statusCode 실패한 response의 http status code. 예외로 실패한 경우에는 무시한다.
+     * @return 다시 시도하기 전에 기다릴 시간. 다시 시도하지 않으면 -1
+     */
+    public long getRetryDelayInMs(final Request request, final int attempt, final long elapsedInMs, final Throwable t, final int statusCode) {
+        if (attempt >= maxAttempts || !isRetryableRequest(request)) {
+            return -1;
+        }
+        if (t != null ? !isRetryableException(t) : !retryableStatusCodes.contains(statusCode)) {
+            return -1;
+        }
+
+        final long cap = Math.min(maxBackoffInMs, initialBackoffInMs << Math.min(attempt - 1, 20));
+        final long delay = cap > 0 ? (long) (RANDOM.nextDouble() * cap) : 0;
+        if (elapsedInMs + delay >= deadlineInMs) {
+            return -1;
+        }
+        return delay;
+    }
+
+    private boolean isRetryableRequest(final Request request) {
+        final Object payload = request.hasPayload() ? request.getPayload() : null;
+        // 한번 쓰고 나면 다시 쓸 수 없는 body는 다시 보낼 수 없다.
+        if (payload instanceof HttpEntity && !((HttpEntity) payload).isRepeatable()) {
+            return false;
+        }
+        return retryNonIdempotentRequests || ReadOnlyRequests.matches(request, retryablePaths);
+    }
+
+    private boolean isRetryableException(final Throwable t) {
+        for (Class<? extends Throwable> exceptionClass : retryableExceptions) {
+            if (exceptionClass.isInstance(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ * Copyright 2014 Kakao Corp.
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import android.util.JsonReader;
+
+import com.kakao.APIErrorResult;
+import com.kakao.KakaoStoryProfile;
+import com.kakao.KakaoStoryUpload;
+import com.kakao.KakaoTalkProfile;
+import com.kakao.User;
+import com.kakao.helper.JsonHelper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * response body를 JSONObject로 만들지 않고 {@link JsonReader}로 한번 읽으면서 결과 객체를 만든다.
+ * 필수 값이 없으면 {@link org.json.JSONObject}를 이용한 경우와 같이 실패한다.
+ * @author kkung
+ */
+public class StreamingResultParser {
+
+    /**
+     * @param reader response body
+     * @param returnType 만들 결과 객체의 type
+     * @return returnType의 결과 객체
+     */
+    public static Object parse(final Reader reader, final Class<?> returnType) throws IOException {
+        final JsonReader jsonReader = new JsonReader(reader);
+        try {
+            if (APIErrorResult.class.equals(returnType)) {
+                return parseAPIErrorResult(jsonReader);
+            } else if (User.class.equals(returnType)) {
+                return parseUser(jsonReader);
+            } else if (KakaoTalkProfile.class.equals(returnType)) {
+                return parseKakaoTalkProfile(jsonReader);
+            } else if (KakaoStoryUpload.class.equals(returnType)) {
+                return parseKakaoStoryUpload(jsonReader);
+            } else if (KakaoStoryProfile.class.equals(returnType)) {
+                return parseKakaoStoryProfile(jsonReader);
+            } else if (Map.class.equals(returnType)) {
+                return JsonHelper.MapFromJsonReader(jsonReader);
+            } else if (List.class.equals(returnType)) {
+                return JsonHelper.ListFromJsonReader(jsonReader);
+            } else {
+                throw new IllegalStateException("unknown result type " + returnType);
+            }
+        } finally {
+            jsonReader.close();
+        }
+    }
+
+    public static APIErrorResult parseAPIErrorResult(final Reader reader) throws IOException {
+        final JsonReader jsonReader = new JsonReader(reader);
+        try {
+            return parseAPIErrorResult(jsonReader);
+        } finally {
+            jsonReader.close();
+        }
+    }
+
+    private static APIErrorResult parseAPIErrorResult(final JsonReader reader) throws IOException {
+        Integer code = null;
+        String msg = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("code".equals(name)) {
+                code = reader.nextInt();
+            } else if ("msg".equals(name)) {
+                msg = JsonHelper.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new APIErrorResult(required(code, "code"), required(msg, "msg"));
+    }
+
+    private static User parseUser(final JsonReader reader) throws IOException {
+        Long id = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                id = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new User(required(id, "id"));
+    }
+
+    private static KakaoTalkProfile parseKakaoTalkProfile(final JsonReader reader) throws IOException {
+        String nickName = null, profileImageURL = null, thumbnailURL = null, countryISO = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("nickName".equals(name)) {
+                nickName = JsonHelper.nextString(reader);
+            } else if ("profileImageURL".equals(name)) {
+                profileImageURL = JsonHelper.nextString(reader);
+            } else if ("thumbnailURL".equals(name)) {
+                thumbnailURL = JsonHelper.nextString(reader);
+            } else if ("countryISO".equals(name)) {
+                countryISO = JsonHelper.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new KakaoTalkProfile(
+                required(nickName, "nickName"),
+                required(profileImageURL, "profileImageURL"),
+                required(thumbnailURL, "thumbnailURL"),
+                required(countryISO, "countryISO")
+        );
+    }
+
+    private static KakaoStoryUpload parseKakaoStoryUpload(final JsonReader reader) throws IOException {
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("url".equals(reader.nextName())) {
+                url = JsonHelper.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new KakaoStoryUpload(required(url, "url"));
+    }
+
+    private static KakaoStoryProfile parseKakaoStoryProfile(final JsonReader reader) throws IOException {
+        String nickName = null, profileImageURL = null, thumbnailURL = null, bgImageURL = null, birthday = null, birthdayType = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("nickName".equals(name)) {
+                nickName = JsonHelper.nextString(reader);
+            } else if ("profileImageURL".equals(name)) {
+                profileImageURL = JsonHelper.nextString(reader);
+            } else if ("thumbnailURL".equals(name)) {
+                thumbnailURL = JsonHelper.nextString(reader);
+            } else if ("bgImageURL".equals(name)) {
+                bgImageURL = JsonHelper.nextString(reader);
+            } else if ("birthday".equals(name)) {
+                birthday = JsonHelper.nextString(reader);
+            } else if ("birthdayType".equals(name)) {
+                birthdayType = JsonHelper.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new KakaoStoryProfile(
+                required(nickName, "nickName"),
+                required(profileImageURL, "profileImageURL"),
+                required(thumbnailURL, "thumbnailURL"),
+                required(bgImageURL, "bgImageURL"),
+                required(birthday, "birthday"),
+                "+".equals(required(birthdayType, "birthdayType")) ? KakaoStoryProfile.BirthdayType.SOLAR : KakaoStoryProfile.BirthdayType.LUNAR
+        );
+    }
+
+    private static <V> V required(final V value, final String name) throws IOException {
+        if (value == null) {
+            throw new IOException("No value for " + name);
+        }
+        return value;
+    }
+}
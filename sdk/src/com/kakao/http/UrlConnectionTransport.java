@@ -0,0 +1,236 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link HttpURLConnection}으로 요청을 보내는 transport. {@link Call#enqueue(Callback)}를 호출한 thread에서 연결부터 body를 모두 읽을 때까지 기다린다.
+ * 취소하면 다른 thread에서 disconnect하여 진행 중인 read, write를 중단한다.
+ * @author kkung
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private static final int DEFAULT_BUFFER_SIZE = 2048;
+    private static final ByteArrayPool BUFFER_POOL = ByteArrayPool.getDefault();
+
+    @Override
+    public Call newCall(final Request request, final Map<String, String> headers, final int connectTimeoutInMs, final int readTimeoutInMs,
+                        final KeepAliveConnectionPool connectionPool) {
+        return new UrlConnectionCall(request, headers, connectTimeoutInMs, readTimeoutInMs, connectionPool);
+    }
+
+    private static class UrlConnectionCall implements Call {
+        private final Request request;
+        private final Map<String, String> headers;
+        private final int connectTimeoutInMs;
+        private final int readTimeoutInMs;
+        private final KeepAliveConnectionPool connectionPool;
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        private UrlConnectionCall(final Request request, final Map<String, String> headers, final int connectTimeoutInMs,
+                                  final int readTimeoutInMs, final KeepAliveConnectionPool connectionPool) {
+            this.request = request;
+            this.headers = headers;
+            this.connectTimeoutInMs = connectTimeoutInMs;
+            this.readTimeoutInMs = readTimeoutInMs;
+            this.connectionPool = connectionPool;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final HttpURLConnection urlConnection = connection;
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+
+        @Override
+        public void enqueue(final Callback callback) {
+            final Response response;
+            try {
+                response = execute();
+            } catch (IOException e) {
+                callback.onFailure(e);
+                return;
+            } catch (URISyntaxException e) {
+                callback.onFailure(new IOException(e.toString()));
+                return;
+            }
+            callback.onResponse(response);
+        }
+
+        private Response execute() throws IOException, URISyntaxException {
+            final URL url = new URL(request.getUrl());
+            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+            connection = urlConnection;
+            // connection을 만드는 사이에 취소된 경우
+            if (cancelled) {
+                urlConnection.disconnect();
+                throw new IOException("Canceled");
+            }
+            urlConnection.setConnectTimeout(connectTimeoutInMs);
+            urlConnection.setReadTimeout(readTimeoutInMs);
+            urlConnection.setRequestMethod(request.getMethod());
+
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                urlConnection.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+
+            urlConnection.setDoInput(true);
+            urlConnection.setInstanceFollowRedirects(true);
+
+            InputStream in = null, err = null;
+            OutputStream os = null;
+            // response를 끝까지 읽은 경우에만 connection을 재사용할 수 있다.
+            boolean reusable = false;
+            try {
+                Object payload = request.getPayload();
+
+                if (request.hasPayload() && payload != null) {
+                    urlConnection.setDoOutput(true);
+
+                    if (payload instanceof HttpEntity) {
+                        HttpEntity e = (HttpEntity)payload;
+                        urlConnection.setRequestProperty(
+                                "Content-Type", e.getContentType().getValue()
+                        );
+
+                        long contentLength = e.getContentLength();
+                        if (contentLength > 0) {
+                            urlConnection.setRequestProperty(
+                                    "Content-Length", String.valueOf(contentLength)
+                            );
+                        }
+
+                    } else if (payload instanceof Multipart) {
+                        urlConnection.setRequestProperty(
+                                "Content-Type", ((Multipart)payload).getContentType()
+                        );
+                    } else if (payload instanceof byte[]) {
+                        urlConnection.setRequestProperty(
+                                "Content-Length", String.valueOf(((byte[]) payload).length)
+                        );
+                    }
+                }
+
+                urlConnection.connect();
+
+                if (request.hasPayload() && payload != null) {
+                    os = urlConnection.getOutputStream();
+
+                    if (payload instanceof HttpEntity) {
+                        ((HttpEntity)payload).writeTo(os);
+                    } else if (payload instanceof byte[]) {
+                        os.write((byte[])payload);
+                    } else if (payload instanceof Multipart) {
+                        ((Multipart)payload).writeTo(os);
+                    }
+                }
+
+                int status = urlConnection.getResponseCode();
+                final Response response;
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // body가 없으므로 읽지 않는다.
+                    response = new Response(url.toURI(), status, urlConnection.getResponseMessage(), urlConnection.getHeaderFields(),
+                        null, 0, request.getCharSet(), null);
+                } else if (status >= 400) {
+                    err = urlConnection.getErrorStream();
+                    response = readResponse(url, urlConnection, status, err);
+                } else {
+                    in = urlConnection.getInputStream();
+                    response = readResponse(url, urlConnection, status, in);
+                }
+                reusable = true;
+                return response;
+
+            } finally {
+                connection = null;
+
+                if (in != null) {
+                    in.close();
+                    in = null;
+                }
+
+                if (err != null) {
+                    err.close();
+                    err = null;
+                }
+
+                if (os != null) {
+                    os.close();
+                    os = null;
+                }
+
+                // stream을 닫은 connection은 platform pool이 재사용한다.
+                if (connectionPool == null || !reusable) {
+                    urlConnection.disconnect();
+                }
+            }
+        }
+
+        private Response readResponse(final URL url, final HttpURLConnection urlConnection, final int status, final InputStream in)
+            throws IOException, URISyntaxException {
+            // Content-Length를 알면 한번에 그 크기의 buffer를 받아 복사 없이 읽는다.
+            final int contentLength = urlConnection.getContentLength();
+            byte[] buf = BUFFER_POOL.getBuf(contentLength > 0 ? contentLength : DEFAULT_BUFFER_SIZE);
+            int count = 0;
+            try {
+                while (in != null) {
+                    if (count == buf.length) {
+                        final int b = in.read();
+                        if (b < 0)
+                            break;
+                        final byte[] newBuf = BUFFER_POOL.getBuf(buf.length * 2);
+                        System.arraycopy(buf, 0, newBuf, 0, count);
+                        BUFFER_POOL.returnBuf(buf);
+                        buf = newBuf;
+                        buf[count++] = (byte) b;
+                    }
+                    final int readlen = in.read(buf, count, buf.length - count);
+                    if (readlen < 0)
+                        break;
+                    count += readlen;
+                }
+            } catch (IOException e) {
+                BUFFER_POOL.returnBuf(buf);
+                throw e;
+            }
+
+            return new Response(
+                    url.toURI(),
+                    status,
+                    urlConnection.getResponseMessage(),
+                    urlConnection.getHeaderFields(),
+                    buf,
+                    count,
+                    request.getCharSet(),
+                    BUFFER_POOL
+            );
+        }
+    }
+}
@@ -21,8 +21,6 @@ package com.kakao.rest;
 import android.os.Message;
 import com.kakao.APIErrorResult;
 import com.kakao.Session;
-import com.kakao.SessionCallback;
-import com.kakao.exception.KakaoException;
 import com.kakao.helper.ServerProtocol;
 import com.kakao.http.HttpRequestBuilder;
 import com.kakao.http.HttpRequestTask;
@@ -30,7 +28,9 @@ import com.kakao.http.HttpResponseHandler;
 import com.kakao.http.HttpTaskManager;
 import com.kakao.http.KakaoAsyncHandler;
 import com.kakao.http.Request;
+import com.kakao.http.RequestHandle;
 import com.kakao.http.Response;
+import com.kakao.http.StreamingResultParser;
 
 import org.apache.http.HttpStatus;
 import org.json.JSONException;
@@ -49,26 +49,53 @@ import java.util.Map.Entry;
  */
 public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
     private final HttpResponseHandler<T> HttpResponseHandler;
+    private final APIAsyncHandler<T> apiAsyncHandler;
+
+    // token 갱신 후 재요청한 경우 true. 재요청도 401을 받으면 다시 갱신하지 않는다.
+    private volatile boolean tokenRefreshed;
 
     public APIHttpRequestTask(final Request request, final HttpResponseHandler<T> httpResponseHandler, final Class<T> returnType) {
-        super(request, new APIAsyncHandler<T>(request, httpResponseHandler, returnType));
+        this(request, httpResponseHandler, new APIAsyncHandler<T>(request, httpResponseHandler, returnType));
+    }
+
+    private APIHttpRequestTask(final Request request, final HttpResponseHandler<T> httpResponseHandler, final APIAsyncHandler<T> asyncHandler) {
+        super(request, asyncHandler);
         this.HttpResponseHandler = httpResponseHandler;
+        this.apiAsyncHandler = asyncHandler;
+        asyncHandler.task = this;
     }
 
-    public static void checkSessionAndExecute(final APIHttpRequestTask requestTask, final HttpResponseHandler responseHandler) {
+    public static RequestHandle checkSessionAndExecute(final APIHttpRequestTask requestTask, final HttpResponseHandler responseHandler) {
         if (Session.getCurrentSession().isOpened())
             HttpTaskManager.execute(requestTask);
-        else if (!requestAccessTokenWithRefreshToken(requestTask, responseHandler)) {
-            failedToRefreshAccessToken(requestTask, responseHandler, "session is closed before sending the request");
+        else
+            TokenRefreshCoordinator.refreshAndReplay(requestTask, null);
+        return new RequestHandle(requestTask);
+    }
+
+    /**
+     * 요청을 취소한다. token 갱신을 기다리는 중이면 갱신 후 다시 요청하지 않는다.
+     */
+    @Override
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
         }
+        TokenRefreshCoordinator.cancel(this);
+        return true;
     }
 
-    private static void failedToRefreshAccessToken(final APIHttpRequestTask requestTask, final HttpResponseHandler responseHandler, final String errorMsg) {
+    static void failedToRefreshAccessToken(final APIHttpRequestTask requestTask, final HttpResponseHandler responseHandler, final String errorMsg) {
         String requestUrl = null;
         if(requestTask != null && requestTask.request != null)
             requestUrl = requestTask.request.getUrl();
         final APIErrorResult clientError = new APIErrorResult(requestUrl, errorMsg);
-        responseHandler.sendMessage(Message.obtain(responseHandler, NEED_TO_LOGIN, 0, 0, clientError));
+        if (requestTask != null) {
+            // 같은 요청에 합쳐진 handler들도 결과를 받도록 asyncHandler를 통해 전달한다.
+            requestTask.apiAsyncHandler.deliver(NEED_TO_LOGIN, clientError);
+        } else {
+            responseHandler.sendMessage(Message.obtain(responseHandler, NEED_TO_LOGIN, 0, 0, clientError));
+        }
     }
 
     public static void addQueryParam(final HttpRequestBuilder requestBuilder, final String propertiesKey, final Map properties) throws JSONException {
@@ -81,15 +108,27 @@ public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
     }
 
     private static class APIAsyncHandler<T> extends KakaoAsyncHandler<T> {
+        private APIHttpRequestTask<T> task;
 
         public APIAsyncHandler(final Request request, final HttpResponseHandler<T> httpResponseHandler, final Class<T> returnType) {
             super(request, httpResponseHandler, returnType);
         }
 
+        void deliver(final int what, final Object result) {
+            sendResult(what, result);
+        }
+
         protected Void handleFailureHttpStatus(final Response response, final URI requestUri, final int httpStatusCode) throws IOException {
             switch (httpStatusCode) {
                 case HttpStatus.SC_UNAUTHORIZED:
-                    requestAccessTokenWithRefreshToken(new APIHttpRequestTask<T>(request, httpResponseHandler, returnType), httpResponseHandler);
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    if (task.tokenRefreshed) {
+                        failedToRefreshAccessToken(task, httpResponseHandler, "access token is rejected even after refreshing it");
+                    } else {
+                        TokenRefreshCoordinator.refreshAndReplay(task, request.getHeaders().get(ServerProtocol.AUTHORIZATION_HEADER_KEY));
+                    }
                     return null;
                 case HttpStatus.SC_BAD_REQUEST:
                 case HttpStatus.SC_FORBIDDEN:
@@ -98,15 +137,20 @@ public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
 
                     JSONObject json = null;
                     try {
-                        json = new JSONObject(response.getResponseBody());
-                        final APIErrorResult result =  new APIErrorResult(
-                                json.getInt("code"),
-                                json.getString("msg")
-                        );
+                        final APIErrorResult result;
+                        if (isStreamingParserEnabled()) {
+                            result = StreamingResultParser.parseAPIErrorResult(response.getResponseBodyAsReader());
+                        } else {
+                            json = new JSONObject(response.getResponseBody());
+                            result = new APIErrorResult(
+                                    json.getInt("code"),
+                                    json.getString("msg")
+                            );
+                        }
                         result.setRequestURL(requestUri == null ? null : requestUri.toString());
-                        httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, ERROR, 0, 0, result));
+                        sendResult(ERROR, result);
                     } catch (JSONException e) {
-                        httpResponseHandler.sendMessage(Message.obtain(httpResponseHandler, ERROR, 0, 0, e));
+                        sendResult(ERROR, e);
                     }
                     return null;
                 default:
@@ -116,23 +160,20 @@ public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
         }
     }
 
-    private static boolean requestAccessTokenWithRefreshToken(final APIHttpRequestTask requestTask, final HttpResponseHandler responseHandler) {
-        return Session.getCurrentSession().implicitOpen(new SessionCallback() {
-            @Override
-            public void onSessionOpened() {
-                HttpTaskManager.execute(requestTask.updateSession());
-            }
-
-            @Override
-            public void onSessionClosed(final KakaoException exception) {
-                failedToRefreshAccessToken(requestTask, responseHandler, "session is closed during refreshing token for the request");
-            }
-        });
+    /**
+     * 갱신된 access token으로 Authorization header를 바꿔 다시 요청한다.
+     */
+    void replayWithRefreshedToken() {
+        if (isCancelled()) {
+            return;
+        }
+        tokenRefreshed = true;
+        request.getHeaders().put(ServerProtocol.AUTHORIZATION_HEADER_KEY, getAuthHeaderValue());
+        HttpTaskManager.execute(this);
     }
 
-    private HttpRequestTask updateSession() {
-        request.getHeaders().put(ServerProtocol.AUTHORIZATION_HEADER_KEY, getAuthHeaderValue());
-        return this;
+    HttpResponseHandler<T> getResponseHandler() {
+        return HttpResponseHandler;
     }
 
     protected void preRequest() {
@@ -140,7 +181,7 @@ public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
     }
 
     protected void failedRequest(Exception e) {
-        HttpResponseHandler.sendMessage(Message.obtain(HttpResponseHandler, ERROR, 0, 0, e));
+        apiAsyncHandler.deliver(ERROR, e);
     }
 
     public static void addCommon(final HttpRequestBuilder requestBuilder) {
@@ -150,8 +191,6 @@ public class APIHttpRequestTask<T> extends HttpRequestTask<T> {
     }
 
     private static String getAuthHeaderValue() {
-        final StringBuilder autorizationValue = new StringBuilder();
-        autorizationValue.append(ServerProtocol.AUTHORIZATION_BEARER).append(" ").append(Session.getCurrentSession().getAccessToken());
-        return autorizationValue.toString();
+        return Session.getCurrentSession().getAuthorizationHeaderValue();
     }
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ * Copyright 2014 Kakao Corp.
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.rest;
+
+import com.kakao.Session;
+import com.kakao.SessionCallback;
+import com.kakao.exception.KakaoException;
+import com.kakao.helper.Logger;
+import com.kakao.helper.ServerProtocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * access token이 만료되어 여러 API 요청이 동시에 401을 받더라도 refresh token으로 한번만 갱신하도록 한다.
+ * 갱신 중에 들어온 요청은 queue에서 기다렸다가 갱신이 성공하면 새 Authorization header로 다시 요청하고,
+ * 실패하면 모두 {@link com.kakao.http.HttpRequestTask#NEED_TO_LOGIN}으로 실패 처리한다.
+ * @author MJ
+ */
+public class TokenRefreshCoordinator {
+    private static final Object LOCK = new Object();
+    // 아래 값들은 LOCK의 보호를 받는다.
+    private static boolean refreshing = false;
+    private static final List<APIHttpRequestTask<?>> pendingTasks = new ArrayList<APIHttpRequestTask<?>>();
+
+    private static final AtomicLong refreshCount = new AtomicLong(0);
+    private static final AtomicLong refreshAvoidedCount = new AtomicLong(0);
+
+    /**
+     * @return 실제로 refresh token을 이용해 갱신을 시도한 횟수
+     */
+    public static long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return 이미 진행 중이거나 끝난 갱신을 이용하여 따로 갱신하지 않은 요청 수
+     */
+    public static long getRefreshAvoidedCount() {
+        return refreshAvoidedCount.get();
+    }
+
+    /**
+     * @return 갱신이 끝나기를 기다리고 있는 요청 수
+     */
+    public static int getPendingCount() {
+        synchronized (LOCK) {
+            return pendingTasks.size();
+        }
+    }
+
+    /**
+     * access token을 갱신하고 requestTask를 다시 요청한다. 이미 갱신 중이면 갱신이 끝날 때까지 기다린다.
+     * @param requestTask 갱신 후 다시 보낼 요청
+     * @param rejectedAuthHeader 서버가 거부한 Authorization header. 요청을 보내기 전이면 null
+     */
+    static void refreshAndReplay(final APIHttpRequestTask<?> requestTask, final String rejectedAuthHeader) {
+        synchronized (LOCK) {
+            pendingTasks.add(requestTask);
+            if (refreshing) {
+                refreshAvoidedCount.incrementAndGet();
+                return;
+            }
+            refreshing = true;
+        }
+
+        final Session session = Session.getCurrentSession();
+        if (rejectedAuthHeader != null) {
+            session.invalidateAccessToken(accessTokenOf(rejectedAuthHeader));
+        }
+        // 요청을 보낸 뒤에 이미 다른 곳에서 갱신이 끝났다.
+        if (session.isOpened()) {
+            refreshAvoidedCount.incrementAndGet();
+            finish(true);
+            return;
+        }
+
+        refreshCount.incrementAndGet();
+        final boolean started = session.implicitOpen(new SessionCallback() {
+            @Override
+            public void onSessionOpened() {
+                finish(true);
+            }
+
+            @Override
+            public void onSessionClosed(final KakaoException exception) {
+                finish(false);
+            }
+        });
+        if (!started) {
+            finish(false);
+        }
+    }
+
+    /**
+     * 취소된 요청을 갱신 후 다시 보낼 요청 목록에서 뺀다.
+     */
+    static void cancel(final APIHttpRequestTask<?> requestTask) {
+        synchronized (LOCK) {
+            pendingTasks.remove(requestTask);
+        }
+    }
+
+    private static void finish(final boolean succeeded) {
+        final List<APIHttpRequestTask<?>> tasks;
+        synchronized (LOCK) {
+            tasks = new ArrayList<APIHttpRequestTask<?>>(pendingTasks);
+            pendingTasks.clear();
+            refreshing = false;
+        }
+
+        Logger.getInstance().d("access token refresh " + (succeeded ? "succeeded" : "failed") + ". pending requests = " + tasks.size());
+        for (APIHttpRequestTask<?> task : tasks) {
+            if (succeeded) {
+                task.replayWithRefreshedToken();
+            } else {
+                APIHttpRequestTask.failedToRefreshAccessToken(task, task.getResponseHandler(), "session is closed during refreshing token for the request");
+            }
+        }
+    }
+
+    private static String accessTokenOf(final String authHeader) {
+        final String prefix = ServerProtocol.AUTHORIZATION_BEARER + " ";
+        return authHeader.startsWith(prefix) ? authHeader.substring(prefix.length()) : authHeader;
+    }
+}
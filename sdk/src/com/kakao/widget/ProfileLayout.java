@@ -37,6 +37,7 @@ import com.kakao.MeResponseCallback;
 import com.kakao.UserManagement;
 import com.kakao.UserProfile;
 import com.kakao.core.R;
+import com.kakao.http.RequestScope;
 
 import java.io.InputStream;
 import java.net.URL;
@@ -57,6 +58,8 @@ import java.net.URL;
 public class ProfileLayout extends FrameLayout {
     private boolean editable = false;
     private MeResponseCallback meResponseCallback;
+    // layout이 화면에서 사라지면 끝나지 않은 요청을 취소한다.
+    private RequestScope requestScope;
 
     private String profileImageURL;
     private String nickname;
@@ -165,6 +168,17 @@ public class ProfileLayout extends FrameLayout {
             userIdText.setText(userId);
     }
 
+    /**
+     * 화면에서 사라진 layout에는 사용자 정보를 그릴 수 없으므로 끝나지 않은 사용자정보 요청을 취소한다.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (requestScope != null) {
+            requestScope.close();
+        }
+    }
+
     @TargetApi(16)
     private void setBackgroundCompat(View v, Drawable drawable) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
@@ -178,7 +192,10 @@ public class ProfileLayout extends FrameLayout {
      * 사용자 정보를 요청한다.
      */
     public void requestMe() {
-        UserManagement.requestMe(meResponseCallback);
+        if (requestScope == null || requestScope.isClosed()) {
+            requestScope = new RequestScope(ProfileLayout.class.getSimpleName());
+        }
+        requestScope.add(UserManagement.requestMe(meResponseCallback));
     }
 
     private class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 동시에 처리할 수 있는 요청 수(capacity)가 정해진 서버를 흉내 내어 {@link AdaptiveConcurrencyLimiter}의 limit이 capacity 근처로 수렴하는지 확인한다.
+ * 시간은 실제로 흐르지 않고 응답 시각 순서대로 {@link AdaptiveConcurrencyLimiter#release(long, boolean)}를 호출한다.
+ * 서버는 capacity를 넘는 요청을 queue에 쌓으므로 응답 시간이 동시 요청 수 / capacity 배로 늘어난다.
+ * @author kkung
+ */
+public class AdaptiveConcurrencyLimiterSimulationTest {
+    private static final long BASE_LATENCY_IN_MS = 100;
+    private static final int MAX_LIMIT = 64;
+    private static final double TOLERANCE = 1.5;
+    // 응답을 기다리는 요청이 항상 limit보다 많도록 유지하는 수
+    private static final int BACKLOG = 100;
+
+    @Test
+    public void limitConvergesToServerCapacity() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        final Simulation simulation = new Simulation(limiter, 8, false);
+        simulation.run(3000);
+        final int[] range = simulation.limitRangeOfLast(1000);
+        // 응답 시간이 min RTT의 tolerance배를 넘지 않는 limit(capacity * tolerance) 근처에서 늘었다 줄었다 한다.
+        assertTrue("limit should not stay below capacity : " + range[0], range[0] >= 8);
+        assertTrue("limit should not grow far beyond capacity * tolerance : " + range[1], range[1] <= 8 * TOLERANCE + 2);
+    }
+
+    @Test
+    public void limitFollowsCapacityDrop() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        final Simulation simulation = new Simulation(limiter, 16, false);
+        simulation.run(3000);
+        final int[] before = simulation.limitRangeOfLast(1000);
+
+        simulation.capacity = 4;
+        simulation.run(3000);
+        final int[] after = simulation.limitRangeOfLast(1000);
+        assertTrue("limit should track the larger capacity first : " + before[0], before[0] >= 16);
+        assertTrue("limit should shrink with the capacity : " + after[1], after[1] <= 4 * TOLERANCE + 2);
+        assertTrue("limit should not collapse to the minimum : " + after[0], after[0] >= 4);
+    }
+
+    @Test
+    public void limitShrinksWhenServerDropsRequests() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        // capacity를 넘는 요청은 바로 실패(503)한다. 응답 시간은 늘지 않으므로 실패만으로 limit을 줄여야 한다.
+        final Simulation simulation = new Simulation(limiter, 8, true);
+        simulation.run(3000);
+        final int[] range = simulation.limitRangeOfLast(1000);
+        final double goodput = simulation.goodputOfLast(1000);
+        assertTrue("limit should stay near the capacity : " + range[0] + " ~ " + range[1], range[0] >= 4 && range[1] <= 8 + 2);
+        // limit을 늘려 보는 동안 capacity를 넘는 요청은 실패하지만 성공한 요청으로 서버의 capacity를 대부분 사용한다.
+        assertTrue("successful requests should use most of the capacity : " + goodput, goodput >= 8 * 0.8);
+    }
+
+    private static AdaptiveConcurrencyLimiter newLimiter() {
+        return new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, AdaptiveConcurrencyLimiter.DEFAULT_MIN_LIMIT,
+            MAX_LIMIT, TOLERANCE, AdaptiveConcurrencyLimiter.DEFAULT_BACKOFF_RATIO, AdaptiveConcurrencyLimiter.DEFAULT_MIN_RTT_WINDOW_IN_MS);
+    }
+
+    private static final class Simulation {
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final boolean dropOverCapacity;
+        private final PriorityQueue<Completion> completions = new PriorityQueue<Completion>();
+        private final List<Integer> limits = new ArrayList<Integer>();
+        private final List<Long> completedAt = new ArrayList<Long>();
+        private final List<Boolean> droppedAt = new ArrayList<Boolean>();
+        private int capacity;
+        private long now;
+        private long sequence;
+        // 서버에서 처리 중인 요청 수
+        private int serverConcurrency;
+        private boolean started;
+
+        Simulation(final AdaptiveConcurrencyLimiter limiter, final int capacity, final boolean dropOverCapacity) {
+            this.limiter = limiter;
+            this.capacity = capacity;
+            this.dropOverCapacity = dropOverCapacity;
+        }
+
+        void run(final int requests) {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < BACKLOG; i++) {
+                    submit();
+                }
+            }
+            for (int i = 0; i < requests; i++) {
+                final Completion completion = completions.poll();
+                now = completion.at;
+                serverConcurrency--;
+                limiter.release(now - completion.startedAt, completion.dropped);
+                limits.add(limiter.getLimit());
+                completedAt.add(now);
+                droppedAt.add(completion.dropped);
+                // 끝난 요청 대신 새 요청을 넣어 기다리는 요청 수를 유지한다.
+                submit();
+            }
+        }
+
+        /**
+         * @return 마지막 count개 응답을 받았을 때의 limit 중 최소값과 최대값
+         */
+        int[] limitRangeOfLast(final int count) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int limit : limits.subList(limits.size() - count, limits.size())) {
+                min = Math.min(min, limit);
+                max = Math.max(max, limit);
+            }
+            return new int[]{min, max};
+        }
+
+        /**
+         * @return 마지막 count개 응답 중 성공한 요청으로 계산한 평균 동시 처리 수. 서버가 쉬지 않고 처리하면 capacity와 같다.
+         */
+        double goodputOfLast(final int count) {
+            final int from = completedAt.size() - count;
+            int succeeded = 0;
+            for (boolean dropped : droppedAt.subList(from, droppedAt.size())) {
+                if (!dropped) {
+                    succeeded++;
+                }
+            }
+            final long elapsed = completedAt.get(completedAt.size() - 1) - completedAt.get(from);
+            return (double) succeeded * BASE_LATENCY_IN_MS / elapsed;
+        }
+
+        private void submit() {
+            final Runnable[] request = new Runnable[1];
+            request[0] = new Runnable() {
+                @Override
+                public void run() {
+                    if (limiter.acquire(request[0])) {
+                        send();
+                    }
+                }
+            };
+            request[0].run();
+        }
+
+        private void send() {
+            serverConcurrency++;
+            final boolean dropped = dropOverCapacity && serverConcurrency > capacity;
+            final long latency;
+            if (dropped) {
+                latency = BASE_LATENCY_IN_MS / 2;
+            } else {
+                latency = (long) (BASE_LATENCY_IN_MS * Math.max(1.0, (double) serverConcurrency / capacity));
+            }
+            completions.add(new Completion(now, now + latency, dropped, sequence++));
+        }
+    }
+
+    private static final class Completion implements Comparable<Completion> {
+        private final long startedAt;
+        private final long at;
+        private final boolean dropped;
+        private final long sequence;
+
+        Completion(final long startedAt, final long at, final boolean dropped, final long sequence) {
+            this.startedAt = startedAt;
+            this.at = at;
+            this.dropped = dropped;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final Completion other) {
+            if (at != other.at) {
+                return at < other.at ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * executor를 지정하지 않은 {@link AsyncHttpClient}가 {@link HttpTaskManager}에 등록된 현재 executor를 사용하는지 확인한다.
+ * @author kkung
+ */
+public class AsyncHttpClientExecutorTest {
+    private final ExecutorService originalExecutor = HttpTaskManager.getHttpExecutor();
+
+    @After
+    public void tearDown() {
+        HttpTaskManager.setHttpExecutor(originalExecutor);
+    }
+
+    @Test
+    public void usesExecutorRegisteredAfterCreation() {
+        final AsyncHttpClient client = new AsyncHttpClient(null, 3000, 3000);
+        final RecordingExecutor first = new RecordingExecutor();
+        final RecordingExecutor second = new RecordingExecutor();
+
+        HttpTaskManager.setHttpExecutor(first);
+        client.executeRequest(newRequest("1"), new NoopHandler(newRequest("1")));
+        HttpTaskManager.setHttpExecutor(second);
+        client.executeRequest(newRequest("2"), new NoopHandler(newRequest("2")));
+
+        assertEquals(1, first.executed.size());
+        assertEquals(1, second.executed.size());
+    }
+
+    @Test
+    public void cancelRemovesTaskFromTheExecutorItWasQueuedOn() {
+        final AsyncHttpClient client = new AsyncHttpClient(null, 3000, 3000);
+        final RecordingExecutor first = new RecordingExecutor();
+        HttpTaskManager.setHttpExecutor(first);
+        final Request request = newRequest("1");
+        final NoopHandler handler = new NoopHandler(request);
+        client.executeRequest(request, handler);
+        HttpTaskManager.setHttpExecutor(new RecordingExecutor());
+
+        assertTrue(handler.cancel());
+        assertEquals(1, first.removed.size());
+    }
+
+    private static Request newRequest(final String id) {
+        return new BaseRequest() {
+            public String getUrl() {
+                return "https://localhost/v1/test?id=" + id;
+            }
+
+            public Map<String, String> getHeaders() {
+                return new HashMap<String, String>();
+            }
+
+            public String getMethod() {
+                return "GET";
+            }
+
+            public boolean hasPayload() {
+                return false;
+            }
+
+            public String getCharSet() {
+                return "UTF-8";
+            }
+
+            public Object getPayload() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * 받은 작업을 수행하지 않고 기록만 한다.
+     */
+    private static class RecordingExecutor extends ThreadPoolExecutor {
+        private final List<Runnable> executed = new CopyOnWriteArrayList<Runnable>();
+        private final List<Runnable> removed = new CopyOnWriteArrayList<Runnable>();
+
+        RecordingExecutor() {
+            super(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            executed.add(command);
+        }
+
+        @Override
+        public boolean remove(final Runnable task) {
+            removed.add(task);
+            return executed.remove(task);
+        }
+    }
+
+    private static class NoopHandler extends KakaoAsyncHandler<Void> {
+        NoopHandler(final Request request) {
+            super(request, null, Void.class);
+        }
+
+        @Override
+        protected Void handleFailureHttpStatus(final Response response, final URI requestUri, final int httpStatusCode) {
+            return null;
+        }
+
+        @Override
+        protected void sendResult(final int what, final Object result) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * disk에 보관한 {@link HttpResponseCache}의 응답을 다시 읽는 경우를 확인한다.
+ * @author kkung
+ */
+public class HttpResponseCacheTest {
+    private static final String KEY = "GET https://kapi.kakao.com/v1/user/me Bearer token";
+    private static final byte[] BODY = "{\"id\":1234567890}".getBytes();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        Logger.getInstance().setLogLevel(Logger.LogLevel.Release);
+        directory = File.createTempFile("kakao-http-cache", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsEntryFromDisk() {
+        newCache().put(KEY, HttpResponseCache.createEntry("\"v1\"", "max-age=60", BODY, "UTF-8"));
+
+        final HttpResponseCache.Entry entry = newCache().get(KEY);
+        assertNotNull(entry);
+        assertArrayEquals(BODY, entry.getBody());
+    }
+
+    @Test
+    public void negativeBodyLengthIsTreatedAsCorrupt() throws IOException {
+        assertCorruptBodyLengthIsDropped(-1);
+    }
+
+    @Test
+    public void bodyLengthLargerThanFileIsTreatedAsCorrupt() throws IOException {
+        assertCorruptBodyLengthIsDropped(Integer.MAX_VALUE);
+    }
+
+    private void assertCorruptBodyLengthIsDropped(final int bodyLength) throws IOException {
+        newCache().put(KEY, HttpResponseCache.createEntry("\"v1\"", "max-age=60", BODY, "UTF-8"));
+        final File file = onlyFile();
+        // body 길이는 body 바로 앞에 int로 기록된다.
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - BODY.length - 4);
+            raf.writeInt(bodyLength);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(newCache().get(KEY));
+        assertFalse("corrupt entry should be deleted", file.exists());
+    }
+
+    private HttpResponseCache newCache() {
+        return new HttpResponseCache(directory, HttpResponseCache.DEFAULT_MAX_MEMORY_ENTRIES, HttpResponseCache.DEFAULT_MAX_DISK_BYTES,
+            Collections.<String>emptyList());
+    }
+
+    private File onlyFile() {
+        final File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+}
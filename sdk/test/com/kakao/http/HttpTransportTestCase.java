@@ -0,0 +1,509 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.helper.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HttpTransport} 구현이 공통으로 지켜야 하는 동작을 local HTTPS server에 요청하여 확인한다.
+ * 구현마다 이 class를 상속하여 {@link #newTransport()}만 구현한다.
+ * server의 인증서는 keytool로 만든 self-signed 인증서이므로 client는 모든 인증서와 localhost를 신뢰한다.
+ * @author kkung
+ */
+public abstract class HttpTransportTestCase {
+    private static final String PASSWORD = "changeit";
+    private static final long SLOW_RESPONSE_IN_MS = 1500;
+    private static final int CALLBACK_TIMEOUT_IN_SEC = 10;
+
+    protected static SSLContext clientContext;
+    protected static HostnameVerifier hostnameVerifier;
+
+    private static File keyStoreFile;
+    private static HttpsServer server;
+    private static ExecutorService serverExecutor;
+    private static String baseUrl;
+    private static SSLSocketFactory defaultSocketFactory;
+    private static HostnameVerifier defaultHostnameVerifier;
+    // 요청을 보낸 client socket의 port. connection을 재사용했는지 확인한다.
+    private static final Set<Integer> remotePorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    protected HttpTransport transport;
+    protected KeepAliveConnectionPool connectionPool;
+
+    /**
+     * @return 시험할 transport. {@link #clientContext}, {@link #hostnameVerifier}로 server를 신뢰해야 한다.
+     */
+    protected abstract HttpTransport newTransport() throws IOException;
+
+    /**
+     * 시험이 끝난 transport의 자원을 정리한다.
+     */
+    protected void releaseTransport(final HttpTransport transport) {
+    }
+
+    /**
+     * @return 같은 server에 순서대로 요청했을 때 사용하는 connection 수
+     */
+    protected int getExpectedConnectionCount() {
+        return 1;
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        keyStoreFile = File.createTempFile("kakao-http-test", ".p12");
+        keyStoreFile.delete();
+        final String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        final Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+            "-alias", "localhost", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+            "-validity", "3650", "-storetype", "PKCS12", "-keystore", keyStoreFile.getAbsolutePath(),
+            "-storepass", PASSWORD, "-keypass", PASSWORD).redirectErrorStream(true).start();
+        drain(process.getInputStream());
+        assertEquals("keytool failed", 0, process.waitFor());
+
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        final InputStream in = new FileInputStream(keyStoreFile);
+        try {
+            keyStore.load(in, PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD.toCharArray());
+        final SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", new TestHandler());
+        server.start();
+        baseUrl = "https://localhost:" + server.getAddress().getPort();
+
+        final TrustManager[] trustAll = {new X509TrustManager() {
+            public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }};
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustAll, null);
+        hostnameVerifier = new HostnameVerifier() {
+            public boolean verify(final String hostname, final SSLSession session) {
+                return "localhost".equals(hostname);
+            }
+        };
+        defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        defaultHostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+        HttpsURLConnection.setDefaultSSLSocketFactory(clientContext.getSocketFactory());
+        HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        HttpsURLConnection.setDefaultSSLSocketFactory(defaultSocketFactory);
+        HttpsURLConnection.setDefaultHostnameVerifier(defaultHostnameVerifier);
+        if (server != null) {
+            server.stop(0);
+        }
+        if (serverExecutor != null) {
+            serverExecutor.shutdownNow();
+        }
+        if (keyStoreFile != null) {
+            keyStoreFile.delete();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Logger.getInstance().setLogLevel(Logger.LogLevel.Release);
+        transport = newTransport();
+        connectionPool = new KeepAliveConnectionPool();
+        remotePorts.clear();
+    }
+
+    @After
+    public void tearDown() {
+        releaseTransport(transport);
+    }
+
+    @Test
+    public void readsContentLengthBody() throws Exception {
+        final Result result = call(get("/len"), 3000, 0);
+        assertEquals(200, result.statusCode);
+        assertEquals(5, result.contentLength);
+        assertEquals("hello", result.body);
+    }
+
+    @Test
+    public void readsChunkedBody() throws Exception {
+        final Result result = call(get("/chunked"), 3000, 0);
+        assertEquals(200, result.statusCode);
+        assertEquals(200000, result.body.length());
+        assertTrue(result.body.startsWith("0123456789"));
+    }
+
+    @Test
+    public void returnsNotModifiedForMatchingETag() throws Exception {
+        final Result first = call(get("/etag"), 3000, 0);
+        assertEquals(200, first.statusCode);
+        assertEquals("\"v1\"", first.etag);
+
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("If-None-Match", "\"v1\"");
+        final Result second = call(request("/etag", "GET", null), headers, 3000, 0);
+        assertEquals(304, second.statusCode);
+        assertEquals("", second.body);
+    }
+
+    @Test
+    public void returnsErrorStatusWithBody() throws Exception {
+        final Result result = call(get("/err"), 3000, 0);
+        assertEquals(500, result.statusCode);
+        assertEquals("{\"code\":-500}", result.body);
+    }
+
+    @Test
+    public void postsPayload() throws Exception {
+        final Result result = call(request("/echo?x=1", "POST", "abc=1".getBytes("UTF-8")), 3000, 0);
+        assertEquals(200, result.statusCode);
+        assertEquals("POST:abc=1", result.body);
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, call(get("/len"), 3000, 0).statusCode);
+        }
+        assertEquals("requests should reuse connections : " + remotePorts, getExpectedConnectionCount(), remotePorts.size());
+    }
+
+    @Test
+    public void readTimeoutFailsFast() throws Exception {
+        final long start = System.currentTimeMillis();
+        final Result result = call(get("/slow"), 300, 0);
+        assertNotNull("read timeout should fail the call", result.failure);
+        assertTrue(System.currentTimeMillis() - start < SLOW_RESPONSE_IN_MS);
+    }
+
+    @Test
+    public void cancelFailsFast() throws Exception {
+        final long start = System.currentTimeMillis();
+        final Result result = call(get("/slow"), 3000, 200);
+        assertNotNull("cancelled call should fail", result.failure);
+        assertTrue(System.currentTimeMillis() - start < SLOW_RESPONSE_IN_MS);
+    }
+
+    @Test
+    public void unknownHostFails() throws Exception {
+        final Result result = call(new TestRequest("https://no-such-host.invalid/x", "GET", null), new HashMap<String, String>(), 3000, 0);
+        assertNotNull("unknown host should fail the call", result.failure);
+    }
+
+    @Test
+    public void asyncHttpClientCompletesAllRequests() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AsyncHttpClient client = new AsyncHttpClient(executor, 3000, 3000);
+            client.setTransport(transport);
+            client.setConnectionPool(connectionPool);
+
+            final int count = 20;
+            final RecordingHandler[] handlers = new RecordingHandler[count];
+            for (int i = 0; i < count; i++) {
+                final Request request = get((i % 4 == 0 ? "/slow?k=" : "/echo?k=") + i);
+                handlers[i] = new RecordingHandler(request);
+                client.executeRequest(request, handlers[i]);
+            }
+            for (RecordingHandler handler : handlers) {
+                handler.assertSucceeded();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected static Request get(final String path) {
+        return request(path, "GET", null);
+    }
+
+    protected static Request request(final String path, final String method, final byte[] payload) {
+        return new TestRequest(baseUrl + path, method, payload);
+    }
+
+    protected Result call(final Request request, final int readTimeoutInMs, final long cancelAfterInMs) throws Exception {
+        return call(request, new HashMap<String, String>(), readTimeoutInMs, cancelAfterInMs);
+    }
+
+    /**
+     * 요청을 보내고 callback을 기다린다. callback이 한번만 불렸는지도 확인한다.
+     */
+    private Result call(final Request request, final Map<String, String> headers, final int readTimeoutInMs,
+                        final long cancelAfterInMs) throws Exception {
+        final Result result = new Result();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger callbackCount = new AtomicInteger();
+        final HttpTransport.Call call = transport.newCall(request, headers, 3000, readTimeoutInMs, connectionPool);
+        if (cancelAfterInMs > 0) {
+            // enqueue가 응답을 받을 때까지 돌아오지 않는 transport도 있으므로 다른 thread에서 취소한다.
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(cancelAfterInMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    call.cancel();
+                }
+            }).start();
+        }
+        call.enqueue(new HttpTransport.Callback() {
+            public void onResponse(final Response response) {
+                callbackCount.incrementAndGet();
+                result.statusCode = response.getStatusCode();
+                result.contentLength = response.getContentLength();
+                result.body = response.getResponseBody();
+                result.etag = response.getHeader("ETag");
+                response.release();
+                latch.countDown();
+            }
+
+            public void onFailure(final IOException e) {
+                callbackCount.incrementAndGet();
+                result.failure = e;
+                latch.countDown();
+            }
+        });
+        assertTrue("callback was not called", latch.await(CALLBACK_TIMEOUT_IN_SEC, TimeUnit.SECONDS));
+        // 늦게 중복으로 불리는 callback이 있는지 잠시 기다린다.
+        Thread.sleep(50);
+        assertEquals("callback should be called once", 1, callbackCount.get());
+        return result;
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        final byte[] buffer = new byte[1024];
+        try {
+            while (in.read(buffer) >= 0) {
+                // keytool의 출력은 사용하지 않는다.
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    protected static class Result {
+        volatile int statusCode;
+        volatile long contentLength;
+        volatile String body;
+        volatile String etag;
+        volatile IOException failure;
+    }
+
+    private static class TestRequest extends BaseRequest {
+        private final String url;
+        private final String method;
+        private final byte[] payload;
+
+        TestRequest(final String url, final String method, final byte[] payload) {
+            this.url = url;
+            this.method = method;
+            this.payload = payload;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Map<String, String> getHeaders() {
+            return new HashMap<String, String>();
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public boolean hasPayload() {
+            return payload != null;
+        }
+
+        public String getCharSet() {
+            return "UTF-8";
+        }
+
+        public Object getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * 결과와 결과를 전달한 thread를 기록한다. handler thread 대신 결과를 전달한 thread에서 바로 기록한다.
+     */
+    protected static class RecordingHandler extends KakaoAsyncHandler<Void> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicInteger resultCount = new AtomicInteger();
+        private final AtomicReference<String> resultThreadName = new AtomicReference<String>();
+        private volatile int what;
+        private volatile Object result;
+
+        protected RecordingHandler(final Request request) {
+            super(request, null, Void.class);
+        }
+
+        @Override
+        protected Void handleFailureHttpStatus(final Response response, final URI requestUri, final int httpStatusCode) {
+            sendResult(HttpRequestTask.ERROR, "http status = " + httpStatusCode);
+            return null;
+        }
+
+        @Override
+        protected void sendResult(final int what, final Object result) {
+            this.what = what;
+            this.result = result;
+            resultThreadName.set(Thread.currentThread().getName());
+            resultCount.incrementAndGet();
+            latch.countDown();
+        }
+
+        protected boolean await() throws InterruptedException {
+            return latch.await(CALLBACK_TIMEOUT_IN_SEC, TimeUnit.SECONDS);
+        }
+
+        protected String getResultThreadName() {
+            return resultThreadName.get();
+        }
+
+        protected void assertSucceeded() throws InterruptedException {
+            assertTrue("result was not delivered", await());
+            assertEquals("unexpected result : " + result, HttpRequestTask.SUCCESS, what);
+            assertEquals("result should be delivered once", 1, resultCount.get());
+        }
+    }
+
+    private static class TestHandler implements HttpHandler {
+        public void handle(final HttpExchange exchange) throws IOException {
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            final String path = exchange.getRequestURI().getPath();
+            int statusCode = 200;
+            long contentLength;
+            byte[] body;
+            if (path.equals("/len")) {
+                body = "hello".getBytes("UTF-8");
+                contentLength = body.length;
+            } else if (path.equals("/chunked")) {
+                final StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < 20000; i++) {
+                    builder.append("0123456789");
+                }
+                body = builder.toString().getBytes("UTF-8");
+                // 0이면 chunked encoding으로 보낸다.
+                contentLength = 0;
+            } else if (path.equals("/etag")) {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                body = "{\"a\":1}".getBytes("UTF-8");
+                contentLength = body.length;
+            } else if (path.equals("/err")) {
+                statusCode = 500;
+                body = "{\"code\":-500}".getBytes("UTF-8");
+                contentLength = body.length;
+            } else if (path.equals("/echo")) {
+                final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                final InputStream in = exchange.getRequestBody();
+                final byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    payload.write(buffer, 0, read);
+                }
+                body = (exchange.getRequestMethod() + ":" + payload.toString("UTF-8")).getBytes("UTF-8");
+                contentLength = body.length;
+            } else if (path.equals("/slow")) {
+                try {
+                    Thread.sleep(SLOW_RESPONSE_IN_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                body = "late".getBytes("UTF-8");
+                contentLength = body.length;
+            } else {
+                body = "{}".getBytes("UTF-8");
+                contentLength = body.length;
+            }
+            exchange.sendResponseHeaders(statusCode, contentLength);
+            final OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
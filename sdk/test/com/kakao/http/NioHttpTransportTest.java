@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HttpTransportTestCase}를 {@link NioHttpTransport}로 수행한다.
+ * @author kkung
+ */
+public class NioHttpTransportTest extends HttpTransportTestCase {
+    private static final String IO_THREAD_NAME_PREFIX = "KakaoHttpIo-";
+    private static final int IO_THREAD_COUNT = 2;
+
+    @Override
+    protected HttpTransport newTransport() throws IOException {
+        return new NioHttpTransport(IO_THREAD_COUNT, clientContext, hostnameVerifier);
+    }
+
+    /**
+     * I/O thread마다 idle connection을 따로 두고 요청을 번갈아 맡기므로 I/O thread 수 만큼 connection을 사용한다.
+     */
+    @Override
+    protected int getExpectedConnectionCount() {
+        return IO_THREAD_COUNT;
+    }
+
+    @Override
+    protected void releaseTransport(final HttpTransport transport) {
+        ((NioHttpTransport) transport).shutdown();
+    }
+
+    /**
+     * 5번의 요청 중 I/O thread마다 첫 요청만 새로 연결하고 나머지는 idle connection을 재사용한다.
+     */
+    @Test
+    @Override
+    public void reusesConnection() throws Exception {
+        super.reusesConnection();
+        assertEquals(IO_THREAD_COUNT, connectionPool.getMissCount());
+        assertEquals(5 - IO_THREAD_COUNT, connectionPool.getHitCount());
+        assertEquals(0, connectionPool.getEvictionCount());
+    }
+
+    @Test
+    public void recordsEvictionOfExpiredConnection() throws Exception {
+        connectionPool = new KeepAliveConnectionPool(1, 100);
+        assertEquals(200, call(get("/len"), 3000, 0).statusCode);
+        final long deadline = System.currentTimeMillis() + 3000;
+        while (connectionPool.getEvictionCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, connectionPool.getEvictionCount());
+    }
+
+    /**
+     * 요청을 보낸 뒤 http executor가 가득 차도 응답은 버려지거나 I/O thread에서 처리되지 않고 모두 전달되어야 한다.
+     */
+    @Test
+    public void deliversCompletionsWhileExecutorIsSaturated() throws Exception {
+        final BoundedHttpExecutor executor = new BoundedHttpExecutor(2, 2, 30,
+            BoundedHttpExecutor.SaturationPolicy.DROP_OLDEST, Executors.defaultThreadFactory());
+        final CountDownLatch gate = new CountDownLatch(1);
+        try {
+            final AsyncHttpClient client = new AsyncHttpClient(executor, 3000, 3000);
+            client.setTransport(transport);
+
+            final int count = 8;
+            final RecordingHandler[] handlers = new RecordingHandler[count];
+            for (int i = 0; i < count; i++) {
+                final Request request = get("/slow?k=" + i);
+                handlers[i] = new RecordingHandler(request);
+                client.executeRequest(request, handlers[i]);
+                // executor thread는 요청을 I/O thread에 넘기고 바로 돌아온다.
+                waitForActiveCalls(i + 1);
+            }
+
+            // 응답이 오기 전에 executor의 thread와 queue를 모두 막는다.
+            final Runnable blocker = new Runnable() {
+                public void run() {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            executor.execute(blocker);
+            executor.execute(blocker);
+            final long deadline = System.currentTimeMillis() + 3000;
+            while (executor.getActiveCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            executor.execute(blocker);
+            executor.execute(blocker);
+            try {
+                executor.execute(blocker);
+                assertTrue("executor should be saturated", false);
+            } catch (RejectedExecutionException expected) {
+                // 실패를 알릴 수 없는 작업만 queue에 있으므로 새 작업은 거절된다.
+            }
+
+            for (RecordingHandler handler : handlers) {
+                handler.assertSucceeded();
+                assertFalse("completion should not run on the I/O thread : " + handler.getResultThreadName(),
+                    handler.getResultThreadName().startsWith(IO_THREAD_NAME_PREFIX));
+            }
+            assertEquals(0, ((NioHttpTransport) transport).getActiveCallCount());
+        } finally {
+            gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private void waitForActiveCalls(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 3000;
+        while (((NioHttpTransport) transport).getActiveCallCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, ((NioHttpTransport) transport).getActiveCallCount());
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Minyoung Jeong <kkungkkung@gmail.com>
+ *
+ * Redistribution and modification in source or binary forms are not permitted without specific prior written permission. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kakao.http;
+
+import com.kakao.APIErrorResult;
+import com.kakao.KakaoStoryProfile;
+import com.kakao.KakaoStoryUpload;
+import com.kakao.KakaoTalkProfile;
+import com.kakao.User;
+import com.kakao.helper.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link StreamingResultParser}와 {@link KakaoAsyncHandler#parseWithJSONObject(String, Class)}의 결과가 같은지 확인하고,
+ * 두 방법의 결과 하나당 걸린 시간과 할당한 byte를 비교한다.
+ * @author kkung
+ */
+public class StreamingResultParserBenchmarkTest {
+    private static final String USER = "{\"id\":1234567890,\"properties\":{\"nickname\":\"kakao\",\"thumbnail_image\":\"http://th-p.talk.kakao.co.kr/th/talkp/a.jpg\"}}";
+    private static final String TALK_PROFILE = "{\"nickName\":\"카카오\",\"profileImageURL\":\"http://th-p.talk.kakao.co.kr/th/talkp/profile.jpg\","
+        + "\"thumbnailURL\":\"http://th-p.talk.kakao.co.kr/th/talkp/thumb.jpg\",\"countryISO\":\"KR\"}";
+    private static final String STORY_PROFILE = "{\"nickName\":\"카카오\",\"profileImageURL\":\"http://dn-s-story.kakao.co.kr/profile.jpg\","
+        + "\"thumbnailURL\":\"http://dn-s-story.kakao.co.kr/thumb.jpg\",\"bgImageURL\":\"http://dn-s-story.kakao.co.kr/bg.jpg\","
+        + "\"permalink\":\"https://story.kakao.com/kakao\",\"birthday\":\"0704\",\"birthdayType\":\"+\"}";
+    private static final String STORY_UPLOAD = "{\"url\":\"/upload/image/2014/01/01/a.jpg\"}";
+    private static final String ERROR = "{\"code\":-401,\"msg\":\"invalid access token\"}";
+    private static final String MAP;
+    private static final String LIST;
+
+    static {
+        final StringBuilder map = new StringBuilder("{\"id\":1234567890,\"big\":12345678901234,\"ratio\":0.5,\"ok\":true,\"none\":null,\"friends\":[");
+        final StringBuilder list = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            final String friend = "{\"id\":" + i + ",\"nickname\":\"friend" + i + "\",\"tags\":[\"a\",\"b\"],\"score\":" + (i * 1.5) + "}";
+            map.append(i > 0 ? "," : "").append(friend);
+            list.append(i > 0 ? "," : "").append(friend);
+        }
+        MAP = map.append("]}").toString();
+        LIST = list.append("]").toString();
+    }
+
+    private static final int WARMUP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 10000;
+
+    @Before
+    public void setUp() {
+        Logger.getInstance().setLogLevel(Logger.LogLevel.Release);
+    }
+
+    @Test
+    public void streamingParserBuildsTheSameResults() throws Exception {
+        final User user = (User) parseStreaming(USER, User.class);
+        assertEquals(((User) parseWithJSONObject(USER, User.class)).getId(), user.getId());
+        assertEquals(1234567890L, user.getId());
+
+        final KakaoTalkProfile talkProfile = (KakaoTalkProfile) parseStreaming(TALK_PROFILE, KakaoTalkProfile.class);
+        assertEquals(parseWithJSONObject(TALK_PROFILE, KakaoTalkProfile.class).toString(), talkProfile.toString());
+        assertEquals("카카오", talkProfile.getNickName());
+
+        final KakaoStoryProfile storyProfile = (KakaoStoryProfile) parseStreaming(STORY_PROFILE, KakaoStoryProfile.class);
+        assertEquals(parseWithJSONObject(STORY_PROFILE, KakaoStoryProfile.class).toString(), storyProfile.toString());
+        assertEquals(KakaoStoryProfile.BirthdayType.SOLAR, storyProfile.getBirthdayType());
+
+        final KakaoStoryUpload upload = (KakaoStoryUpload) parseStreaming(STORY_UPLOAD, KakaoStoryUpload.class);
+        assertEquals(parseWithJSONObject(STORY_UPLOAD, KakaoStoryUpload.class).toString(), upload.toString());
+
+        final APIErrorResult error = (APIErrorResult) parseStreaming(ERROR, APIErrorResult.class);
+        final APIErrorResult expectedError = (APIErrorResult) parseWithJSONObject(ERROR, APIErrorResult.class);
+        assertEquals(expectedError.getErrorCodeInt(), error.getErrorCodeInt());
+        assertEquals(expectedError.getErrorMessage(), error.getErrorMessage());
+
+        // 값의 type(Integer, Long, Double, Boolean, null)까지 같아야 기존 cast가 동작한다.
+        assertEquals(parseWithJSONObject(MAP, Map.class), parseStreaming(MAP, Map.class));
+        assertEquals(parseWithJSONObject(LIST, List.class), parseStreaming(LIST, List.class));
+    }
+
+    @Test
+    public void streamingParserFailsWithoutRequiredValue() throws Exception {
+        try {
+            parseStreaming("{\"nickName\":\"kakao\"}", KakaoTalkProfile.class);
+            fail("profile without required values should not be parsed");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("profileImageURL"));
+        }
+    }
+
+    /**
+     * 결과 하나를 만드는 데 걸린 시간과 할당한 byte를 출력한다.
+     * 시간은 기기와 JIT에 따라 달라지므로 출력만 하고, 할당량은 body가 큰 Map, List에서 streaming 쪽이 적어야 한다.
+     */
+    @Test
+    public void benchmarkAgainstJSONObjectParser() throws Exception {
+        final Object[][] cases = {
+            {"User", USER, User.class, false},
+            {"KakaoTalkProfile", TALK_PROFILE, KakaoTalkProfile.class, false},
+            {"KakaoStoryProfile", STORY_PROFILE, KakaoStoryProfile.class, false},
+            {"Map", MAP, Map.class, true},
+            {"List", LIST, List.class, true}
+        };
+        System.out.println(String.format("%-18s %14s %14s %16s %16s", "type", "stream ns/op", "json ns/op", "stream bytes/op", "json bytes/op"));
+        for (Object[] c : cases) {
+            final String name = (String) c[0];
+            final byte[] body = ((String) c[1]).getBytes("UTF-8");
+            final Class<?> returnType = (Class<?>) c[2];
+
+            measure(body, returnType, true, WARMUP_ITERATIONS);
+            measure(body, returnType, false, WARMUP_ITERATIONS);
+            final long[] streaming = measure(body, returnType, true, ITERATIONS);
+            final long[] jsonObject = measure(body, returnType, false, ITERATIONS);
+            System.out.println(String.format("%-18s %14d %14d %16s %16s", name, streaming[0], jsonObject[0],
+                bytesOf(streaming[1]), bytesOf(jsonObject[1])));
+            // 작은 body는 JsonReader와 reader가 만드는 고정 크기 buffer가 대부분이므로 DOM을 복사하는 Map, List만 비교한다.
+            if ((Boolean) c[3] && streaming[1] >= 0 && jsonObject[1] >= 0) {
+                assertTrue(name + " : streaming parser should allocate less than JSONObject parser", streaming[1] < jsonObject[1]);
+            }
+        }
+    }
+
+    private static String bytesOf(final long bytes) {
+        return bytes < 0 ? "n/a" : String.valueOf(bytes);
+    }
+
+    /**
+     * @return {결과 하나당 ns, 결과 하나당 할당한 byte}. 할당량을 잴 수 없는 VM이면 byte는 -1
+     */
+    private static long[] measure(final byte[] body, final Class<?> returnType, final boolean streaming, final int iterations) throws Exception {
+        final long allocatedBefore = allocatedBytes();
+        final long startedAt = System.nanoTime();
+        Object last = null;
+        for (int i = 0; i < iterations; i++) {
+            final Response response = new Response(URI.create("https://kapi.kakao.com/v1/user/me"), 200, "OK", null, body, body.length, "UTF-8", null);
+            last = streaming ? StreamingResultParser.parse(response.getResponseBodyAsReader(), returnType)
+                : KakaoAsyncHandler.parseWithJSONObject(response.getResponseBody(), returnType);
+        }
+        final long elapsed = System.nanoTime() - startedAt;
+        final long allocatedAfter = allocatedBytes();
+        assertTrue(last != null);
+        return new long[]{elapsed / iterations, allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / iterations};
+    }
+
+    /**
+     * @return 지금 thread가 할당한 전체 byte. HotSpot 계열이 아니면 -1
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            final Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Object parseStreaming(final String body, final Class<?> returnType) throws IOException {
+        final byte[] bytes = toBytes(body);
+        final Response response = new Response(URI.create("https://kapi.kakao.com/v1/user/me"), 200, "OK", null, bytes, bytes.length, "UTF-8", null);
+        return StreamingResultParser.parse(response.getResponseBodyAsReader(), returnType);
+    }
+
+    private static Object parseWithJSONObject(final String body, final Class<?> returnType) throws Exception {
+        return KakaoAsyncHandler.parseWithJSONObject(body, returnType);
+    }
+
+    private static byte[] toBytes(final String body) {
+        try {
+            return body.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}